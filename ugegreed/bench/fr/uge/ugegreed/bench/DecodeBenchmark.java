@@ -0,0 +1,68 @@
+package fr.uge.ugegreed.bench;
+
+import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
+import fr.uge.ugegreed.records.Packet;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding throughput of every packet by the PacketReader.<br>
+ * The packet is either given whole (chunkSize 0), or cut in chunks of chunkSize bytes,
+ * as when it is received across several reads of the socket.<br>
+ * Run with -prof gc to get the allocation rate.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+  @Param
+  public Packets kind;
+
+  @Param({ "0", "7", "64" })
+  public int chunkSize;
+
+  private byte[] encoded;
+  private final ByteBuffer bufferIn = ByteBuffer.allocate(1024);
+  private final PacketReader packetReader = new PacketReader();
+
+  @Setup
+  public void setup() {
+    encoded = Packets.encode(kind.packet());
+  }
+
+  @Benchmark
+  public Packet decode() {
+    var step = chunkSize == 0 ? encoded.length : chunkSize;
+    bufferIn.clear();
+    for (var offset = 0; ; offset += step) {
+      bufferIn.put(encoded, offset, Math.min(step, encoded.length - offset));
+      var status = packetReader.process(bufferIn);
+      if (status == Reader.ProcessStatus.DONE) {
+        var packet = packetReader.get();
+        packetReader.reset();
+        return packet;
+      }
+      if (status == Reader.ProcessStatus.ERROR) {
+        throw new AssertionError("decoding error for " + kind);
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package fr.uge.ugegreed.bench;
+
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding throughput of every packet, directly with encode and through the PacketWriter.<br>
+ * Run with -prof gc to get the allocation rate.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+  @Param
+  public Packets kind;
+
+  @Param({ "heap", "direct" })
+  public String bufferType;
+
+  private Packet packet;
+  private ByteBuffer buffer;
+  private final PacketWriter packetWriter = new PacketWriter();
+
+  @Setup
+  public void setup() {
+    packet = kind.packet();
+    buffer = bufferType.equals("direct") ? ByteBuffer.allocateDirect(8192) : ByteBuffer.allocate(8192);
+  }
+
+  @Benchmark
+  public int encode() {
+    buffer.clear();
+    packet.encode(buffer);
+    return buffer.position();
+  }
+
+  @Benchmark
+  public int size() {
+    return packet.size();
+  }
+
+  @Benchmark
+  public int writer() {
+    buffer.clear();
+    packetWriter.set(packet);
+    if (packetWriter.process(buffer) != Writer.ProcessStatus.DONE) {
+      throw new AssertionError();
+    }
+    packetWriter.reset();
+    return buffer.position();
+  }
+}
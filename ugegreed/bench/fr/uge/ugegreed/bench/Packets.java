@@ -0,0 +1,87 @@
+package fr.uge.ugegreed.bench;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * One sample of every packet of the protocol, used by the benchmarks.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public enum Packets {
+  CONNECT, CONNECT_KO, CONNECT_OK, ADD_NODE,
+  DISCONNECTION_REQUEST, DISCONNECTION_DENIED, DISCONNECTION_GRANTED, PLEASE_RECONNECT, RECONNECT, DISCONNECTED,
+  WORK_REQUEST, WORK_AVAILABILITY, WORK_ASSIGNMENT, WORK_RESPONSE, WORK_RESPONSE_BATCH, JAR_REQUEST, JAR_CHUNK;
+
+  private static final Id ID_V4 = new Id(new InetSocketAddress("10.100.1.1", 7777));
+  private static final Id ID_V6 = new Id(new InetSocketAddress("fe80::1", 8888));
+  // a route table of a medium network
+  private static final List<Id> IDS = IntStream.range(0, 32)
+          .mapToObj(i -> new Id(new InetSocketAddress("10.0.0." + i, 7000 + i)))
+          .toList();
+  private static final Task.Checker CHECKER =
+          new Task.Checker("http://www-igm.univ-mlv.fr/~carayol/Factorizer.jar", "fr.uge.factors.Factorizer");
+
+  /**
+   * Returns the sample packet.
+   *
+   * @return Packet, the packet.
+   */
+  public Packet packet() {
+    return switch (this) {
+      case CONNECT -> new Packet.Connection.Connect(ID_V4);
+      case CONNECT_KO -> new Packet.Connection.ConnectKo();
+      case CONNECT_OK -> new Packet.Connection.ConnectOk(ID_V6, IDS);
+      case ADD_NODE -> new Packet.Connection.AddNode(ID_V4, ID_V6);
+      case DISCONNECTION_REQUEST -> new Packet.Disconnection.DisconnectionRequest(IDS);
+      case DISCONNECTION_DENIED -> new Packet.Disconnection.DisconnectionDenied();
+      case DISCONNECTION_GRANTED -> new Packet.Disconnection.DisconnectionGranted();
+      case PLEASE_RECONNECT -> new Packet.Disconnection.PleaseReconnect(ID_V6);
+      case RECONNECT -> new Packet.Disconnection.Reconnect(ID_V4, IDS);
+      case DISCONNECTED -> new Packet.Disconnection.Disconnected(ID_V4, ID_V6);
+      case WORK_REQUEST -> new Packet.Work.WorkRequest(ID_V4, ID_V6, 42L, CHECKER, new Task.Range(0, 1_000_000), 1000L);
+      case WORK_AVAILABILITY -> new Packet.Work.WorkAvailability(ID_V6, ID_V4, 42L, 1000L);
+      case WORK_ASSIGNMENT -> new Packet.Work.WorkAssignment(ID_V4, ID_V6, 42L, new Task.Range(0, 1000));
+      case WORK_RESPONSE -> workResponse(123_456L);
+      case WORK_RESPONSE_BATCH -> new Packet.Work.WorkResponseBatch(ID_V4, ID_V6, 42L,
+              LongStream.range(123_456L, 123_456L + 16).mapToObj(Packets::response).toList());
+      case JAR_REQUEST -> new Packet.Work.JarRequest(ID_V6, ID_V4, CHECKER.javaUrl());
+      case JAR_CHUNK -> new Packet.Work.JarChunk(ID_V4, ID_V6, CHECKER.javaUrl(), 4096, 512, new byte[512]);
+    };
+  }
+
+  /**
+   * Returns the response of a value, as sent by a worker.
+   *
+   * @param value Long, the value checked.
+   * @return Packet, the WorkResponse.
+   */
+  public static Packet workResponse(long value) {
+    return new Packet.Work.WorkResponse(ID_V4, ID_V6, 42L, response(value));
+  }
+
+  private static Response response(long value) {
+    return new Response(value, Response.JOB_DONE, value + " = 2 * 2 * 2 * 3 * 3 * 1697");
+  }
+
+  /**
+   * Returns the bytes of the packet.
+   *
+   * @param packet Packet, the packet.
+   * @return Array of bytes, the encoded packet.
+   */
+  public static byte[] encode(Packet packet) {
+    var buffer = ByteBuffer.allocate(packet.size());
+    if (!packet.encode(buffer)) {
+      throw new AssertionError("wrong size for " + packet);
+    }
+    return buffer.array();
+  }
+}
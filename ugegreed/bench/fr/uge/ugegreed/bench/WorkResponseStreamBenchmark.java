@@ -0,0 +1,102 @@
+package fr.uge.ugegreed.bench;
+
+import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.writer.BufferPool;
+import fr.uge.ugegreed.writer.OutputRing;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of a stream of back-to-back WorkResponses, as sent by a worker computing a range.<br>
+ * The scores are given per response.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkResponseStreamBenchmark {
+  private static final int RESPONSES = 1024;
+
+  // size of the socket reads
+  @Param({ "1024", "8192" })
+  public int readSize;
+
+  private final Packet[] responses = new Packet[RESPONSES];
+  private byte[] stream;
+  private ByteBuffer bufferIn;
+  private final PacketReader packetReader = new PacketReader();
+  private final PacketWriter packetWriter = new PacketWriter();
+  private final BufferPool bufferPool = new BufferPool(8 * 1024, 16);
+
+  @Setup
+  public void setup() {
+    var output = new ByteArrayOutputStream();
+    for (var i = 0; i < RESPONSES; i++) {
+      responses[i] = Packets.workResponse(1_000_000L + i);
+      output.writeBytes(Packets.encode(responses[i]));
+    }
+    stream = output.toByteArray();
+    bufferIn = ByteBuffer.allocate(readSize);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RESPONSES)
+  public void encodeStream(Blackhole blackhole) {
+    var ring = new OutputRing(bufferPool, 16);
+    for (var response : responses) {
+      packetWriter.set(response);
+      while (packetWriter.process(ring.tail()) == Writer.ProcessStatus.REFILL) {
+        if (!ring.grow()) {
+          throw new AssertionError("ring too small");
+        }
+      }
+      packetWriter.reset();
+    }
+    blackhole.consume(ring.tail().position());
+    ring.release();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RESPONSES)
+  public void decodeStream(Blackhole blackhole) {
+    bufferIn.clear();
+    var offset = 0;
+    var decoded = 0;
+    while (decoded < RESPONSES) {
+      var length = Math.min(bufferIn.remaining(), stream.length - offset);
+      bufferIn.put(stream, offset, length);
+      offset += length;
+      for (;;) {
+        var status = packetReader.process(bufferIn);
+        if (status != Reader.ProcessStatus.DONE) {
+          break;
+        }
+        blackhole.consume(packetReader.get());
+        packetReader.reset();
+        decoded++;
+      }
+    }
+  }
+}
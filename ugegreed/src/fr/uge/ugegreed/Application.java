@@ -4,7 +4,10 @@ import fr.uge.ugegreed.packetsProcessors.PacketsProcessor;
 import fr.uge.ugegreed.records.Id;
 import fr.uge.ugegreed.records.Packet;
 import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.RequestJournal;
 import fr.uge.ugegreed.works.ResponseCollector;
+import fr.uge.ugegreed.works.ResultWriter;
+import fr.uge.ugegreed.writer.BufferPool;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -14,7 +17,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -27,6 +32,9 @@ import java.util.logging.Logger;
  */
 public final class Application {
   private static final Logger logger = Logger.getLogger(Application.class.getName());
+  private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 256;
+  private static final String REACTORS_PROPERTY = "ugegreed.reactors";
 
   private final ResponseCollector responseCollector = new ResponseCollector();
   private final PacketsProcessor.PacketsHandler packetsHandler;
@@ -37,31 +45,33 @@ public final class Application {
   private final Thread consoleThread;
   private final ServerSocketChannel serverSocketChannel;
   private final RouteTable routeTable;
-  private final Object lock = new Object();
-  private final int totalWorkRange = 1000;
   private final boolean rootMode;
+  private final BufferPool bufferPool = new BufferPool(OUTPUT_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+  private final Mailbox mailbox; // the commands of the console and the packets decoded by the reactors
+  private final Reactor[] reactors; // empty if the selector of the application owns every connection
+  private int nextReactor;
   private ApplicationContext motherContext;
-  private int currentWorkLoad = 0;
-  private long workToSend = 0;
-  private long requestId = -1;
-  private List<Id> contactForWork;
+  private long lastRequestId;
 
   public Application(int port) throws IOException {
     rootMode = true;
-    packetsHandler = new PacketsProcessor.PacketsHandler(responseCollector);
+    selector = Selector.open();
+    mailbox = new Mailbox(selector);
+    reactors = newReactors();
+    packetsHandler = new PacketsProcessor.PacketsHandler(responseCollector, selector::wakeup);
     applicationId = new Id(new InetSocketAddress("0.0.0.0", port));
     routeTable = new RouteTable(applicationId);
     motherAddress = null;
-    selector = Selector.open();
     sc = null;
     serverSocketChannel = ServerSocketChannel.open();
     serverSocketChannel.bind(applicationId.socketAddress());
     var console = new Console(
             this::onStartTask,
             () -> System.out.println("You are in root mode, you cannot disconnect !"),
-            () -> System.out.println(routeTable)
+            () -> execute(() -> System.out.println(routeTable))
     );
     consoleThread = Thread.ofPlatform().daemon().unstarted(console::run);
+    responseCollector.addCompletionListener(this::onRequestComplete);
   }
 
   /**
@@ -74,11 +84,13 @@ public final class Application {
    */
   public Application(int port, InetSocketAddress serverAddress) throws IOException {
     rootMode = false;
-    packetsHandler = new PacketsProcessor.PacketsHandler(responseCollector);
+    this.selector = Selector.open();
+    mailbox = new Mailbox(selector);
+    reactors = newReactors();
+    packetsHandler = new PacketsProcessor.PacketsHandler(responseCollector, selector::wakeup);
     applicationId = new Id(new InetSocketAddress("0.0.0.0", port));
     routeTable = new RouteTable(applicationId);
     this.motherAddress = serverAddress;
-    this.selector = Selector.open();
     sc = SocketChannel.open();
 
     serverSocketChannel = ServerSocketChannel.open();
@@ -86,70 +98,106 @@ public final class Application {
     var console = new Console(
             this::onStartTask,
             this::onDisconnectApplication,
-            () -> System.out.println(routeTable)
+            () -> execute(() -> System.out.println(routeTable))
     );
     consoleThread = Thread.ofPlatform().daemon().unstarted(console::run);
+    responseCollector.addCompletionListener(this::onRequestComplete);
   }
 
+  // the accepted connections are spread across the reactors, none by default
+  private Reactor[] newReactors() throws IOException {
+    var count = Integer.getInteger(REACTORS_PROPERTY, 0);
+    if (count < 0) {
+      throw new IllegalArgumentException(REACTORS_PROPERTY + " should not be negative");
+    }
+    var reactors = new Reactor[count];
+    for (var i = 0; i < count; i++) {
+      reactors[i] = new Reactor(this, "reactor-" + i, new BufferPool(OUTPUT_BUFFER_SIZE, MAX_POOLED_BUFFERS));
+    }
+    return reactors;
+  }
+
+  private void onRequestComplete(long requestId) {
+    System.out.println("Request " + requestId + " is complete, results in " + responseCollector.getResultFilePath(requestId));
+  }
+
+  // the console only gives commands to the selector thread, which owns the route table and the mother connection
   private void onDisconnectApplication() {
-    var disconnectPacket = new Packet.Disconnection.DisconnectionRequest(
-            routeTable.daughtersForDisconnection()
-    );
-    motherContext.enqueue(disconnectPacket);
-    selector.wakeup();
+    execute(() -> {
+      var disconnectPacket = new Packet.Disconnection.DisconnectionRequest(
+              routeTable.daughtersForDisconnection()
+      );
+      motherContext.enqueue(disconnectPacket);
+    });
   }
 
   private void onStartTask(Task task) {
-    requestId = System.currentTimeMillis();
-    responseCollector.addResultFilename(requestId, task.resultsFilename());
-    contactForWork = routeTable.getNeighbours();
-    workToSend = task.range().sup();
-    var workLoadForOneMachine = workToSend / contactForWork.size(); // TODO attention au diviser par 0 exception quand juste ROOT est démarré
-    var firstMachine = contactForWork.get(0); // Just horrible...
-    contactForWork.remove(firstMachine); // Holy macaroni, a remove ?!?!
-    var workRequest = new Packet.Work.WorkRequest(
-            applicationId,
-            firstMachine,
-            requestId,
-            task.checker(),
-            task.range(),
-            workLoadForOneMachine
-    );
-    routeTable.sendTo(workRequest, firstMachine);
-    selector.wakeup();
+    submit(task);
   }
 
-  private void processCommandsForMother() {
-    for (;;) {
-      var msg = motherContext.peek();
-      if (msg == null) {
-        break;
+  /**
+   * Starts a task, from any thread.<br>
+   * The journal of the task is read by the calling thread, then the task is given to the selector thread
+   * through the mailbox of the application, without any lock.
+   *
+   * @param task Task, the task.
+   */
+  public void submit(Task task) {
+    Objects.requireNonNull(task);
+    var resumed = readJournal(task);
+    execute(() -> startTask(task, resumed));
+  }
+
+  // read by the submitting thread, an unfinished request of the same task is resumed
+  private static RequestJournal.Progress readJournal(Task task) {
+    var journalPath = ResultWriter.journalPath(task.resultsFilename());
+    try {
+      var progress = RequestJournal.read(journalPath)
+              .filter(journal -> !journal.finished() && journal.matches(task))
+              .filter(journal -> Files.exists(ResultWriter.storePath(task.resultsFilename())))
+              .orElse(null);
+      if (progress != null) {
+        logger.info("Resuming the request " + progress.requestId() + " : " + progress.completedCount()
+                + " values already saved, assigned before to " + progress.assignedValues());
       }
+      return progress;
+    } catch (IOException e) {
+      logger.warning("Failed to read the journal " + journalPath + ", the request starts again : " + e.getMessage());
+      return null;
+    }
+  }
 
-      motherContext.nextPacket();
-      motherContext.queueMessage(msg);
+  // by the selector thread, resumed is the journal of the unfinished request of the same task, or null
+  private void startTask(Task task, RequestJournal.Progress resumed) {
+    if (resumed != null && responseCollector.isRunning(resumed.requestId())) {
+      logger.warning("The request " + resumed.requestId() + " is already running");
+      return;
+    }
+    // two requests started in the same millisecond still have different ids
+    var requestId = resumed != null ? resumed.requestId() : Math.max(System.currentTimeMillis(), lastRequestId + 1);
+    lastRequestId = Math.max(lastRequestId, requestId);
+    responseCollector.addRequest(requestId, task, resumed);
+    var pending = resumed == null ? List.of(task.range()) : resumed.missing();
+    if (!pending.isEmpty()) {
+      packetsHandler.calculator().startTask(requestId, task, pending, routeTable);
     }
   }
 
-  private void processCommands() {
-    synchronized (lock) {
-      if(!rootMode && motherContext.currentState() == PacketsProcessor.State.DISCONNECTING) {
-        processCommandsForMother();
-        return;
-      }
+  private void processCommandsForMother() {
+    // the packets enqueued by the console are written as soon as bufferOut has room for them
+    motherContext.flush();
+  }
 
-      if(!rootMode) {
-        processCommandsForMother();
-      }
+  private void processCommands() {
+    if(!rootMode) {
+      processCommandsForMother();
     }
   }
 
+  // by the selector thread, the packet is written by processCommands
   private void pingServer() {
-    synchronized (lock) {
-      var connectPacket = new Packet.Connection.Connect(applicationId);
-      motherContext.enqueue(connectPacket);
-      selector.wakeup();
-    }
+    var connectPacket = new Packet.Connection.Connect(applicationId);
+    motherContext.enqueue(connectPacket);
   }
 
   public void launch() throws IOException {
@@ -167,14 +215,27 @@ public final class Application {
     } else {
       logger.info("Application started in ROOT mode");
     }
+    for (var reactor : reactors) {
+      reactor.start();
+    }
     consoleThread.start();
-    while (!Thread.interrupted()) {
-      try {
-        selector.select(this::treatKey);
-        processCommands();
-      } catch (UncheckedIOException tunneled) {
-        throw tunneled.getCause();
+    try {
+      while (!Thread.interrupted()) {
+        try {
+          selector.select(this::treatKey);
+          mailbox.drain();
+          processCommands();
+          packetsHandler.calculator().processCompletedWork(routeTable);
+        } catch (UncheckedIOException tunneled) {
+          throw tunneled.getCause();
+        }
       }
+    } finally {
+      for (var reactor : reactors) {
+        reactor.stop();
+      }
+      // the results received so far are written, the running requests can be resumed
+      responseCollector.close();
     }
   }
 
@@ -218,6 +279,13 @@ public final class Application {
       return;
     }
     sc.configureBlocking(false);
+    if (reactors.length > 0) {
+      var reactor = reactors[nextReactor];
+      nextReactor = (nextReactor + 1) % reactors.length;
+      reactor.execute(() -> reactor.register(sc));
+      logger.info("connection accepted : " + sc.getRemoteAddress());
+      return;
+    }
     var clientKey = sc.register(selector, SelectionKey.OP_READ);
     var daughterContext = new ApplicationContext(this, clientKey);
     clientKey.attach(daughterContext);
@@ -225,6 +293,9 @@ public final class Application {
   }
 
   private void silentlyClose(SelectionKey key) {
+    if (key.attachment() instanceof ApplicationContext context) {
+      context.releaseBuffers();
+    }
     var sc = (Channel) key.channel();
     try {
       sc.close();
@@ -235,6 +306,29 @@ public final class Application {
     logger.info("Connexion closed with  : " + sc);
   }
 
+  BufferPool bufferPool() {
+    return bufferPool;
+  }
+
+  RouteTable routeTable() {
+    return routeTable;
+  }
+
+  PacketsProcessor.PacketsHandler packetsHandler() {
+    return packetsHandler;
+  }
+
+  /**
+   * Gives a command to the selector thread of the application, which owns the route table and the works.<br>
+   * Every other thread goes through this method : the commands are queued in a lock-free queue,
+   * and run in order by the selector thread, all at once after its next select.
+   *
+   * @param command Runnable, the command, run after the next select.
+   */
+  public void execute(Runnable command) {
+    mailbox.post(command);
+  }
+
   void connectToNewMother(Id newMother, Set<Id> daughters) throws IOException {
     var sc = SocketChannel.open();
     sc.configureBlocking(false);
@@ -4,55 +4,109 @@ import fr.uge.ugegreed.packetsProcessors.Calculator;
 import fr.uge.ugegreed.packetsProcessors.Connector;
 import fr.uge.ugegreed.packetsProcessors.Disconnector;
 import fr.uge.ugegreed.packetsProcessors.PacketsProcessor;
+import fr.uge.ugegreed.reader.FrameForwarder;
 import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
 import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.writer.OutputRing;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public final class ApplicationContext {
     private static final Logger logger = Logger.getLogger(Application.class.getName());
     private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_OUTPUT_SEGMENTS = 16;
+    private static final int MAX_PACKETS_IN_CORE = 32; // decoded packets waiting for the application thread
 
     private final SelectionKey key;
     private final SocketChannel sc;
     private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-    private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
+    private final OutputRing outputRing;
     private final ArrayDeque<Packet> queue = new ArrayDeque<>();
+    // the callbacks of queueMessage, run once the number of packets encoded reaches their position
+    private final ArrayDeque<Callback> callbacks = new ArrayDeque<>();
+    private long queuedPackets;
+    private long encodedPackets;
     private final PacketReader packetReader = new PacketReader();
+    private final FrameForwarder frameForwarder = new FrameForwarder();
+    private boolean decoding; // the packet reader has read the beginning of a packet
+    private boolean forwarding; // the frame forwarder has read the beginning of a frame
+    private final PacketWriter packetWriter = new PacketWriter();
     private final Application application;
-    private PacketsProcessor.State state = PacketsProcessor.State.CONNECTING;
+    private final Reactor reactor; // null if the connection belongs to the selector of the application
+    private final AtomicInteger packetsInCore = new AtomicInteger();
+    private volatile PacketsProcessor.State state = PacketsProcessor.State.CONNECTING;
 
     ApplicationContext(Application application, SelectionKey key) {
         this.application = application;
+        this.reactor = null;
         this.key = key;
         this.sc = (SocketChannel) key.channel();
+        this.outputRing = new OutputRing(application.bufferPool(), MAX_OUTPUT_SEGMENTS);
+    }
+
+    /**
+     * ApplicationContext constructor, for a connection owned by a reactor.<br>
+     * Its packets are decoded by the reactor thread and processed by the application thread,
+     * the packets sent to it are encoded by the reactor thread.
+     *
+     * @param application Application, the application.
+     * @param key SelectionKey, the key of the connection, registered in the selector of the reactor.
+     * @param reactor Reactor, the reactor.
+     */
+    ApplicationContext(Application application, SelectionKey key, Reactor reactor) {
+        this.application = application;
+        this.reactor = Objects.requireNonNull(reactor);
+        this.key = key;
+        this.sc = (SocketChannel) key.channel();
+        this.outputRing = new OutputRing(reactor.bufferPool(), MAX_OUTPUT_SEGMENTS);
     }
 
     /**
      * Process the content of bufferIn.<br>
      *
+     * The transfer frames for another application are forwarded as they are, by the frame forwarder,
+     * the other packets are decoded by the packet reader.<br>
      * The convention is that bufferIn is in write-mode before the call to process
      * and after the call
      *
      */
     private void processIn(RouteTable routeTable, PacketsProcessor.PacketsHandler packetsHandler) throws IOException {
         for (;;) {
+            if (!decoding && !forwarding) {
+                switch (frameForwarder.inspect(bufferIn, routeTable.id())) {
+                    case FORWARD -> forwarding = true;
+                    case REFILL -> {
+                        return;
+                    }
+                    case DECODE -> {}
+                }
+            }
+            if (forwarding) {
+                if (!forwardIn(routeTable)) {
+                    return;
+                }
+                continue;
+            }
             var status = packetReader.process(bufferIn);
+            decoding = status == Reader.ProcessStatus.REFILL;
             switch (status) {
                 case DONE -> {
                     var value = packetReader.get();
+                    packetReader.reset();
                     logger.info(value.toString());
-                    switch (value) {
-                        case Packet.Connection connection -> connectProcessIn(connection, routeTable, packetsHandler.connector());
-                        case Packet.Disconnection disconnection -> disconnectProcessIn(disconnection, routeTable, packetsHandler.disconnector());
-                        case Packet.Work workPacket -> workProcessIn(workPacket, routeTable, packetsHandler.calculator());
-                        default -> throw new IllegalStateException("unknown packet !");
+                    if (reactor == null) {
+                        processPacket(value, routeTable, packetsHandler);
+                    } else if (!toApplication(() -> processPacket(value, routeTable, packetsHandler))) {
+                        return;
                     }
-                    packetReader.reset();
                 }
                 case REFILL -> {
                     return;
@@ -66,6 +120,87 @@ public final class ApplicationContext {
         }
     }
 
+    private void processPacket(Packet packet, RouteTable routeTable, PacketsProcessor.PacketsHandler packetsHandler) throws IOException {
+        switch (packet) {
+            case Packet.Connection connection -> connectProcessIn(connection, routeTable, packetsHandler.connector());
+            case Packet.Disconnection disconnection -> disconnectProcessIn(disconnection, routeTable, packetsHandler.disconnector());
+            case Packet.Work workPacket -> workProcessIn(workPacket, routeTable, packetsHandler.calculator());
+            default -> throw new IllegalStateException("unknown packet !");
+        }
+    }
+
+    /**
+     * Gives a decoded packet to the application thread, which owns the route table, for a connection of a reactor.<br>
+     * The reading stops while MAX_PACKETS_IN_CORE packets are waiting, the application thread resumes it.
+     *
+     * @return true if the next packet can be read.
+     */
+    private boolean toApplication(PacketCommand command) {
+        packetsInCore.incrementAndGet();
+        application.execute(() -> {
+            try {
+                command.run();
+            } catch (IOException e) {
+                logger.info("connection closed with client due to IO exception");
+                close();
+            } finally {
+                if (packetsInCore.getAndDecrement() == MAX_PACKETS_IN_CORE) {
+                    reactor.execute(this::resumeIn);
+                }
+            }
+        });
+        return packetsInCore.get() < MAX_PACKETS_IN_CORE;
+    }
+
+    private record Callback(long position, Runnable onEncoded) {}
+
+    @FunctionalInterface
+    private interface PacketCommand {
+        void run() throws IOException;
+    }
+
+    // by the reactor thread, the packets left in bufferIn are processed once the application thread caught up
+    private void resumeIn() {
+        if (!sc.isOpen()) {
+            return;
+        }
+        try {
+            processIn(application.routeTable(), application.packetsHandler());
+            updateInterestOps();
+        } catch (IOException e) {
+            logger.info("connection closed with client due to IO exception");
+            close();
+        }
+    }
+
+    // returns true if the frame was forwarded, and the next packet can be read
+    private boolean forwardIn(RouteTable routeTable) {
+        var status = frameForwarder.process(bufferIn);
+        switch (status) {
+            case DONE -> {
+                var destination = frameForwarder.destination();
+                var frame = new Packet.RawFrame(destination, frameForwarder.get());
+                frameForwarder.reset();
+                forwarding = false;
+                if (reactor == null) {
+                    routeTable.sendTo(frame, destination);
+                    return true;
+                }
+                return toApplication(() -> routeTable.sendTo(frame, destination));
+            }
+            case REFILL -> {
+                return false;
+            }
+            case ERROR -> {
+                logger.warning("invalid frame to forward, dropped");
+                frameForwarder.reset();
+                forwarding = false;
+                return false;
+            }
+        }
+        throw new AssertionError();
+    }
+
     private void connectProcessIn(Packet.Connection connectPacket, RouteTable routeTable, Connector connector) {
         state = connector.process(this, connectPacket, routeTable, state);
         if(state == PacketsProcessor.State.CONNEXION_REFUSED) {
@@ -81,7 +216,8 @@ public final class ApplicationContext {
                 if(disconnectionPacket instanceof Packet.Disconnection.PleaseReconnect pleaseReconnect) {
                     var oldMother = routeTable.getMother();
                     var newMother = pleaseReconnect.idMother();
-                    application.connectToNewMother(newMother, routeTable.getDaughters());
+                    // the daughters are copied before the new mother is added to the route table
+                    application.connectToNewMother(newMother, Set.copyOf(routeTable.getDaughters()));
                     routeTable.remove(oldMother);
                     routeTable.changeMother(newMother);
                 } else {
@@ -98,24 +234,35 @@ public final class ApplicationContext {
     }
 
     /**
-     * Try to fill bufferOut from the message queue
+     * Try to fill the output ring from the message queue.<br>
      *
+     * The ring grows while the packets don't fit in it, up to MAX_OUTPUT_SEGMENTS buffers.
+     * A packet larger than the ring is written by the packet writer across several calls.
      */
     private void processOut() {
-        while (!queue.isEmpty()) {
-            var currentPacket = queue.peekFirst();
-            // TODO a changer par un Writter.process() !!!!!!!!
-            if (!currentPacket.encode(bufferOut)) {
-                break;
+        for (;;) {
+            if (!packetWriter.isWriting()) {
+                var packet = queue.poll();
+                if (packet == null) {
+                    return;
+                }
+                packetWriter.set(packet);
+            }
+            if (packetWriter.process(outputRing.tail()) == Writer.ProcessStatus.DONE) {
+                packetWriter.reset();
+                encodedPackets++;
+                while (!callbacks.isEmpty() && callbacks.peek().position() <= encodedPackets) {
+                    callbacks.poll().onEncoded().run();
+                }
+            } else if (!outputRing.grow()) {
+                return;
             }
-
-            queue.poll();
         }
     }
 
     /**
      * Update the interestOps of the key looking only at values of the boolean
-     * closed and of both ByteBuffers.<br>
+     * closed, of bufferIn and of the output ring.<br>
      *
      * The convention is that both buffers are in write-mode before the call to
      * updateInterestOps and after the call. Also, it is assumed that process has
@@ -123,10 +270,11 @@ public final class ApplicationContext {
      */
     private void updateInterestOps() {
         var newInterestOps = 0;
-        if (state != PacketsProcessor.State.CLOSED && bufferIn.hasRemaining()) {
+        if (state != PacketsProcessor.State.CLOSED && bufferIn.hasRemaining()
+                && packetsInCore.get() < MAX_PACKETS_IN_CORE) {
             newInterestOps |= SelectionKey.OP_READ;
         }
-        if (bufferOut.position() != 0) {
+        if (!outputRing.isEmpty()) {
             newInterestOps |= SelectionKey.OP_WRITE;
         } else if (state == PacketsProcessor.State.CLOSED) {
             silentlyClose();
@@ -137,21 +285,56 @@ public final class ApplicationContext {
     }
 
     private void silentlyClose() {
+        if (postedToReactor(this::silentlyClose)) {
+            return;
+        }
         try {
+            releaseBuffers();
             sc.close();
             logger.info("Disconnected");
-            Thread.currentThread().interrupt();
+            if (reactor == null) {
+                Thread.currentThread().interrupt();
+            } else {
+                application.execute(() -> Thread.currentThread().interrupt());
+            }
         } catch (IOException e) {
             // ignore exception
         }
     }
 
+    // the buffers of a connection of a reactor are only used by the reactor thread, the action is given to it
+    private boolean postedToReactor(Runnable action) {
+        if (reactor == null || reactor.inReactorThread()) {
+            return false;
+        }
+        reactor.execute(action);
+        return true;
+    }
+
     public void queueMessage(Packet msg) {
+        if (postedToReactor(() -> queueMessage(msg))) {
+            return;
+        }
         queue.add(msg);
+        queuedPackets++;
         processOut();
         updateInterestOps();
     }
 
+    /**
+     * Queues a packet, the callback is run once the packet is encoded in the output buffers.
+     *
+     * @param msg Packet, the packet.
+     * @param onEncoded Runnable, the callback, run by the thread which owns the connection.
+     */
+    public void queueMessage(Packet msg, Runnable onEncoded) {
+        if (postedToReactor(() -> queueMessage(msg, onEncoded))) {
+            return;
+        }
+        callbacks.add(new Callback(queuedPackets + 1, onEncoded));
+        queueMessage(msg);
+    }
+
     void doConnect() throws IOException {
         if (!sc.finishConnect()) {
             logger.warning("The selector lied");
@@ -173,6 +356,7 @@ public final class ApplicationContext {
         if (sc.read(bufferIn) == -1) {
             logger.info("Connection is closed");
             key.cancel();
+            releaseBuffers();
             return;
         }
         logger.info("Received something");
@@ -183,21 +367,19 @@ public final class ApplicationContext {
     /**
      * Performs the write action on sc.<br>
      *
-     * The convention is that both buffers are in write-mode before the call to
+     * The whole output ring is sent with one gathering write.
+     * The convention is that every buffer is in write-mode before the call to
      * doWrite and after the call
      *
      * @throws IOException If the connection had a problem during writing.
      */
     void doWrite() throws IOException {
-        var remaining = bufferOut.remaining();
-        bufferOut.flip();
         try {
-            sc.write(bufferOut);
-            if (remaining == bufferOut.remaining()) {
+            // the end of a packet larger than the ring goes out in the same write
+            if (outputRing.writeTo(sc, packetWriter.pending()) == 0) {
                 logger.warning("The selector has lied");
             }
         } finally {
-            bufferOut.compact();
             processOut();
             updateInterestOps();
         }
@@ -207,14 +389,42 @@ public final class ApplicationContext {
 
     void enqueue(Packet packet) {
         queue.addLast(packet);
+        queuedPackets++;
     }
 
-    Packet peek() {
-        return queue.peekFirst();
+    /**
+     * Gives the output buffers back to the pool, once the connection is closed.
+     */
+    void releaseBuffers() {
+        if (postedToReactor(this::releaseBuffers)) {
+            return;
+        }
+        outputRing.release();
     }
 
-    void nextPacket() {
-        queue.poll();
+    /**
+     * Closes the connection after an error, the application goes on.
+     */
+    void close() {
+        if (postedToReactor(this::close)) {
+            return;
+        }
+        key.cancel();
+        releaseBuffers();
+        try {
+            sc.close();
+        } catch (IOException e) {
+            // ignore exception
+        }
+        logger.info("Connexion closed with  : " + sc);
+    }
+
+    void flush() {
+        if (postedToReactor(this::flush)) {
+            return;
+        }
+        processOut();
+        updateInterestOps();
     }
 
     PacketsProcessor.State currentState() {
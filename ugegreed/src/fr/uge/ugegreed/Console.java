@@ -8,7 +8,7 @@ import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 public final class Console {
-    public record StartCommand(String jarUrl, String className, long startRange, long endRange, Path fileName) {
+    public record StartCommand(String jarUrl, String className, long startRange, long endRange, Path fileName, long timeoutMs) {
         private static StartCommand fromString(String command) {
             var args = command.split("\\s+");
             if(args.length < 5) {
@@ -21,6 +21,7 @@ public final class Console {
             long startRange = 0L;
             long endRange = 0L;
             Path fileName = null;
+            long timeoutMs = Task.DEFAULT_TIMEOUT_MS; // optional, the time given to the checker for each value
 
             for(var arg : args) {
                 var cmd = arg.split("=");
@@ -37,6 +38,7 @@ public final class Console {
                     case "start-range" -> startRange = Long.parseLong(argValue);
                     case "end-range" -> endRange = Long.parseLong(argValue);
                     case "filename" -> fileName = Path.of(argValue);
+                    case "timeout" -> timeoutMs = Long.parseLong(argValue);
                 }
             }
 
@@ -60,7 +62,12 @@ public final class Console {
                 return null;
             }
 
-            return new StartCommand(jarUrl, className, startRange, endRange, fileName);
+            if(timeoutMs <= 0) {
+                logger.info("bad timeout");
+                return null;
+            }
+
+            return new StartCommand(jarUrl, className, startRange, endRange, fileName, timeoutMs);
         }
     }
 
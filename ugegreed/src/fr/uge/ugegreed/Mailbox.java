@@ -0,0 +1,52 @@
+package fr.uge.ugegreed;
+
+import java.nio.channels.Selector;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mailbox of the commands given to the thread of a selector by the other threads.<br>
+ * Any thread posts a command, only the selector thread runs them, once per wakeup,
+ * so the state owned by the selector thread is never shared and never locked.<br>
+ * The queue is lock-free, and the selector is woken up once for all the commands posted before it drains them.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class Mailbox {
+  private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+  private final Selector selector;
+
+  /**
+   * Mailbox constructor.
+   *
+   * @param selector Selector, the selector of the thread which runs the commands.
+   */
+  public Mailbox(Selector selector) {
+    this.selector = Objects.requireNonNull(selector);
+  }
+
+  /**
+   * Posts a command, from any thread.
+   *
+   * @param command Runnable, the command, run later by the selector thread.
+   */
+  public void post(Runnable command) {
+    commands.add(Objects.requireNonNull(command));
+    if (!wakeupPending.get() && !wakeupPending.getAndSet(true)) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Runs the commands posted so far, by the selector thread, after each select.
+   */
+  public void drain() {
+    // cleared before polling : a command posted after the last poll wakes the selector up again
+    wakeupPending.set(false);
+    for (var command = commands.poll(); command != null; command = commands.poll()) {
+      command.run();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package fr.uge.ugegreed;
+
+import fr.uge.ugegreed.writer.BufferPool;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * Selector thread owning a part of the connections accepted by the application.<br>
+ * A reactor reads, decodes, encodes and writes the packets of its connections,
+ * the decoded packets are given to the thread of the application, which owns the route table and the works,
+ * and the packets sent to a connection are given to its reactor, both through a Mailbox.
+ * So the connections are spread across the cores and nothing is shared between the threads, nothing is locked.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+final class Reactor {
+  private static final Logger logger = Logger.getLogger(Reactor.class.getName());
+
+  private final Application application;
+  private final Selector selector;
+  private final Mailbox mailbox;
+  private final BufferPool bufferPool;
+  private final Thread thread;
+
+  /**
+   * Reactor constructor, the reactor is started by start.
+   *
+   * @param application Application, the application which processes the packets.
+   * @param name String, the name of the thread.
+   * @param bufferPool BufferPool, the pool of the output buffers of its connections, only used by this reactor.
+   * @throws IOException If the selector couldn't be opened.
+   */
+  Reactor(Application application, String name, BufferPool bufferPool) throws IOException {
+    this.application = application;
+    this.selector = Selector.open();
+    this.mailbox = new Mailbox(selector);
+    this.bufferPool = bufferPool;
+    this.thread = Thread.ofPlatform().daemon().name(name).unstarted(this::run);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  void stop() {
+    thread.interrupt();
+  }
+
+  boolean inReactorThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Gives a command to the reactor, from any thread.
+   *
+   * @param command Runnable, the command, run by the reactor thread.
+   */
+  void execute(Runnable command) {
+    mailbox.post(command);
+  }
+
+  BufferPool bufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Registers a connection accepted by the application, by the reactor thread.
+   *
+   * @param sc SocketChannel, the connection, in non-blocking mode.
+   */
+  void register(SocketChannel sc) {
+    try {
+      var key = sc.register(selector, SelectionKey.OP_READ);
+      key.attach(new ApplicationContext(application, key, this));
+    } catch (IOException e) {
+      logger.info("connection closed before being registered : " + e.getMessage());
+      try {
+        sc.close();
+      } catch (IOException ignored) {
+        // ignore exception
+      }
+    }
+  }
+
+  private void run() {
+    try {
+      while (!Thread.interrupted()) {
+        selector.select(this::treatKey);
+        mailbox.drain();
+      }
+    } catch (IOException e) {
+      logger.severe("reactor " + thread.getName() + " stopped : " + e.getMessage());
+    } finally {
+      for (var key : selector.keys()) {
+        if (key.attachment() instanceof ApplicationContext context) {
+          context.close();
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // ignore exception
+      }
+    }
+  }
+
+  private void treatKey(SelectionKey key) {
+    var context = (ApplicationContext) key.attachment();
+    try {
+      if (key.isValid() && key.isWritable()) {
+        context.doWrite();
+      }
+      if (key.isValid() && key.isReadable()) {
+        context.doRead(application.routeTable(), application.packetsHandler());
+      }
+    } catch (IOException e) {
+      logger.info("connection closed with client due to IO exception");
+      context.close();
+    }
+  }
+}
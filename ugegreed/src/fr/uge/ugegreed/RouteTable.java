@@ -5,18 +5,25 @@ import fr.uge.ugegreed.records.Packet;
 
 import java.util.*;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * This class represents a route table of this type.<br>
  * To contact machine A, the route is going through machine B.<br>
- * In reality, it is a simple hashmap for each application.
+ * In reality, it is a simple hashmap for each application.<br>
+ * The reverse index, from each route to the machines reached through it, is kept up to date by every change,
+ * so the neighbours and the daughters are read without going through the whole table,
+ * and a route replaced only touches the machines behind it.
  *
  * @author Axel BELIN and Thomas VELU.
  */
 public class RouteTable {
   private final Map<Id, Id> routeTable;
   private final Map<Id, ApplicationContext> contextTable;
+  private final HashMap<Id, LinkedHashSet<Id>> destinations = new HashMap<>(); // route -> machines reached through it
+  private final LinkedHashSet<Id> neighbours = new LinkedHashSet<>(); // every route, except selfId
+  private final LinkedHashSet<Id> daughters = new LinkedHashSet<>(); // every route, except selfId and motherId
+  private final Set<Id> neighboursView = Collections.unmodifiableSet(neighbours);
+  private final Set<Id> daughtersView = Collections.unmodifiableSet(daughters);
   private final Id selfId;
   private Id motherId; // mutable because you can change your mother.
 
@@ -31,8 +38,9 @@ public class RouteTable {
     Objects.requireNonNull(firstId);
     routeTable = new HashMap<>();
     contextTable = new HashMap<>();
-    routeTable.put(firstId, firstId);
     selfId = firstId;
+    routeTable.put(firstId, firstId);
+    link(firstId, firstId);
     // We use put because we are sure that the routeTable was freshly created before
     // And doesn't contain any keys right now.
     motherId = firstId; // By default, you are your own mother
@@ -56,31 +64,78 @@ public class RouteTable {
     Objects.requireNonNull(newId);
     Objects.requireNonNull(route);
     Objects.requireNonNull(context);
-    routeTable.merge(newId, route, (oldValue, newValue) -> newValue);
-    contextTable.merge(newId, context, (oldValue, newValue) -> newValue);
+    var oldRoute = routeTable.put(newId, route);
+    if (oldRoute != null) {
+      unlink(newId, oldRoute);
+    }
+    link(newId, route);
+    contextTable.put(newId, context);
   }
 
   public void remove(Id sourceId) {
     Objects.requireNonNull(sourceId);
-    routeTable.remove(sourceId);
+    var oldRoute = routeTable.remove(sourceId);
+    if (oldRoute != null) {
+      unlink(sourceId, oldRoute);
+    }
     contextTable.remove(sourceId);
   }
 
+  private void link(Id destination, Id route) {
+    destinations.computeIfAbsent(route, __ -> new LinkedHashSet<>()).add(destination);
+    if (!route.equals(selfId)) {
+      neighbours.add(route);
+      if (!route.equals(motherId)) {
+        daughters.add(route);
+      }
+    }
+  }
+
+  // the route is not a neighbour anymore once nothing is reached through it
+  private void unlink(Id destination, Id route) {
+    var reached = destinations.get(route);
+    reached.remove(destination);
+    if (reached.isEmpty()) {
+      destinations.remove(route);
+      neighbours.remove(route);
+      daughters.remove(route);
+    }
+  }
+
+  /**
+   * Returns the daughters : the routes, except this application and its mother.
+   *
+   * @return Set of Id, a read-only view, updated with the route table.
+   */
   public Set<Id> getDaughters() {
-    return routeTable.values().stream()
-            .filter(id -> !id.equals(selfId) && !id.equals(motherId))
-            .collect(Collectors.toUnmodifiableSet());
+    return daughtersView;
   }
 
-  public List<Id> getNeighbours() {
-    return routeTable.values().stream()
-            .filter(id -> !id.equals(selfId))
-            .collect(Collectors.toList());
+  /**
+   * Returns the neighbours : the routes, except this application.
+   *
+   * @return Set of Id, a read-only view, updated with the route table.
+   */
+  public Set<Id> getNeighbours() {
+    return neighboursView;
   }
 
-  // for disconnection, we include selfId in the list because it has to appear in the query
+  // for disconnection, we include selfId in the list because it has to appear in the query, it comes first
   public List<Id> daughtersForDisconnection() {
-    return routeTable.values().stream().filter(id -> !id.equals(motherId)).toList();
+    var ids = new ArrayList<Id>(daughters.size() + 1);
+    ids.add(selfId);
+    ids.addAll(daughters);
+    return ids;
+  }
+
+  /**
+   * Tells if the machine is in the route table.
+   *
+   * @param id Id, the machine.
+   * @return True if there is a route to the machine.
+   */
+  public boolean contains(Id id) {
+    return routeTable.containsKey(id);
   }
 
   public Optional<ApplicationContext> getContext(Id id) {
@@ -95,13 +150,30 @@ public class RouteTable {
     context.queueMessage(packet);
   }
 
+  /**
+   * Sends the packet, and runs the callback once it is encoded in the output buffers of its connection.<br>
+   * The callback is run at once if there is no route to the destination,
+   * and never if the connection is closed before.
+   *
+   * @param packet Packet, the packet.
+   * @param destination Id, the destination.
+   * @param onEncoded Runnable, the callback, run by the thread of the connection.
+   */
+  public void sendTo(Packet packet, Id destination, Runnable onEncoded) {
+    var context = contextTable.get(destination);
+    if (context == null) {
+      onEncoded.run();
+      return;
+    }
+    context.queueMessage(packet, onEncoded);
+  }
+
   public void sendToNeighbours(Packet packet, Predicate<Id> neighboursToExclude) {
-    routeTable.values().stream()
-            .filter(id -> !id.equals(selfId) && !neighboursToExclude.test(id))
-            .distinct()
-            .map(contextTable::get)
-            .filter(Objects::nonNull)
-            .forEach(context -> context.queueMessage(packet));
+    for (var neighbour : neighbours) {
+      if (!neighboursToExclude.test(neighbour)) {
+        sendTo(packet, neighbour);
+      }
+    }
   }
 
   public void sendToNeighbours(Packet packet) {
@@ -109,33 +181,36 @@ public class RouteTable {
   }
 
   public void sendToDaughters(Packet packet) {
-    getDaughters().stream()
-            .map(contextTable::get)
-            .filter(Objects::nonNull)
-            .forEach(context -> context.queueMessage(packet));
+    for (var daughter : daughters) {
+      sendTo(packet, daughter);
+    }
   }
 
+  /**
+   * Replaces a route : the machines reached through toFindId are now reached through replacementId.<br>
+   * Only the machines behind toFindId are touched, they take the context of replacementId if it is known.
+   *
+   * @param toFindId Id, the route replaced.
+   * @param replacementId Id, the new route.
+   */
   public void findAndReplace(Id toFindId, Id replacementId) {
-    routeTable.replaceAll((k, v) -> {
-      if(v.equals(toFindId)) {
-        return replacementId;
-      }
-
-      return v;
-    });
-    var oldContext = contextTable.get(toFindId);
-    var replacementContext = contextTable.get(replacementId);
-    if(oldContext == null || replacementContext == null) {
+    if (toFindId.equals(replacementId)) {
       return;
     }
-
-    contextTable.replaceAll((k, v) -> {
-      if(v.equals(oldContext)) {
-        return replacementContext;
+    var reached = destinations.remove(toFindId);
+    if (reached == null) {
+      return;
+    }
+    neighbours.remove(toFindId);
+    daughters.remove(toFindId);
+    var replacementContext = contextTable.get(replacementId);
+    for (var destination : reached) {
+      routeTable.put(destination, replacementId);
+      link(destination, replacementId);
+      if (replacementContext != null) {
+        contextTable.put(destination, replacementContext);
       }
-
-      return v;
-    });
+    }
   }
 
   /**
@@ -150,6 +225,10 @@ public class RouteTable {
   // beurk
   public void changeMother(Id motherId) {
     Objects.requireNonNull(motherId);
+    if (destinations.containsKey(this.motherId) && !this.motherId.equals(selfId)) {
+      daughters.add(this.motherId);
+    }
+    daughters.remove(motherId);
     this.motherId = motherId;
   }
 
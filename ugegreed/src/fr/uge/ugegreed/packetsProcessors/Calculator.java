@@ -4,15 +4,63 @@ import fr.uge.ugegreed.ApplicationContext;
 import fr.uge.ugegreed.RouteTable;
 import fr.uge.ugegreed.records.Packet;
 import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.JarCache;
+import fr.uge.ugegreed.works.JarDistributor;
 import fr.uge.ugegreed.works.ResponseCollector;
+import fr.uge.ugegreed.works.Scheduler;
 import fr.uge.ugegreed.works.Worker;
+import java.util.List;
 
 public final class Calculator implements PacketsProcessor<Packet.Work> {
-    private final Worker worker = new Worker();
+    private final Worker worker;
+    private final Scheduler scheduler;
+    private final JarDistributor jarDistributor;
     private final ResponseCollector responseCollector;
 
-    Calculator(ResponseCollector responseCollector) {
+    Calculator(ResponseCollector responseCollector, Runnable wakeup) {
         this.responseCollector = responseCollector;
+        var jarCache = new JarCache(JarCache.DEFAULT_DIRECTORY);
+        this.jarDistributor = new JarDistributor(jarCache, wakeup);
+        this.worker = new Worker(wakeup, jarCache, jarDistributor, this::deliverLocally);
+        this.scheduler = new Scheduler(worker, responseCollector, wakeup);
+    }
+
+    /**
+     * Starts a request of this application, spread over the whole network.<br>
+     * Must be called by the selector thread.
+     *
+     * @param requestId Long, the request.
+     * @param task Task, the checker and the range of the request.
+     * @param pending List of Range, the values to compute, the whole range unless the request is resumed.
+     * @param routeTable RouteTable, the route table of the application.
+     */
+    public void startTask(long requestId, Task task, List<Task.Range> pending, RouteTable routeTable) {
+        scheduler.start(requestId, task, pending, routeTable);
+    }
+
+    /**
+     * Sends the responses computed by the worker since the last call.<br>
+     * Must be called by the selector thread.
+     *
+     * @param routeTable RouteTable, the route table of the application.
+     */
+    public void processCompletedWork(RouteTable routeTable) {
+        worker.processCompletedWork(routeTable);
+        jarDistributor.processActions(routeTable);
+        scheduler.assignExpiredRequests(routeTable);
+    }
+
+    // the packets of the worker for the requests of this application never go through the network
+    private void deliverLocally(Packet.Work packet, RouteTable routeTable) {
+        switch (packet) {
+            case Packet.Work.WorkResponseBatch workResponseBatch -> saveResponses(workResponseBatch, routeTable);
+            case Packet.Work.WorkAvailability workAvailability -> scheduler.onAvailability(workAvailability, routeTable);
+            default -> throw new IllegalArgumentException("unexpected local packet " + packet);
+        }
+    }
+
+    private void saveResponses(Packet.Work.WorkResponseBatch workResponseBatch, RouteTable routeTable) {
+        scheduler.accept(workResponseBatch, routeTable).ifPresent(responseCollector::saveResponsesIntoResultFile);
     }
 
     // return true if packet was transferred or ignored
@@ -22,6 +70,16 @@ public final class Calculator implements PacketsProcessor<Packet.Work> {
             return false;
         }
 
+        switch (packet) {
+            case Packet.Work.JarRequest jarRequest -> {
+                // the first application of the route which has the jar answers
+                jarDistributor.serveOrForward(jarRequest, routeTable.id(), routeTable);
+                return true;
+            }
+            case Packet.Work.JarChunk jarChunk -> jarDistributor.receive(jarChunk, false); // keeps a copy
+            default -> {}
+        }
+
         routeTable.sendTo(packet, destinationId);
         return true;
     }
@@ -33,10 +91,15 @@ public final class Calculator implements PacketsProcessor<Packet.Work> {
         }
 
         return switch (packet) {
+            case Packet.Work.WorkRequest workRequest when workRequest.nbComputation() == 0 -> {
+                // the source has received every response
+                worker.forgetWorkRequest(workRequest.idSrc(), workRequest.requestId());
+                yield currentState;
+            }
             case Packet.Work.WorkRequest workRequest -> {
                 var nbAvailableUcs = 0L;
                 if(currentState != State.DISCONNECTING) {
-                    nbAvailableUcs = 42L; // TODO algo qui caclcule le nb d'ucs compris entre 0 et nbMax UC
+                    nbAvailableUcs = Math.min(worker.capacity(), workRequest.nbComputation());
                 }
 
                 var workAvailability = new Packet.Work.WorkAvailability(
@@ -55,19 +118,11 @@ public final class Calculator implements PacketsProcessor<Packet.Work> {
                 yield State.REQUEST_ACCEPTED;
             }
             case Packet.Work.WorkAvailability availabilityResponse -> {
-                var nbAvailableUcs = availabilityResponse.nbComputation();
-                if(nbAvailableUcs == 0) {
+                scheduler.onAvailability(availabilityResponse, routeTable);
+                if(availabilityResponse.nbComputation() == 0) {
                     yield State.REQUEST_DENIED;
                 }
 
-                var range = new Task.Range(10, 20); // TODO algo qui calcule lenombre de ranges en fonction du nbAvailableUcs d'une machine
-                var workAssignment = new Packet.Work.WorkAssignment(
-                        availabilityResponse.idDest(),
-                        availabilityResponse.idSrc(),
-                        availabilityResponse.requestId(),
-                        range
-                );
-                context.queueMessage(workAssignment);
                 yield State.WORK_SUBMITTED;
             }
             case Packet.Work.WorkAssignment workAssignment -> {
@@ -82,6 +137,18 @@ public final class Calculator implements PacketsProcessor<Packet.Work> {
                 responseCollector.saveResponseIntoResultFile(workResponse);
                 yield State.RECEIVED_WORK_RESPONSE;
             }
+            case Packet.Work.WorkResponseBatch workResponseBatch -> {
+                saveResponses(workResponseBatch, routeTable);
+                yield State.RECEIVED_WORK_RESPONSE;
+            }
+            case Packet.Work.JarRequest jarRequest -> {
+                jarDistributor.serve(jarRequest, routeTable.id());
+                yield currentState;
+            }
+            case Packet.Work.JarChunk jarChunk -> {
+                jarDistributor.receive(jarChunk, true);
+                yield currentState;
+            }
         };
     }
 }
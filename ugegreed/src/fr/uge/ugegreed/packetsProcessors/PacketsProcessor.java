@@ -22,8 +22,8 @@ public sealed interface PacketsProcessor<T extends Packet> permits Connector, Di
     }
 
     record PacketsHandler(Connector connector, Disconnector disconnector, Calculator calculator) {
-        public PacketsHandler(ResponseCollector responseCollector) {
-            this(new Connector(), new Disconnector(), new Calculator(responseCollector));
+        public PacketsHandler(ResponseCollector responseCollector, Runnable wakeup) {
+            this(new Connector(), new Disconnector(), new Calculator(responseCollector, wakeup));
         }
     }
 
@@ -0,0 +1,87 @@
+package fr.uge.ugegreed.reader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a sequence of bytes prefixed by its size (INT).<br>
+ * It is used to read the chunks of a jar.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public class BytesReader implements Reader<byte[]> {
+
+  /**
+   * Represents the state of the Reader.
+   */
+  private enum State {
+    DONE, WAITING_SIZE, WAITING_BYTES, ERROR
+  }
+
+  private final IntReader sizeReader = new IntReader();
+  private State state = State.WAITING_SIZE;
+  private ByteBuffer internalBuffer; // write-mode
+  private byte[] value;
+
+  @Override
+  public ProcessStatus process(ByteBuffer buffer) {
+    if (state == State.DONE || state == State.ERROR) {
+      throw new IllegalStateException();
+    }
+    if (state == State.WAITING_SIZE) {
+      switch (sizeReader.process(buffer)) {
+        case DONE -> {
+          var size = sizeReader.get();
+          sizeReader.reset();
+          if (size < 0 || size > BUFFER_SIZE) {
+            state = State.ERROR;
+            return ProcessStatus.ERROR;
+          }
+          internalBuffer = ByteBuffer.allocate(size);
+          state = State.WAITING_BYTES;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    buffer.flip();
+    try {
+      if (buffer.remaining() <= internalBuffer.remaining()) {
+        internalBuffer.put(buffer);
+      } else {
+        var oldLimit = buffer.limit();
+        buffer.limit(buffer.position() + internalBuffer.remaining());
+        internalBuffer.put(buffer);
+        buffer.limit(oldLimit);
+      }
+    } finally {
+      buffer.compact();
+    }
+    if (internalBuffer.hasRemaining()) {
+      return ProcessStatus.REFILL;
+    }
+    state = State.DONE;
+    value = internalBuffer.array();
+    return ProcessStatus.DONE;
+  }
+
+  @Override
+  public byte[] get() {
+    if (state != State.DONE) {
+      throw new IllegalStateException("The BytesReader is not done yet !");
+    }
+    return value;
+  }
+
+  @Override
+  public void reset() {
+    state = State.WAITING_SIZE;
+    sizeReader.reset();
+    internalBuffer = null;
+    value = null;
+  }
+}
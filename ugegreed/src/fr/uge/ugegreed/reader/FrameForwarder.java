@@ -0,0 +1,293 @@
+package fr.uge.ugegreed.reader;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reader of the transfer frames which are only passing through this application.<br>
+ * inspect decodes the header of the frame and its idDest, without consuming anything.
+ * When the frame is for another application, process only walks the sizes of its fields to find where it ends,
+ * and copies its bytes as they are : the strings of the checker or of the responses are never decoded,
+ * and the frame is sent to the next hop without being encoded again (see Packet.RawFrame).<br>
+ * The JarRequests and the JarChunks are always decoded, the applications of the route may serve or keep the jar.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class FrameForwarder implements Reader<ByteBuffer> {
+  private static final int MAX_SIZE = Reader.BUFFER_SIZE; // same limit as the readers
+  private static final int INITIAL_STAGING_SIZE = 2 * 1024;
+
+  // the fields of a frame after its header : a positive number of bytes, or one of these
+  private static final int ID = -1;
+  private static final int STRING = -2;
+  private static final int REPEAT = -3; // a count, then the following fields are repeated count times
+  private static final int[] WORK_REQUEST = { ID, ID, Long.BYTES, STRING, STRING, 4 * Long.BYTES };
+  private static final int[] WORK_AVAILABILITY = { ID, ID, 2 * Long.BYTES };
+  private static final int[] WORK_ASSIGNMENT = { ID, ID, 3 * Long.BYTES };
+  private static final int[] WORK_RESPONSE = { ID, ID, 2 * Long.BYTES + Byte.BYTES, STRING };
+  private static final int[] WORK_RESPONSE_BATCH = { ID, ID, 2 * Long.BYTES, REPEAT, Integer.BYTES + Byte.BYTES, STRING };
+
+  /**
+   * What to do with the frame at the beginning of the buffer.
+   */
+  public enum Decision {
+    /** The frame is for another application, it must be read by process. */
+    FORWARD,
+    /** The frame must be decoded by the PacketReader. */
+    DECODE,
+    /** The beginning of the frame is not received yet. */
+    REFILL
+  }
+
+  private enum State { WAITING_INSPECT, WAITING_FRAME, DONE, ERROR }
+
+  private State state = State.WAITING_INSPECT;
+  private Id destination;
+  private int[] fields;
+  private int field; // index of the next field to walk
+  private int cursor; // offset in the frame of the next field
+  private int repeatFrom = -1; // index of the first repeated field
+  private int repeatLeft; // repetitions left, the current one included
+  private ByteBuffer staging; // the beginning of a frame not received whole, write-mode
+  private ByteBuffer frame;
+
+  private static int[] fieldsOf(byte type) {
+    return switch (type) {
+      case 1 -> WORK_REQUEST;
+      case 2 -> WORK_AVAILABILITY;
+      case 3 -> WORK_ASSIGNMENT;
+      case 4 -> WORK_RESPONSE;
+      case 7 -> WORK_RESPONSE_BATCH;
+      default -> null; // 5 and 6 : the jars are handled by every application of the route
+    };
+  }
+
+  private static int addressSize(byte type) {
+    return switch (type) {
+      case 4 -> 4;
+      case 6 -> 16;
+      default -> -1;
+    };
+  }
+
+  /**
+   * Decodes the header and the idDest of the frame at the beginning of the buffer, the buffer is left untouched.
+   *
+   * @param bb ByteBuffer, the buffer in write-mode, at the beginning of a frame.
+   * @param selfId Id, the id of this application.
+   * @return FORWARD if the frame is a transfer frame for another application, REFILL if more bytes are needed
+   * to tell, DECODE otherwise.
+   */
+  public Decision inspect(ByteBuffer bb, Id selfId) {
+    if (state != State.WAITING_INSPECT) {
+      throw new IllegalStateException();
+    }
+    var received = bb.position(); // bb is in write-mode, its content starts at 0
+    if (received < Packet.HEADER_SIZE) {
+      return Decision.REFILL;
+    }
+    var frameId = bb.get(0);
+    var opcode = bb.get(1);
+    var frameFields = fieldsOf(bb.get(2));
+    if (frameId != 1 || opcode < 0 || opcode > 2 || frameFields == null) {
+      return Decision.DECODE;
+    }
+    if (received < Packet.HEADER_SIZE + Byte.BYTES) {
+      return Decision.REFILL;
+    }
+    var addressSize = addressSize(bb.get(Packet.HEADER_SIZE));
+    if (addressSize < 0) {
+      return Decision.DECODE; // the error is reported by the readers
+    }
+    if (received < Packet.HEADER_SIZE + Byte.BYTES + addressSize + Integer.BYTES) {
+      return Decision.REFILL;
+    }
+    var address = new byte[addressSize];
+    bb.get(Packet.HEADER_SIZE + Byte.BYTES, address);
+    var port = bb.getInt(Packet.HEADER_SIZE + Byte.BYTES + addressSize);
+    if (port < 0 || port > 0xFFFF) {
+      return Decision.DECODE;
+    }
+    Id idDest;
+    try {
+      idDest = new Id(new InetSocketAddress(InetAddress.getByAddress(address), port));
+    } catch (UnknownHostException e) {
+      throw new AssertionError(e); // the size of the address is checked
+    }
+    if (idDest.equals(selfId)) {
+      return Decision.DECODE;
+    }
+    destination = idDest;
+    fields = frameFields;
+    cursor = Packet.HEADER_SIZE;
+    state = State.WAITING_FRAME;
+    return Decision.FORWARD;
+  }
+
+  /**
+   * Returns the destination of the frame, once inspect decided to forward it.
+   *
+   * @return Id, the idDest of the frame.
+   */
+  public Id destination() {
+    if (state == State.WAITING_INSPECT) {
+      throw new IllegalStateException("no frame inspected");
+    }
+    return destination;
+  }
+
+  // walks the fields of the frame received so far, returns the size of the frame, or -1 if it is incomplete
+  // or -2 if it is malformed
+  private int walk(ByteBuffer received) {
+    var limit = received.limit();
+    for (;;) {
+      if (field == fields.length) {
+        if (repeatLeft > 1) {
+          repeatLeft--;
+          field = repeatFrom;
+          continue;
+        }
+        return cursor;
+      }
+      var size = fields[field];
+      switch (size) {
+        case ID -> {
+          if (limit - cursor < Byte.BYTES) {
+            return -1;
+          }
+          var addressSize = addressSize(received.get(cursor));
+          if (addressSize < 0) {
+            return -2;
+          }
+          size = Byte.BYTES + addressSize + Integer.BYTES;
+        }
+        case STRING -> {
+          if (limit - cursor < Integer.BYTES) {
+            return -1;
+          }
+          var length = received.getInt(cursor);
+          if (length < 0 || length > MAX_SIZE) {
+            return -2;
+          }
+          size = Integer.BYTES + length;
+        }
+        case REPEAT -> {
+          if (limit - cursor < Integer.BYTES) {
+            return -1;
+          }
+          var count = received.getInt(cursor);
+          if (count <= 0 || count > Packet.Work.WorkResponseBatch.MAX_RESPONSES) {
+            return -2;
+          }
+          repeatFrom = field + 1;
+          repeatLeft = count;
+          size = Integer.BYTES;
+        }
+        default -> {}
+      }
+      if (limit - cursor < size) {
+        return -1;
+      }
+      cursor += size;
+      field++;
+    }
+  }
+
+  @Override
+  public ProcessStatus process(ByteBuffer bb) {
+    if (state != State.WAITING_FRAME) {
+      throw new IllegalStateException();
+    }
+    bb.flip();
+    try {
+      if (staging == null) { // the frame is walked in place, it is copied once if it is whole
+        var size = walk(bb.slice());
+        if (size == -2) {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        if (size >= 0) {
+          frame = ByteBuffer.allocate(size).put(0, bb, bb.position(), size);
+          bb.position(bb.position() + size);
+          state = State.DONE;
+          return ProcessStatus.DONE;
+        }
+        staging = ByteBuffer.allocate(Math.max(INITIAL_STAGING_SIZE, bb.remaining()));
+      }
+      // only the bytes of this frame are taken, the walk tells how many are needed to go on
+      for (;;) {
+        var needed = neededBytes();
+        var length = Math.min(needed - staging.position(), bb.remaining());
+        if (staging.capacity() < staging.position() + length) {
+          staging = ByteBuffer.allocate(Math.max(2 * staging.capacity(), staging.position() + length))
+                  .put(staging.flip());
+        }
+        staging.put(staging.position(), bb, bb.position(), length);
+        staging.position(staging.position() + length);
+        bb.position(bb.position() + length);
+        if (staging.position() < needed) {
+          return ProcessStatus.REFILL;
+        }
+        var size = walk(staging.duplicate().flip());
+        if (size == -2) {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        if (size >= 0) {
+          frame = staging.flip();
+          staging = null;
+          state = State.DONE;
+          return ProcessStatus.DONE;
+        }
+      }
+    } finally {
+      bb.compact();
+    }
+  }
+
+  // the size of the part of the frame needed to walk the next field
+  private int neededBytes() {
+    var size = fields[field];
+    return cursor + switch (size) {
+      case ID -> staging.position() > cursor
+              ? Byte.BYTES + Math.max(0, addressSize(staging.get(cursor))) + Integer.BYTES
+              : Byte.BYTES;
+      case STRING -> staging.position() >= cursor + Integer.BYTES
+              ? Integer.BYTES + Math.max(0, Math.min(staging.getInt(cursor), MAX_SIZE))
+              : Integer.BYTES;
+      case REPEAT -> Integer.BYTES;
+      default -> size;
+    };
+  }
+
+  /**
+   * Returns the whole frame, in read-mode.<br>
+   * The buffer belongs to the caller, it is not reused by the forwarder.
+   *
+   * @return ByteBuffer, the frame.
+   */
+  @Override
+  public ByteBuffer get() {
+    if (state != State.DONE) {
+      throw new IllegalStateException("the reader is not done yet !");
+    }
+    return frame;
+  }
+
+  @Override
+  public void reset() {
+    state = State.WAITING_INSPECT;
+    destination = null;
+    fields = null;
+    field = 0;
+    cursor = 0;
+    repeatFrom = -1;
+    repeatLeft = 0;
+    staging = null;
+    frame = null;
+  }
+}
@@ -0,0 +1,274 @@
+package fr.uge.ugegreed.reader;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fast path of the PacketReader.<br>
+ * When a whole packet is in the buffer, its fields are read directly from the buffer,
+ * without the internal buffers of the readers, and the buffer is compacted once.<br>
+ * If the packet is incomplete or unexpected in any way, the buffer is left untouched
+ * and the PacketReader falls back to its readers, which handle the partial packets and the errors.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+final class PacketDecoder {
+  private static final int MAX_SIZE = Reader.BUFFER_SIZE; // same limit as the readers
+
+  private ByteBuffer buffer; // read-mode while decoding
+  private boolean failed;
+
+  /**
+   * Decodes the packet at the beginning of the buffer, if it is complete and well formed.
+   *
+   * @param bb ByteBuffer, the buffer in write-mode.
+   * @return the packet, the bytes of the packet are removed from the buffer,
+   * or null if the buffer is left untouched.
+   */
+  Packet decode(ByteBuffer bb) {
+    bb.flip();
+    buffer = bb;
+    failed = false;
+    try {
+      var packet = decodePacket();
+      if (packet == null || failed) {
+        bb.position(bb.limit()).limit(bb.capacity()); // back to write-mode, as before the flip
+        return null;
+      }
+      bb.compact();
+      return packet;
+    } finally {
+      buffer = null;
+    }
+  }
+
+  private boolean has(int bytes) {
+    if (failed || buffer.remaining() < bytes) {
+      failed = true;
+      return false;
+    }
+    return true;
+  }
+
+  private byte getByte() {
+    return has(Byte.BYTES) ? buffer.get() : 0;
+  }
+
+  private int getInt() {
+    return has(Integer.BYTES) ? buffer.getInt() : 0;
+  }
+
+  private long getLong() {
+    return has(Long.BYTES) ? buffer.getLong() : 0;
+  }
+
+  private int getSize() {
+    var size = getInt();
+    if (size < 0 || size > MAX_SIZE) {
+      failed = true;
+    }
+    return size;
+  }
+
+  private byte[] getBytes() {
+    var size = getSize();
+    if (!has(size)) {
+      return null;
+    }
+    var bytes = new byte[size];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private String getString() {
+    var size = getSize();
+    if (!has(size)) {
+      return null;
+    }
+    String string;
+    if (buffer.hasArray()) {
+      string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size, StandardCharsets.UTF_8);
+    } else {
+      var bytes = new byte[size];
+      buffer.get(buffer.position(), bytes);
+      string = new String(bytes, StandardCharsets.UTF_8);
+    }
+    buffer.position(buffer.position() + size);
+    return string;
+  }
+
+  private Id getId() {
+    var type = getByte();
+    var addressSize = switch (type) {
+      case 4 -> 4;
+      case 6 -> 16;
+      default -> -1;
+    };
+    if (addressSize < 0 || !has(addressSize + Integer.BYTES)) {
+      failed = true;
+      return null;
+    }
+    var address = new byte[addressSize];
+    buffer.get(address);
+    var port = buffer.getInt();
+    if (port < 0 || port > 0xFFFF) {
+      failed = true;
+      return null;
+    }
+    try {
+      return new Id(new InetSocketAddress(InetAddress.getByAddress(address), port));
+    } catch (UnknownHostException e) {
+      throw new AssertionError(e); // the size of the address is checked
+    }
+  }
+
+  private List<Id> getIds() {
+    var size = getSize();
+    if (failed) {
+      return null;
+    }
+    var ids = new ArrayList<Id>(size);
+    for (var i = 0; i < size && !failed; i++) {
+      ids.add(getId());
+    }
+    return failed ? null : List.copyOf(ids);
+  }
+
+  private Task.Checker getChecker() {
+    var url = getString();
+    var className = getString();
+    return failed ? null : new Task.Checker(url, className);
+  }
+
+  private Task.Range getRange() {
+    var inf = getLong();
+    var sup = getLong();
+    if (failed || inf < 0 || inf > sup) { // an invalid range is reported by the readers
+      failed = true;
+      return null;
+    }
+    return new Task.Range(inf, sup);
+  }
+
+  private Response getResponse() {
+    var value = getLong();
+    var opcode = getByte();
+    if (opcode < Response.JOB_DONE || opcode > Response.FAILED_TO_RECOVER_CHECKER) {
+      failed = true;
+      return null;
+    }
+    var message = getString();
+    return failed ? null : new Response(value, opcode, message);
+  }
+
+  // the offsets from the base value are checked as the constructor of the batch would
+  private List<Response> getResponses() {
+    var baseValue = getLong();
+    var count = getInt();
+    if (failed || count <= 0 || count > Packet.Work.WorkResponseBatch.MAX_RESPONSES) {
+      failed = true;
+      return null;
+    }
+    var responses = new ArrayList<Response>(count);
+    var previousOffset = -1;
+    for (var i = 0; i < count && !failed; i++) {
+      var offset = getInt();
+      var opcode = getByte();
+      if (offset < 0 || (i == 0 ? offset != 0 : offset <= previousOffset) || baseValue + offset < baseValue
+              || opcode < Response.JOB_DONE || opcode > Response.FAILED_TO_RECOVER_CHECKER) {
+        failed = true;
+        return null;
+      }
+      previousOffset = offset;
+      responses.add(new Response(baseValue + offset, opcode, getString()));
+    }
+    return failed ? null : responses;
+  }
+
+  private Packet decodePacket() {
+    var frameId = getByte();
+    var opcode = getByte();
+    var type = getByte();
+    if (failed) {
+      return null;
+    }
+    return switch (frameId) {
+      case 0 -> switch (opcode) { // LOCAL
+        case 0 -> decodeConnection(type);
+        case 1 -> decodeDisconnection(type);
+        default -> null;
+      };
+      case 1 -> opcode >= 0 && opcode <= 2 ? decodeWork(type) : null; // TRANSFERT
+      case 2 -> switch (opcode) { // BROADCAST
+        case 0 -> type == 15 ? new Packet.Disconnection.Disconnected(getId(), getId()) : null;
+        case 1 -> type == 4 ? new Packet.Connection.AddNode(getId(), getId()) : null;
+        default -> null;
+      };
+      default -> null;
+    };
+  }
+
+  private Packet decodeConnection(byte type) {
+    return switch (type) {
+      case 1 -> new Packet.Connection.Connect(getId());
+      case 2 -> new Packet.Connection.ConnectKo();
+      case 3 -> new Packet.Connection.ConnectOk(getId(), getIds());
+      default -> null;
+    };
+  }
+
+  private Packet decodeDisconnection(byte type) {
+    return switch (type) {
+      case 10 -> new Packet.Disconnection.DisconnectionRequest(getIds());
+      case 11 -> new Packet.Disconnection.DisconnectionDenied();
+      case 12 -> new Packet.Disconnection.DisconnectionGranted();
+      case 13 -> new Packet.Disconnection.PleaseReconnect(getId());
+      case 14 -> new Packet.Disconnection.Reconnect(getId(), getIds());
+      default -> null;
+    };
+  }
+
+  // the fields are evaluated in the order of the arguments, which is the order of the packet
+  private Packet decodeWork(byte type) {
+    var idDest = getId();
+    var idSrc = getId();
+    return switch (type) {
+      case 1 -> {
+        var requestId = getLong();
+        var checker = getChecker();
+        var range = getRange();
+        var nbComputation = getLong();
+        var timeoutMs = getLong();
+        if (timeoutMs <= 0) { // reported by the readers
+          failed = true;
+        }
+        yield failed ? null : new Packet.Work.WorkRequest(idSrc, idDest, requestId, checker, range, nbComputation, timeoutMs);
+      }
+      case 2 -> new Packet.Work.WorkAvailability(idSrc, idDest, getLong(), getLong());
+      case 3 -> new Packet.Work.WorkAssignment(idSrc, idDest, getLong(), getRange());
+      case 4 -> new Packet.Work.WorkResponse(idSrc, idDest, getLong(), getResponse());
+      case 5 -> new Packet.Work.JarRequest(idSrc, idDest, getString());
+      case 6 -> {
+        var jarUrl = getString();
+        var jarSize = getLong();
+        var offset = getLong();
+        yield new Packet.Work.JarChunk(idSrc, idDest, jarUrl, jarSize, offset, getBytes());
+      }
+      case 7 -> {
+        var requestId = getLong();
+        var responses = getResponses();
+        yield responses == null ? null : new Packet.Work.WorkResponseBatch(idSrc, idDest, requestId, responses);
+      }
+      default -> null;
+    };
+  }
+}
@@ -16,6 +16,7 @@ public class PacketReader implements Reader<Packet> {
   private final ConnectReader connectReader = new ConnectReader();
   private final DisconnectReader disconnectReader = new DisconnectReader();
   private final WorkReader workReader = new WorkReader();
+  private final PacketDecoder packetDecoder = new PacketDecoder();
 
   private State state = State.WAITING_FRAME;
   private Frame frame;
@@ -145,7 +146,10 @@ public class PacketReader implements Reader<Packet> {
             Packet.Work.WorkAssignment.class,
             Packet.Work.WorkRequest.class,
             Packet.Work.WorkResponse.class,
-            Packet.Work.WorkAvailability.class);
+            Packet.Work.WorkResponseBatch.class,
+            Packet.Work.WorkAvailability.class,
+            Packet.Work.JarRequest.class,
+            Packet.Work.JarChunk.class);
   }
 
   @Override
@@ -153,20 +157,27 @@ public class PacketReader implements Reader<Packet> {
     if (state == State.DONE || state == State.ERROR) {
       throw new IllegalStateException();
     }
-    var frameState = frameReader.process(bb);
-    switch (frameState) {
-      case DONE -> {
-        frame = frameReader.get();
-        frameReader.reset();
-        state = State.WAITING_COMMAND;
-      }
-      case ERROR -> {
-        state = State.ERROR;
-        return ProcessStatus.ERROR;
+    if (state == State.WAITING_FRAME) { // the frame is read once, the command may need several calls
+      var decodedPacket = packetDecoder.decode(bb); // fast path, when the whole packet is in the buffer
+      if (decodedPacket != null) {
+        packet = decodedPacket;
+        state = State.DONE;
+        return ProcessStatus.DONE;
       }
-      case REFILL -> {
-        state = State.WAITING_FRAME;
-        return ProcessStatus.REFILL;
+      var frameState = frameReader.process(bb);
+      switch (frameState) {
+        case DONE -> {
+          frame = frameReader.get();
+          frameReader.reset();
+          state = State.WAITING_COMMAND;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
       }
     }
 
@@ -0,0 +1,167 @@
+package fr.uge.ugegreed.reader;
+
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static fr.uge.ugegreed.records.Response.*;
+
+/**
+ * Reads the responses of a WorkResponseBatch.<br>
+ * The base value (LONG) and the number of responses (INT) are followed by the responses,
+ * each one made of its offset from the base value (INT), its opcode (BYTE) and its message (STRING).
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public class ResponseBatchReader implements Reader<List<Response>> {
+
+  /**
+   * Represents the state of the Reader.
+   */
+  private enum State {DONE, WAITING_BASE_VALUE, WAITING_COUNT, WAITING_OFFSET, WAITING_OPCODE, WAITING_MESSAGE, ERROR}
+
+  private final LongReader longReader = new LongReader();
+  private final IntReader intReader = new IntReader();
+  private final ByteReader byteReader = new ByteReader();
+  private final StringReader stringReader = new StringReader();
+  private final ArrayList<Response> responses = new ArrayList<>();
+
+  private State state = State.WAITING_BASE_VALUE;
+  private long baseValue;
+  private int remainingResponses;
+  private long value;
+  private byte opcode;
+
+  private ProcessStatus error() {
+    state = State.ERROR;
+    return ProcessStatus.ERROR;
+  }
+
+  @Override
+  public ProcessStatus process(ByteBuffer buffer) {
+    Objects.requireNonNull(buffer);
+    if (state == State.DONE || state == State.ERROR) {
+      throw new IllegalStateException();
+    }
+
+    if (state == State.WAITING_BASE_VALUE) {
+      switch (longReader.process(buffer)) {
+        case DONE -> {
+          baseValue = longReader.get();
+          longReader.reset();
+          state = State.WAITING_COUNT;
+        }
+        case ERROR -> {
+          return error();
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+
+    if (state == State.WAITING_COUNT) {
+      switch (intReader.process(buffer)) {
+        case DONE -> {
+          remainingResponses = intReader.get();
+          intReader.reset();
+          if (remainingResponses <= 0 || remainingResponses > Packet.Work.WorkResponseBatch.MAX_RESPONSES) {
+            return error();
+          }
+          state = State.WAITING_OFFSET;
+        }
+        case ERROR -> {
+          return error();
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+
+    while (remainingResponses > 0) {
+      if (state == State.WAITING_OFFSET) {
+        switch (intReader.process(buffer)) {
+          case DONE -> {
+            var offset = intReader.get();
+            intReader.reset();
+            value = baseValue + offset;
+            // the values are increasing and the first one is the base value
+            if (offset < 0 || (responses.isEmpty() ? offset != 0 : value <= responses.get(responses.size() - 1).value())) {
+              return error();
+            }
+            state = State.WAITING_OPCODE;
+          }
+          case ERROR -> {
+            return error();
+          }
+          case REFILL -> {
+            return ProcessStatus.REFILL;
+          }
+        }
+      }
+      if (state == State.WAITING_OPCODE) {
+        switch (byteReader.process(buffer)) {
+          case DONE -> {
+            opcode = byteReader.get();
+            byteReader.reset();
+            if (opcode < JOB_DONE || opcode > FAILED_TO_RECOVER_CHECKER) {
+              return error();
+            }
+            state = State.WAITING_MESSAGE;
+          }
+          case ERROR -> {
+            return error();
+          }
+          case REFILL -> {
+            return ProcessStatus.REFILL;
+          }
+        }
+      }
+      if (state == State.WAITING_MESSAGE) {
+        switch (stringReader.process(buffer)) {
+          case DONE -> {
+            responses.add(new Response(value, opcode, stringReader.get()));
+            stringReader.reset();
+            remainingResponses--;
+            state = State.WAITING_OFFSET;
+          }
+          case ERROR -> {
+            return error();
+          }
+          case REFILL -> {
+            return ProcessStatus.REFILL;
+          }
+        }
+      }
+    }
+
+    state = State.DONE;
+    return ProcessStatus.DONE;
+  }
+
+  @Override
+  public List<Response> get() {
+    if (state != State.DONE) {
+      throw new IllegalStateException("The ResponseBatchReader is not done yet !");
+    }
+    return List.copyOf(responses);
+  }
+
+  @Override
+  public void reset() {
+    state = State.WAITING_BASE_VALUE;
+    longReader.reset();
+    intReader.reset();
+    byteReader.reset();
+    stringReader.reset();
+    responses.clear();
+    baseValue = 0;
+    remainingResponses = 0;
+    value = 0;
+    opcode = 0;
+  }
+}
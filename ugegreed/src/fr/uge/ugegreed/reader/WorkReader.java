@@ -10,7 +10,8 @@ import java.util.Objects;
 public class WorkReader implements Reader<Packet.Work> {
   private enum State {
     DONE, WAITING_TYPE, WAITING, WAITING_ID_SRC, WAITING_REQUEST_ID, WAITING_NB_COMPUTATION, ERROR,
-    WAITING_CHECKER, WAITING_RANGE, WAITING_RESPONSE
+    WAITING_CHECKER, WAITING_RANGE, WAITING_RESPONSE, WAITING_JAR_URL, WAITING_JAR_SIZE, WAITING_OFFSET,
+    WAITING_DATA, WAITING_RESPONSES, WAITING_TIMEOUT
   }
   private final ByteReader typeReader = new ByteReader();
   private final LongReader longReader = new LongReader();
@@ -18,6 +19,9 @@ public class WorkReader implements Reader<Packet.Work> {
   private final CheckerReader checkerReader = new CheckerReader();
   private final RangeReader rangeReader = new RangeReader();
   private final ResponseReader responseReader = new ResponseReader();
+  private final StringReader stringReader = new StringReader();
+  private final BytesReader bytesReader = new BytesReader();
+  private final ResponseBatchReader responseBatchReader = new ResponseBatchReader();
   private State state = State.WAITING_TYPE;
   private byte type;
   private Id idSrc;
@@ -28,6 +32,9 @@ public class WorkReader implements Reader<Packet.Work> {
   private Task.Checker checker;
   private Task.Range range;
   private Response response;
+  private String jarUrl;
+  private long jarSize;
+  private long offset;
 
   private ProcessStatus processWorkRequest(ByteBuffer buffer) {
     if (state == State.WAITING) {
@@ -121,12 +128,34 @@ public class WorkReader implements Reader<Packet.Work> {
         case DONE -> {
           nbComputation = longReader.get();
           longReader.reset();
+          state = State.WAITING_TIMEOUT;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_TIMEOUT) {
+      var longState = longReader.process(buffer);
+      switch (longState) {
+        case DONE -> {
+          var timeoutMs = longReader.get();
+          longReader.reset();
+          if (timeoutMs <= 0) {
+            state = State.ERROR;
+            return ProcessStatus.ERROR;
+          }
           workPacket = new Packet.Work.WorkRequest(idSrc,
               idDest,
               requestId,
               checker,
               range,
-              nbComputation);
+              nbComputation,
+              timeoutMs);
           state = State.DONE;
         }
         case ERROR -> {
@@ -364,6 +393,242 @@ public class WorkReader implements Reader<Packet.Work> {
     }
     return ProcessStatus.DONE;
   }
+  private ProcessStatus processWorkResponseBatch(ByteBuffer buffer) {
+    if (state == State.WAITING) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idDest = idReader.get();
+          idReader.reset();
+          state = State.WAITING_ID_SRC;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_ID_SRC) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idSrc = idReader.get();
+          idReader.reset();
+          state = State.WAITING_REQUEST_ID;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_REQUEST_ID) {
+      var longState = longReader.process(buffer);
+      switch (longState) {
+        case DONE -> {
+          requestId = longReader.get();
+          longReader.reset();
+          state = State.WAITING_RESPONSES;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_RESPONSES) {
+      var batchState = responseBatchReader.process(buffer);
+      switch (batchState) {
+        case DONE -> {
+          var responses = responseBatchReader.get();
+          responseBatchReader.reset();
+          workPacket = new Packet.Work.WorkResponseBatch(idSrc, idDest, requestId, responses);
+          state = State.DONE;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    return ProcessStatus.DONE;
+  }
+
+
+  private ProcessStatus processJarRequest(ByteBuffer buffer) {
+    if (state == State.WAITING) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idDest = idReader.get();
+          idReader.reset();
+          state = State.WAITING_ID_SRC;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_ID_SRC) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idSrc = idReader.get();
+          idReader.reset();
+          state = State.WAITING_JAR_URL;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_JAR_URL) {
+      var stringState = stringReader.process(buffer);
+      switch (stringState) {
+        case DONE -> {
+          jarUrl = stringReader.get();
+          stringReader.reset();
+          workPacket = new Packet.Work.JarRequest(idSrc, idDest, jarUrl);
+          state = State.DONE;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    return ProcessStatus.DONE;
+  }
+
+  private ProcessStatus processJarChunk(ByteBuffer buffer) {
+    if (state == State.WAITING) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idDest = idReader.get();
+          idReader.reset();
+          state = State.WAITING_ID_SRC;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_ID_SRC) {
+      var idState = idReader.process(buffer);
+      switch (idState) {
+        case DONE -> {
+          idSrc = idReader.get();
+          idReader.reset();
+          state = State.WAITING_JAR_URL;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_JAR_URL) {
+      var stringState = stringReader.process(buffer);
+      switch (stringState) {
+        case DONE -> {
+          jarUrl = stringReader.get();
+          stringReader.reset();
+          state = State.WAITING_JAR_SIZE;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_JAR_SIZE) {
+      var longState = longReader.process(buffer);
+      switch (longState) {
+        case DONE -> {
+          jarSize = longReader.get();
+          longReader.reset();
+          state = State.WAITING_OFFSET;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_OFFSET) {
+      var longState = longReader.process(buffer);
+      switch (longState) {
+        case DONE -> {
+          offset = longReader.get();
+          longReader.reset();
+          state = State.WAITING_DATA;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    if (state == State.WAITING_DATA) {
+      var bytesState = bytesReader.process(buffer);
+      switch (bytesState) {
+        case DONE -> {
+          var data = bytesReader.get();
+          bytesReader.reset();
+          workPacket = new Packet.Work.JarChunk(idSrc, idDest, jarUrl, jarSize, offset, data);
+          state = State.DONE;
+        }
+        case ERROR -> {
+          state = State.ERROR;
+          return ProcessStatus.ERROR;
+        }
+        case REFILL -> {
+          return ProcessStatus.REFILL;
+        }
+      }
+    }
+    return ProcessStatus.DONE;
+  }
 
   @Override
   public ProcessStatus process(ByteBuffer buffer) {
@@ -394,6 +659,9 @@ public class WorkReader implements Reader<Packet.Work> {
         case 2 -> processWorkAvailability(buffer);
         case 3 -> processWorkAssignment(buffer);
         case 4 -> processWorkResponse(buffer);
+        case 5 -> processJarRequest(buffer);
+        case 6 -> processJarChunk(buffer);
+        case 7 -> processWorkResponseBatch(buffer);
         default -> {
           state = State.ERROR;
           yield ProcessStatus.ERROR;
@@ -415,6 +683,13 @@ public class WorkReader implements Reader<Packet.Work> {
           yield ProcessStatus.ERROR;
         }
       };
+      case WAITING_TIMEOUT -> switch (type) {
+        case 1 -> processWorkRequest(buffer);
+        default -> {
+          state = State.ERROR;
+          yield ProcessStatus.ERROR;
+        }
+      };
       case WAITING_RESPONSE -> switch (type) {
       case 4 -> processWorkResponse(buffer);
       default -> {
@@ -422,6 +697,28 @@ public class WorkReader implements Reader<Packet.Work> {
         yield ProcessStatus.ERROR;
       }
     };
+      case WAITING_RESPONSES -> switch (type) {
+        case 7 -> processWorkResponseBatch(buffer);
+        default -> {
+          state = State.ERROR;
+          yield ProcessStatus.ERROR;
+        }
+      };
+      case WAITING_JAR_URL -> switch (type) {
+        case 5 -> processJarRequest(buffer);
+        case 6 -> processJarChunk(buffer);
+        default -> {
+          state = State.ERROR;
+          yield ProcessStatus.ERROR;
+        }
+      };
+      case WAITING_JAR_SIZE, WAITING_OFFSET, WAITING_DATA -> switch (type) {
+        case 6 -> processJarChunk(buffer);
+        default -> {
+          state = State.ERROR;
+          yield ProcessStatus.ERROR;
+        }
+      };
       default -> ProcessStatus.ERROR;
     };
   }
@@ -442,6 +739,9 @@ public class WorkReader implements Reader<Packet.Work> {
     checkerReader.reset();
     rangeReader.reset();
     responseReader.reset();
+    stringReader.reset();
+    bytesReader.reset();
+    responseBatchReader.reset();
     state = State.WAITING_TYPE;
     type = 0;
     idSrc = null;
@@ -452,5 +752,8 @@ public class WorkReader implements Reader<Packet.Work> {
     checker = null;
     range = null;
     response = null;
+    jarUrl = null;
+    jarSize = 0;
+    offset = 0;
   }
 }
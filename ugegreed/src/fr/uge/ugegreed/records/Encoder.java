@@ -1,12 +1,15 @@
 package fr.uge.ugegreed.records;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
  * This interface lets permitted class/record encode into a buffer.<br>
  * This interface defines encode method such as encodeLocal, encodeBroadcast and encodeTransfert.<br>
- * The methods expect the buffer given in parameter to be in write-mode.
+ * The methods expect the buffer given in parameter to be in write-mode.<br>
+ * When an encode method returns false, the buffer may contain a part of the content :
+ * the caller must restore the position of the buffer (see PacketWriter).
  *
  * @author Axel BELIN and Thomas VELU.
  */
@@ -112,6 +115,9 @@ public sealed interface Encoder permits Id, Task, Packet, Response {
    * false if not.
    */
   static boolean encodeListIds(ByteBuffer buffer, List<Id> ids) {
+    if (buffer.remaining() < Integer.BYTES) {
+      return false;
+    }
     buffer.putInt(ids.size());
     for(var id : ids) {
       if(!encodeId(buffer, id)) {
@@ -121,4 +127,65 @@ public sealed interface Encoder permits Id, Task, Packet, Response {
 
     return true;
   }
+
+  /**
+   * Returns the number of bytes of the string once encoded in UTF-8.
+   *
+   * @param string String, the string.
+   * @return Int, the size of the encoded string, without its size prefix.
+   */
+  static int stringSize(String string) {
+    // computed from the chars, the string is not encoded
+    var size = 0;
+    var length = string.length();
+    for (var i = 0; i < length; i++) {
+      var c = string.charAt(i);
+      if (c < 0x80) {
+        size += 1;
+      } else if (c < 0x800) {
+        size += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+        size += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        size += 1; // a malformed surrogate is replaced by '?'
+      } else {
+        size += 3;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes of the list of IDs once encoded.
+   *
+   * @param ids List of IDs.
+   * @return Int, the size of the encoded list, including its size prefix.
+   */
+  static int listIdsSize(List<Id> ids) {
+    var size = Integer.BYTES;
+    for (var id : ids) {
+      size += id.size();
+    }
+    return size;
+  }
+
+  /**
+   * Encodes a string into the given buffer.<br>
+   * The string is encoded in UTF-8 and prefixed by its size in bytes (INT).
+   *
+   * @param buffer ByteBuffer, the buffer in write-mode.
+   * @param string String, the string.
+   * @return True if the content could have been encoded into the buffer,
+   * false if not.
+   */
+  static boolean encodeString(ByteBuffer buffer, String string) {
+    var bytes = string.getBytes(StandardCharsets.UTF_8);
+    if (buffer.remaining() < Integer.BYTES + bytes.length) {
+      return false;
+    }
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+    return true;
+  }
 }
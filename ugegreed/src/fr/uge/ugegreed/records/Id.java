@@ -1,5 +1,6 @@
 package fr.uge.ugegreed.records;
 
+import java.net.Inet4Address;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 
@@ -26,8 +27,9 @@ public record Id(InetSocketAddress socketAddress) implements Encoder {
 
     @Override
     public int size() {
-        var addressBytes = socketAddress.getAddress().getAddress();
-        return Byte.BYTES + addressBytes.length + Integer.BYTES;
+        // the address bytes are not copied, only the family of the address is needed
+        var addressBytesSize = socketAddress.getAddress() instanceof Inet4Address ? 4 : 16;
+        return Byte.BYTES + addressBytesSize + Integer.BYTES;
     }
 
     @Override
@@ -1,7 +1,9 @@
 package fr.uge.ugegreed.records;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 public sealed interface Packet extends Encoder {
   sealed interface Connection extends Packet {
@@ -52,7 +54,7 @@ public sealed interface Packet extends Encoder {
 
       @Override
       public int size() {
-        return HEADER_SIZE + idMother.size() + ids.size();
+        return HEADER_SIZE + idMother.size() + Encoder.listIdsSize(ids);
       }
     }
 
@@ -98,7 +100,7 @@ public sealed interface Packet extends Encoder {
 
       @Override
       public int size() {
-        return HEADER_SIZE + listDaughters.size();
+        return HEADER_SIZE + Encoder.listIdsSize(listDaughters);
       }
     }
 
@@ -156,7 +158,7 @@ public sealed interface Packet extends Encoder {
 
       @Override
       public int size() {
-        return HEADER_SIZE + ids.size();
+        return HEADER_SIZE + id.size() + Encoder.listIdsSize(ids);
       }
     }
 
@@ -187,11 +189,26 @@ public sealed interface Packet extends Encoder {
     Id idSrc();
     Id idDest();
 
+    /**
+     * Asks an application how many values it can compute for a request.<br>
+     * timeoutMs is the time given to the checker for each value, it follows nbComputation in the packet.
+     */
     record WorkRequest(Id idSrc, Id idDest,
                        long requestId,
                        Task.Checker checker,
                        Task.Range range,
-                       long nbComputation) implements Work {
+                       long nbComputation,
+                       long timeoutMs) implements Work {
+
+      public WorkRequest {
+        if (timeoutMs <= 0) {
+          throw new IllegalArgumentException("the timeout should be positive");
+        }
+      }
+
+      public WorkRequest(Id idSrc, Id idDest, long requestId, Task.Checker checker, Task.Range range, long nbComputation) {
+        this(idSrc, idDest, requestId, checker, range, nbComputation, Task.DEFAULT_TIMEOUT_MS);
+      }
 
       @Override
       public boolean encodeTransfert(ByteBuffer buffer) {
@@ -211,18 +228,20 @@ public sealed interface Packet extends Encoder {
           return false;
         }
         buffer.putLong(requestId);
-        checker.encode(buffer);
-        range.encode(buffer);
-        if (buffer.remaining() < Long.BYTES) {
+        if (!checker.encode(buffer) || !range.encode(buffer)) {
+          return false;
+        }
+        if (buffer.remaining() < Long.BYTES * 2) {
           return false;
         }
         buffer.putLong(nbComputation);
+        buffer.putLong(timeoutMs);
         return true;
       }
 
       @Override
       public int size() {
-        return HEADER_SIZE + idSrc().size() + idDest.size() + Long.BYTES * 2; // TODO : + TASK.SIZE + RANGE.SIZE
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Long.BYTES + checker.size() + range.size() + Long.BYTES * 2;
       }
     }
 
@@ -255,7 +274,7 @@ public sealed interface Packet extends Encoder {
 
       @Override
       public int size() {
-        return HEADER_SIZE + idSrc().size() + idDest.size() + Long.BYTES * 2;
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Long.BYTES * 2;
       }
     }
 
@@ -279,13 +298,12 @@ public sealed interface Packet extends Encoder {
           return false;
         }
         buffer.putLong(requestId);
-        range.encode(buffer);
-        return true;
+        return range.encode(buffer);
       }
 
       @Override
       public int size() {
-        return HEADER_SIZE + idSrc().size() + idDest.size() + Long.BYTES; // TODO : + TASK RANGE SIZE
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Long.BYTES + range.size();
       }
     }
 
@@ -309,15 +327,218 @@ public sealed interface Packet extends Encoder {
           return false;
         }
         buffer.putLong(requestId);
-        response.encode(buffer);
+        return response.encode(buffer);
+      }
+
+      @Override
+      public int size() {
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Long.BYTES + response.size();
+      }
+
+    }
+
+    /**
+     * A block of responses of a request, sent instead of one WorkResponse per value.<br>
+     * The values are encoded as a base value (the first value) and, for each response,
+     * its offset from the base (INT), so the ids and the request id are sent once for the whole block.
+     *
+     * @param idSrc Id, the application which computed the responses.
+     * @param idDest Id, the application which sent the request.
+     * @param requestId Long, the request.
+     * @param responses List of Response, ordered by value, at most MAX_RESPONSES.
+     */
+    record WorkResponseBatch(Id idSrc, Id idDest, long requestId, List<Response> responses) implements Work {
+      public static final int MAX_RESPONSES = 1024;
+
+      public WorkResponseBatch {
+        Objects.requireNonNull(responses);
+        if (responses.isEmpty() || responses.size() > MAX_RESPONSES) {
+          throw new IllegalArgumentException("a batch contains between 1 and " + MAX_RESPONSES + " responses");
+        }
+        responses = List.copyOf(responses);
+        var baseValue = responses.get(0).value();
+        var previousValue = baseValue - 1;
+        for (var response : responses) {
+          if (response.value() <= previousValue || response.value() - baseValue > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the values of a batch are increasing and close to each other");
+          }
+          previousValue = response.value();
+        }
+      }
+
+      public long baseValue() {
+        return responses.get(0).value();
+      }
+
+      @Override
+      public boolean encodeTransfert(ByteBuffer buffer) {
+        return Encoder.encodeHeader(buffer, (byte) 1, (byte) 1);
+      }
+
+      @Override
+      public boolean encode(ByteBuffer buffer) {
+        if (!encodeTransfert(buffer)) {
+          return false;
+        }
+        buffer.put((byte) 7);
+        if (!Encoder.encodeId(buffer, idDest) || !Encoder.encodeId(buffer, idSrc)) {
+          return false;
+        }
+        if (buffer.remaining() < Long.BYTES * 2 + Integer.BYTES) {
+          return false;
+        }
+        var baseValue = baseValue();
+        buffer.putLong(requestId);
+        buffer.putLong(baseValue);
+        buffer.putInt(responses.size());
+        for (var response : responses) {
+          if (buffer.remaining() < Integer.BYTES + Byte.BYTES) {
+            return false;
+          }
+          buffer.putInt((int) (response.value() - baseValue));
+          buffer.put(response.opcode());
+          if (!Encoder.encodeString(buffer, response.response())) {
+            return false;
+          }
+        }
         return true;
       }
 
       @Override
       public int size() {
-        return HEADER_SIZE + idSrc().size() + idDest.size() + Long.BYTES + response.size();
+        var size = HEADER_SIZE + idSrc.size() + idDest.size() + Long.BYTES * 2 + Integer.BYTES;
+        for (var response : responses) {
+          size += Integer.BYTES + Byte.BYTES + Integer.BYTES + Encoder.stringSize(response.response());
+        }
+        return size;
       }
+    }
+
+    /**
+     * Asks the destination for the jar of a checker, so it doesn't have to be downloaded from its server.
+     *
+     * @param idSrc Id, the application which needs the jar.
+     * @param idDest Id, the application asked for the jar.
+     * @param jarUrl String, the url of the jar, as given in the checker.
+     */
+    record JarRequest(Id idSrc, Id idDest, String jarUrl) implements Work {
 
+      @Override
+      public boolean encodeTransfert(ByteBuffer buffer) {
+        return Encoder.encodeHeader(buffer, (byte) 1, (byte) 1);
+      }
+
+      @Override
+      public boolean encode(ByteBuffer buffer) {
+        if (!encodeTransfert(buffer)) {
+          return false;
+        }
+        buffer.put((byte) 5);
+        return Encoder.encodeId(buffer, idDest) && Encoder.encodeId(buffer, idSrc)
+                && Encoder.encodeString(buffer, jarUrl);
+      }
+
+      @Override
+      public int size() {
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Integer.BYTES + Encoder.stringSize(jarUrl);
+      }
+    }
+
+    /**
+     * A part of a jar, sent in response to a JarRequest.<br>
+     * The chunks of a jar are sent in order, a jarSize of UNAVAILABLE_JAR means the jar couldn't be found.
+     *
+     * @param idSrc Id, the application sending the jar.
+     * @param idDest Id, the application which asked for the jar.
+     * @param jarUrl String, the url of the jar, as given in the checker.
+     * @param jarSize Long, the size of the whole jar in bytes.
+     * @param offset Long, the position of the chunk in the jar.
+     * @param data Array of bytes, the content of the chunk.
+     */
+    record JarChunk(Id idSrc, Id idDest, String jarUrl, long jarSize, long offset, byte[] data) implements Work {
+      public static final long UNAVAILABLE_JAR = -1;
+
+      @Override
+      public boolean encodeTransfert(ByteBuffer buffer) {
+        return Encoder.encodeHeader(buffer, (byte) 1, (byte) 1);
+      }
+
+      @Override
+      public boolean encode(ByteBuffer buffer) {
+        if (!encodeTransfert(buffer)) {
+          return false;
+        }
+        buffer.put((byte) 6);
+        if (!Encoder.encodeId(buffer, idDest) || !Encoder.encodeId(buffer, idSrc)
+                || !Encoder.encodeString(buffer, jarUrl)) {
+          return false;
+        }
+        if (buffer.remaining() < Long.BYTES * 2 + Integer.BYTES + data.length) {
+          return false;
+        }
+        buffer.putLong(jarSize);
+        buffer.putLong(offset);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        return true;
+      }
+
+      @Override
+      public int size() {
+        return HEADER_SIZE + idSrc.size() + idDest.size() + Integer.BYTES + Encoder.stringSize(jarUrl)
+                + Long.BYTES * 2 + Integer.BYTES + data.length;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        return obj instanceof JarChunk chunk
+                && idSrc.equals(chunk.idSrc) && idDest.equals(chunk.idDest) && jarUrl.equals(chunk.jarUrl)
+                && jarSize == chunk.jarSize && offset == chunk.offset && Arrays.equals(data, chunk.data);
+      }
+
+      @Override
+      public int hashCode() {
+        return Objects.hash(idSrc, idDest, jarUrl, jarSize, offset) ^ Arrays.hashCode(data);
+      }
+
+      @Override
+      public String toString() {
+        return "JarChunk[idSrc=" + idSrc + ", idDest=" + idDest + ", jarUrl=" + jarUrl
+                + ", jarSize=" + jarSize + ", offset=" + offset + ", data=" + data.length + " bytes]";
+      }
+    }
+  }
+
+  /**
+   * A transfer frame forwarded as it was received, its payload is neither decoded nor encoded again.
+   *
+   * @param idDest Id, the destination of the frame.
+   * @param frame ByteBuffer, the whole frame in read-mode, from its header to its last byte.
+   */
+  record RawFrame(Id idDest, ByteBuffer frame) implements Packet {
+
+    public RawFrame {
+      Objects.requireNonNull(idDest);
+      Objects.requireNonNull(frame);
+    }
+
+    @Override
+    public boolean encode(ByteBuffer buffer) {
+      if (buffer.remaining() < frame.remaining()) {
+        return false;
+      }
+      buffer.put(frame.duplicate());
+      return true;
+    }
+
+    @Override
+    public int size() {
+      return frame.remaining();
+    }
+
+    @Override
+    public String toString() {
+      return "RawFrame[idDest=" + idDest + ", frame=" + frame.remaining() + " bytes]";
     }
   }
 }
@@ -14,14 +14,19 @@ public record Response(long value, byte opcode, String response) implements Enco
 
   @Override
   public boolean encode(ByteBuffer buffer) {
-    if (buffer.remaining() < Long.BYTES + Byte.BYTES + Integer.BYTES + response.length()) {
+    var message = UTF_8.encode(response);
+    if (buffer.remaining() < Long.BYTES + Byte.BYTES + Integer.BYTES + message.remaining()) {
       return false;
     }
     buffer.putLong(value);
     buffer.put(opcode);
-    buffer.putInt(response.length());
-    var message = UTF_8.encode(response);
+    buffer.putInt(message.remaining());
     buffer.put(message);
     return true;
   }
+
+  @Override
+  public int size() {
+    return Long.BYTES + Byte.BYTES + Integer.BYTES + Encoder.stringSize(response);
+  }
 }
@@ -9,13 +9,25 @@ import java.util.Objects;
 
 /**
  * Represents the task given in a work packet.<br>
- * In this record, we have a checker (URL and String) and a Range (a long and a long).
+ * In this record, we have a checker (URL and String) and a Range (a long and a long).<br>
+ * timeoutMs is the time given to the checker for each value, a value computed for longer is reported as timed out.
  * 
  * @author Axel BELIN and Thomas VELU.
  */
-public record Task(Checker checker, Range range, Path resultsFilename) implements Encoder {
+public record Task(Checker checker, Range range, Path resultsFilename, long timeoutMs) implements Encoder {
 
   public static final Charset UTF_8 = StandardCharsets.UTF_8;
+  public static final long DEFAULT_TIMEOUT_MS = 10_000; // 10 seconds
+
+  public Task {
+    if (timeoutMs <= 0) {
+      throw new IllegalArgumentException("the timeout should be positive");
+    }
+  }
+
+  public Task(Checker checker, Range range, Path resultsFilename) {
+    this(checker, range, resultsFilename, DEFAULT_TIMEOUT_MS);
+  }
   
     public record Checker(String javaUrl, String classPath) {
       
@@ -25,18 +37,27 @@ public record Task(Checker checker, Range range, Path resultsFilename) implement
       }
       
       public boolean encode(ByteBuffer buffer) {
-        var totalLength = Integer.BYTES + javaUrl.length() + Integer.BYTES + classPath.length();
+        var javaUrlEncoded = UTF_8.encode(javaUrl);
+        var classPathEncoded = UTF_8.encode(classPath);
+        var totalLength = Integer.BYTES + javaUrlEncoded.remaining() + Integer.BYTES + classPathEncoded.remaining();
         if (buffer.remaining() < totalLength) {
           return false;
         }
-        buffer.putInt(javaUrl.length());
-        var javaUrlEncoded = UTF_8.encode(javaUrl);
+        buffer.putInt(javaUrlEncoded.remaining());
         buffer.put(javaUrlEncoded);
-        buffer.putInt(classPath.length());
-        var classPathEncoded = UTF_8.encode(classPath);
+        buffer.putInt(classPathEncoded.remaining());
         buffer.put(classPathEncoded);
         return true;
       }
+
+      /**
+       * Returns the size of the encoded checker.
+       *
+       * @return Int, the size of the encoded checker.
+       */
+      public int size() {
+        return Integer.BYTES + Encoder.stringSize(javaUrl) + Integer.BYTES + Encoder.stringSize(classPath);
+      }
       
     }
 
@@ -64,12 +85,21 @@ public record Task(Checker checker, Range range, Path resultsFilename) implement
         buffer.putLong(sup);
         return true;
       }
+
+      /**
+       * Returns the size of the encoded range.
+       *
+       * @return Int, the size of the encoded range.
+       */
+      public int size() {
+        return Long.BYTES * 2;
+      }
     }
 
     public static Task fromCommand(Console.StartCommand command) {
       var checker = new Checker(command.jarUrl(), command.className());
       var range = new Range(command.startRange(), command.endRange());
-      return new Task(checker, range, command.fileName());
+      return new Task(checker, range, command.fileName(), command.timeoutMs());
     }
 
     @Override
@@ -83,4 +113,9 @@ public record Task(Checker checker, Range range, Path resultsFilename) implement
       }
       return true;
     }
+
+    @Override
+    public int size() {
+      return range.size() + checker.size();
+    }
 }
@@ -0,0 +1,53 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.works.CapacityEstimator;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CapacityEstimatorTest {
+
+  @Test
+  void idleCapacityComesFromTheProcessorsTest() {
+    var estimator = new CapacityEstimator(4, 5);
+    assertEquals(400, estimator.capacity()); // 10 ms per value by default
+  }
+
+  @Test
+  void latencyIsAveragedTest() {
+    var estimator = new CapacityEstimator(4, 5);
+    for (var i = 0; i < 100; i++) {
+      estimator.onValuesComputed(1_000, 1_000_000); // 1 ms for 1000 values on 4 processors
+    }
+    assertEquals(4_000, estimator.latencyNanos(), 1);
+    assertEquals(1_000_000, estimator.capacity(), 1_000);
+  }
+
+  @Test
+  void queuedValuesReduceTheCapacityTest() {
+    var estimator = new CapacityEstimator(4, 5);
+    estimator.onAssignmentStarted(400);
+    assertEquals(200, estimator.capacity());
+    estimator.onValuesDropped(400);
+    estimator.onAssignmentFinished();
+    assertEquals(400, estimator.capacity());
+  }
+
+  @Test
+  void tooManyAssignmentsSaturateTest() {
+    var estimator = new CapacityEstimator(4, 2);
+    estimator.onAssignmentStarted(1);
+    assertTrue(estimator.capacity() > 0);
+    estimator.onAssignmentStarted(1);
+    assertEquals(0, estimator.capacity());
+    estimator.onAssignmentFinished();
+    assertTrue(estimator.capacity() > 0);
+  }
+
+  @Test
+  void tooLargeBacklogSaturatesTest() {
+    var estimator = new CapacityEstimator(4, 5);
+    estimator.onAssignmentStarted(Long.MAX_VALUE);
+    estimator.onAssignmentStarted(Long.MAX_VALUE);
+    assertEquals(0, estimator.capacity());
+  }
+}
@@ -0,0 +1,147 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.Checker;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.CheckerCache;
+import fr.uge.ugegreed.works.JarCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckerCacheTest {
+  // the checkers tell if their class loader is still open : a closed loader doesn't find its resources anymore
+  private static final String CHECKER_SOURCE = """
+          package probe;
+
+          public class %s implements fr.uge.ugegreed.Checker {
+            @Override
+            public String check(long value) {
+              return getClass().getClassLoader().getResource("probe/%s.class") != null ? "open" : "closed";
+            }
+          }
+          """;
+  private static final String[] CLASSES = { "A", "B", "C" };
+
+  private Path directory;
+  private Path jar;
+
+  @BeforeEach
+  public void buildCheckers() throws IOException, URISyntaxException {
+    directory = Files.createTempDirectory("checker-cache-test");
+    var compiler = ToolProvider.getSystemJavaCompiler();
+    var classPath = Path.of(Checker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    jar = directory.resolve("probe.jar");
+    try (var output = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (var name : CLASSES) {
+        var source = directory.resolve("probe/" + name + ".java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, CHECKER_SOURCE.formatted(name, name));
+        assertEquals(0, compiler.run(null, null, null, "-cp", classPath, "-d", directory.toString(), source.toString()));
+        output.putNextEntry(new ZipEntry("probe/" + name + ".class"));
+        output.write(Files.readAllBytes(directory.resolve("probe/" + name + ".class")));
+        output.closeEntry();
+      }
+    }
+  }
+
+  @AfterEach
+  public void deleteCheckers() throws IOException {
+    try (var paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  private Task.Checker key(String name) {
+    return new Task.Checker(jar.toString(), "probe." + name);
+  }
+
+  private CheckerCache newCache(int capacity) {
+    return new CheckerCache(capacity, new JarCache(directory.resolve("cache")));
+  }
+
+  // borrows the checker and gives it back at once
+  private static Checker use(CheckerCache cache, Task.Checker key) throws InterruptedException {
+    try (var lease = cache.acquire(key).orElseThrow()) {
+      return lease.checker();
+    }
+  }
+
+  @Test
+  public void countersTest() throws InterruptedException {
+    try (var cache = newCache(2)) {
+      use(cache, key("A"));
+      use(cache, key("A"));
+      use(cache, key("B"));
+      use(cache, key("A"));
+      assertEquals(2, cache.hits());
+      assertEquals(2, cache.misses());
+      assertEquals(0, cache.evictions());
+      use(cache, key("C"));
+      assertEquals(3, cache.misses());
+      assertEquals(1, cache.evictions());
+    }
+  }
+
+  @Test
+  public void leastRecentlyUsedIsEvictedTest() throws InterruptedException {
+    try (var cache = newCache(2)) {
+      var a = use(cache, key("A"));
+      var b = use(cache, key("B"));
+      use(cache, key("A")); // B is now the least recently used
+      use(cache, key("C"));
+      assertEquals("open", a.check(0));
+      assertEquals("closed", b.check(0));
+      assertSame(a, use(cache, key("A")));
+      assertEquals(3, cache.misses());
+      use(cache, key("B"));
+      assertEquals(4, cache.misses());
+    }
+  }
+
+  @Test
+  public void leaseKeepsTheEvictedLoaderOpenTest() throws InterruptedException {
+    try (var cache = newCache(1)) {
+      var lease = cache.acquire(key("A")).orElseThrow();
+      var a = lease.checker();
+      use(cache, key("B"));
+      assertEquals(1, cache.evictions());
+      assertEquals("open", a.check(0), "the checker is still used");
+      lease.close();
+      assertEquals("closed", a.check(0));
+      lease.close(); // closing twice does nothing
+    }
+  }
+
+  @Test
+  public void closeUnloadsEveryCheckerTest() throws InterruptedException {
+    var cache = newCache(2);
+    var a = use(cache, key("A"));
+    var lease = cache.acquire(key("B")).orElseThrow();
+    cache.close();
+    assertEquals("closed", a.check(0));
+    assertEquals("open", lease.checker().check(0));
+    lease.close();
+    assertEquals("closed", lease.checker().check(0));
+  }
+
+  @Test
+  public void unknownCheckerIsNotCachedTest() throws InterruptedException {
+    try (var cache = newCache(1)) {
+      assertTrue(cache.acquire(key("Unknown")).isEmpty());
+      assertTrue(cache.acquire(key("Unknown")).isEmpty());
+      assertEquals(2, cache.misses());
+      assertEquals(0, cache.evictions());
+    }
+  }
+}
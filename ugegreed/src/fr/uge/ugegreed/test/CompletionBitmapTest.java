@@ -0,0 +1,71 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.CompletionBitmap;
+import org.junit.jupiter.api.Test;
+import java.util.BitSet;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompletionBitmapTest {
+
+  @Test
+  void duplicatesAreRejectedTest() {
+    var bitmap = new CompletionBitmap(new Task.Range(10, 19));
+    assertTrue(bitmap.add(12));
+    assertFalse(bitmap.add(12));
+    assertTrue(bitmap.contains(12));
+    assertFalse(bitmap.contains(13));
+    assertEquals(1, bitmap.cardinality());
+  }
+
+  @Test
+  void valuesOutOfTheRangeAreRejectedTest() {
+    var bitmap = new CompletionBitmap(new Task.Range(10, 19));
+    assertFalse(bitmap.add(9));
+    assertFalse(bitmap.add(20));
+    assertEquals(0, bitmap.cardinality());
+  }
+
+  @Test
+  void completeOnceEveryValueIsThereTest() {
+    var bitmap = new CompletionBitmap(new Task.Range(0, 199_999));
+    for (var value = 199_999; value >= 0; value--) { // the array containers become bitmaps, then full
+      assertFalse(bitmap.isComplete());
+      assertTrue(bitmap.add(value));
+    }
+    assertTrue(bitmap.isComplete());
+    assertEquals(1.0, bitmap.progress());
+    assertFalse(bitmap.add(100_000));
+  }
+
+  @Test
+  void randomValuesAreCountedOnceTest() {
+    var random = new Random(0);
+    var range = new Task.Range(1_000, 300_999);
+    var bitmap = new CompletionBitmap(range);
+    var expected = new BitSet();
+    for (var i = 0; i < 200_000; i++) {
+      var offset = random.nextInt(300_000);
+      assertEquals(!expected.get(offset), bitmap.add(range.inf() + offset));
+      expected.set(offset);
+    }
+    assertEquals(expected.cardinality(), bitmap.cardinality());
+    for (var offset = 0; offset < 300_000; offset++) {
+      assertEquals(expected.get(offset), bitmap.contains(range.inf() + offset));
+    }
+  }
+
+  @Test
+  void hugeRangeIsAddedByChunksTest() {
+    var bitmap = new CompletionBitmap(new Task.Range(0, Long.MAX_VALUE - 1));
+    bitmap.add(5);
+    bitmap.addRange(new Task.Range(3, 1L << 40));
+    assertEquals((1L << 40) - 2, bitmap.cardinality());
+    assertTrue(bitmap.contains(1L << 40));
+    assertFalse(bitmap.contains((1L << 40) + 1));
+    assertFalse(bitmap.add(1L << 39));
+    assertTrue(bitmap.add(Long.MAX_VALUE - 1));
+    assertEquals(0.0, bitmap.progress(), 1e-6);
+  }
+}
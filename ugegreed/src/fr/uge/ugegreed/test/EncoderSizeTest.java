@@ -0,0 +1,77 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Encoder;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import org.junit.jupiter.api.Test;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EncoderSizeTest {
+  private static final Id ID_V4 = new Id(new InetSocketAddress("127.0.0.1", 666));
+  private static final Id ID_V6 = new Id(new InetSocketAddress("::1", 777));
+  private static final List<Id> IDS = IntStream.range(0, 300)
+          .mapToObj(i -> i % 2 == 0 ? new Id(new InetSocketAddress("10.0.0.1", i)) : new Id(new InetSocketAddress("fe80::1", i)))
+          .toList();
+  private static final Task.Checker CHECKER = new Task.Checker("http://exemple.fr/dé€𝄞.jar", "fr.uge.Vérificateur");
+
+  private static void assertExactSize(Encoder encoder) {
+    var buffer = ByteBuffer.allocateDirect(encoder.size() + 64);
+    assertTrue(encoder.encode(buffer), encoder.toString());
+    assertEquals(buffer.position(), encoder.size(), encoder.toString());
+
+    var exactBuffer = ByteBuffer.allocateDirect(encoder.size());
+    assertTrue(encoder.encode(exactBuffer));
+    assertFalse(exactBuffer.hasRemaining());
+  }
+
+  @Test
+  void connectionSizeTest() {
+    assertExactSize(new Packet.Connection.Connect(ID_V4));
+    assertExactSize(new Packet.Connection.Connect(ID_V6));
+    assertExactSize(new Packet.Connection.ConnectKo());
+    assertExactSize(new Packet.Connection.ConnectOk(ID_V6, IDS));
+    assertExactSize(new Packet.Connection.ConnectOk(ID_V4, List.of()));
+    assertExactSize(new Packet.Connection.AddNode(ID_V4, ID_V6));
+  }
+
+  @Test
+  void disconnectionSizeTest() {
+    assertExactSize(new Packet.Disconnection.DisconnectionRequest(IDS));
+    assertExactSize(new Packet.Disconnection.DisconnectionDenied());
+    assertExactSize(new Packet.Disconnection.DisconnectionGranted());
+    assertExactSize(new Packet.Disconnection.PleaseReconnect(ID_V6));
+    assertExactSize(new Packet.Disconnection.Reconnect(ID_V4, IDS));
+    assertExactSize(new Packet.Disconnection.Disconnected(ID_V4, ID_V6));
+  }
+
+  @Test
+  void workSizeTest() {
+    var response = new Response(42, Response.JOB_DONE, "réponse 𝄞 ".repeat(100));
+    assertExactSize(new Packet.Work.WorkRequest(ID_V4, ID_V6, 1, CHECKER, new Task.Range(0, 100), 50));
+    assertExactSize(new Packet.Work.WorkAvailability(ID_V6, ID_V4, 1, 50));
+    assertExactSize(new Packet.Work.WorkAssignment(ID_V4, ID_V4, 1, new Task.Range(0, 100)));
+    assertExactSize(new Packet.Work.WorkResponse(ID_V4, ID_V6, 1, response));
+    assertExactSize(new Packet.Work.JarRequest(ID_V4, ID_V6, CHECKER.javaUrl()));
+    assertExactSize(new Packet.Work.JarChunk(ID_V4, ID_V6, CHECKER.javaUrl(), 2048, 512, new byte[512]));
+    assertExactSize(new Packet.Work.WorkResponseBatch(ID_V4, ID_V6, 1, List.of(response, new Response(45, Response.JOB_EXCEPTION, ""))));
+    assertExactSize(response);
+    assertExactSize(new Task(CHECKER, new Task.Range(3, 4), null));
+    assertExactSize(new Packet.RawFrame(ID_V4, ByteBuffer.wrap(new byte[] { 1, 1, 2, 3, 4, 5 })));
+  }
+
+  @Test
+  void stringSizeTest() {
+    for (var string : List.of("", "abc", "é", "€", "𝄞", "a\uD800b", "\uDC00")) {
+      assertEquals(string.getBytes(StandardCharsets.UTF_8).length, Encoder.stringSize(string), string);
+    }
+  }
+}
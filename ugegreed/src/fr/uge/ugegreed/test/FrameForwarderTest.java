@@ -0,0 +1,132 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.reader.FrameForwarder;
+import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import org.junit.jupiter.api.Test;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameForwarderTest {
+  private static final Id SELF = new Id(new InetSocketAddress("127.0.0.1", 7777));
+  private static final Id SOURCE = new Id(new InetSocketAddress("::1", 7778));
+  private static final Id DESTINATION = new Id(new InetSocketAddress("10.0.0.1", 7779));
+  private static final Task.Checker CHECKER = new Task.Checker("http://exemple.fr/dé€𝄞.jar", "fr.uge.Vérificateur");
+
+  private static final List<Packet.Work> FORWARDED = List.of(
+          new Packet.Work.WorkRequest(SOURCE, DESTINATION, 1, CHECKER, new Task.Range(0, 100), 50, 2_000),
+          new Packet.Work.WorkAvailability(SOURCE, DESTINATION, 1, 50),
+          new Packet.Work.WorkAssignment(SOURCE, DESTINATION, 1, new Task.Range(0, 100)),
+          new Packet.Work.WorkResponse(SOURCE, DESTINATION, 1, new Response(42, Response.JOB_DONE, "réponse 𝄞")),
+          new Packet.Work.WorkResponseBatch(SOURCE, DESTINATION, 1, IntStream.range(0, 1000)
+                  .mapToObj(i -> new Response(1_000 + 3L * i, Response.JOB_DONE, "réponse " + i))
+                  .toList()));
+
+  private static ByteBuffer encode(Packet packet) {
+    var buffer = ByteBuffer.allocate(packet.size());
+    assertTrue(packet.encode(buffer));
+    return buffer.flip();
+  }
+
+  // gives the bytes to the forwarder chunk by chunk, as the network would
+  private static ByteBuffer forward(ByteBuffer bytes, int chunkSize, FrameForwarder forwarder) {
+    var bb = ByteBuffer.allocate(1024);
+    var inspected = false;
+    while (bytes.hasRemaining()) {
+      var length = Math.min(Math.min(chunkSize, bb.remaining()), bytes.remaining());
+      bb.put(bytes.slice(bytes.position(), length));
+      bytes.position(bytes.position() + length);
+      if (!inspected) {
+        var decision = forwarder.inspect(bb, SELF);
+        if (decision == FrameForwarder.Decision.REFILL) {
+          continue;
+        }
+        assertEquals(FrameForwarder.Decision.FORWARD, decision);
+        inspected = true;
+      }
+      if (forwarder.process(bb) == Reader.ProcessStatus.DONE) {
+        assertEquals(0, bb.position());
+        assertFalse(bytes.hasRemaining());
+        return forwarder.get();
+      }
+    }
+    fail("the frame is not complete");
+    return null;
+  }
+
+  @Test
+  void framesAreForwardedAsTheyAreTest() {
+    for (var packet : FORWARDED) {
+      for (var chunkSize : List.of(1, 7, 1024)) {
+        var forwarder = new FrameForwarder();
+        var frame = forward(encode(packet), chunkSize, forwarder);
+        assertEquals(encode(packet), frame, packet + " by " + chunkSize);
+        assertEquals(DESTINATION, forwarder.destination());
+      }
+    }
+  }
+
+  @Test
+  void forwardedFrameIsDecodedByTheDestinationTest() {
+    var packet = FORWARDED.get(0);
+    var rawFrame = new Packet.RawFrame(DESTINATION, forward(encode(packet), 10, new FrameForwarder()));
+    assertEquals(packet.size(), rawFrame.size());
+    var bb = ByteBuffer.allocate(1024);
+    assertTrue(rawFrame.encode(bb));
+    var reader = new PacketReader();
+    assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+    assertEquals(packet, reader.get());
+  }
+
+  @Test
+  void nextPacketIsLeftInTheBufferTest() {
+    var first = FORWARDED.get(1);
+    var next = FORWARDED.get(2);
+    var bb = ByteBuffer.allocate(1024).put(encode(first)).put(encode(next));
+    var forwarder = new FrameForwarder();
+    assertEquals(FrameForwarder.Decision.FORWARD, forwarder.inspect(bb, SELF));
+    assertEquals(Reader.ProcessStatus.DONE, forwarder.process(bb));
+    assertEquals(encode(first), forwarder.get());
+    assertEquals(encode(next), bb.flip());
+  }
+
+  @Test
+  void framesForThisApplicationAreDecodedTest() {
+    var bb = ByteBuffer.allocate(1024).put(encode(new Packet.Work.WorkAvailability(SOURCE, SELF, 1, 50)));
+    assertEquals(FrameForwarder.Decision.DECODE, new FrameForwarder().inspect(bb, SELF));
+  }
+
+  @Test
+  void jarsAndLocalPacketsAreDecodedTest() {
+    var jarRequest = ByteBuffer.allocate(1024).put(encode(new Packet.Work.JarRequest(SOURCE, DESTINATION, "http://jar")));
+    assertEquals(FrameForwarder.Decision.DECODE, new FrameForwarder().inspect(jarRequest, SELF));
+    var connect = ByteBuffer.allocate(1024).put(encode(new Packet.Connection.Connect(SOURCE)));
+    assertEquals(FrameForwarder.Decision.DECODE, new FrameForwarder().inspect(connect, SELF));
+  }
+
+  @Test
+  void beginningOfTheFrameIsWaitedForTest() {
+    var bytes = encode(FORWARDED.get(0));
+    var bb = ByteBuffer.allocate(1024).put(bytes.slice(0, 5));
+    assertEquals(FrameForwarder.Decision.REFILL, new FrameForwarder().inspect(bb, SELF));
+    assertEquals(5, bb.position());
+  }
+
+  @Test
+  void malformedStringIsAnErrorTest() {
+    var bytes = encode(FORWARDED.get(3));
+    bytes.putInt(bytes.limit() - Integer.BYTES - "réponse 𝄞".getBytes(StandardCharsets.UTF_8).length, -1);
+    var bb = ByteBuffer.allocate(1024).put(bytes);
+    var forwarder = new FrameForwarder();
+    assertEquals(FrameForwarder.Decision.FORWARD, forwarder.inspect(bb, SELF));
+    assertEquals(Reader.ProcessStatus.ERROR, forwarder.process(bb));
+  }
+}
@@ -0,0 +1,120 @@
+package fr.uge.ugegreed.test;
+
+import com.sun.net.httpserver.HttpServer;
+import fr.uge.ugegreed.works.JarCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarCacheTest {
+  private HttpServer server;
+  private Path directory;
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile byte[] content = "first version".getBytes(StandardCharsets.UTF_8);
+  private volatile String etag = "\"v1\"";
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    directory = Files.createTempDirectory("jar-cache-test");
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/checker.jar", exchange -> {
+      requests.incrementAndGet();
+      try (exchange) {
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1);
+          return;
+        }
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.sendResponseHeaders(200, content.length);
+        exchange.getResponseBody().write(content);
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.stop(0);
+    try (var paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  private String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/checker.jar";
+  }
+
+  @Test
+  public void downloadsOnceThenReadsFromDisk() throws Exception {
+    var cache = new JarCache(directory);
+    var first = cache.fetch(url()).orElseThrow();
+    var second = cache.fetch(url()).orElseThrow();
+    assertEquals(first, second);
+    assertArrayEquals(content, Files.readAllBytes(first));
+    assertEquals(1, cache.downloads());
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void revalidatesWithEtagAfterRestart() throws Exception {
+    var path = new JarCache(directory).fetch(url()).orElseThrow();
+    var restarted = new JarCache(directory);
+    assertEquals(path, restarted.fetch(url()).orElseThrow());
+    assertEquals(0, restarted.downloads());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void newVersionIsStoredUnderItsOwnHash() throws Exception {
+    var oldPath = new JarCache(directory).fetch(url()).orElseThrow();
+    content = "second version".getBytes(StandardCharsets.UTF_8);
+    etag = "\"v2\"";
+    var restarted = new JarCache(directory);
+    var newPath = restarted.fetch(url()).orElseThrow();
+    assertNotEquals(oldPath, newPath);
+    assertArrayEquals(content, Files.readAllBytes(newPath));
+    assertEquals(1, restarted.downloads());
+  }
+
+  @Test
+  public void usesCachedJarWhenServerIsDown() throws Exception {
+    var path = new JarCache(directory).fetch(url()).orElseThrow();
+    server.stop(0);
+    assertEquals(path, new JarCache(directory).fetch(url()).orElseThrow());
+  }
+
+  @Test
+  public void peerCopyIsRevalidatedAfterRestart() throws Exception {
+    var cache = new JarCache(directory);
+    var peerCopy = cache.store(url(), "stale version".getBytes(StandardCharsets.UTF_8));
+    assertEquals(peerCopy, cache.fetch(url()).orElseThrow(), "as fresh as the copy of the sender");
+    assertEquals(0, requests.get());
+    var restarted = new JarCache(directory);
+    var path = restarted.fetch(url()).orElseThrow();
+    assertArrayEquals(content, Files.readAllBytes(path));
+    assertEquals(1, restarted.downloads());
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void usesPeerCopyWhenServerIsDown() throws Exception {
+    var peerCopy = new JarCache(directory).store(url(), "peer version".getBytes(StandardCharsets.UTF_8));
+    server.stop(0);
+    assertEquals(peerCopy, new JarCache(directory).fetch(url()).orElseThrow());
+  }
+
+  @Test
+  public void ignoresLocalPaths() throws Exception {
+    assertTrue(new JarCache(directory).fetch("/some/local/checker.jar").isEmpty());
+  }
+}
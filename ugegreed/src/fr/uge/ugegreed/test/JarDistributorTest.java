@@ -0,0 +1,205 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.RouteTable;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.works.JarCache;
+import fr.uge.ugegreed.works.JarDistributor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarDistributorTest {
+  private static final Id SELF = new Id(new InetSocketAddress("127.0.0.1", 7777));
+  private static final Id SOURCE = new Id(new InetSocketAddress("127.0.0.1", 7778));
+  private static final String URL = "http://127.0.0.1:1/checker.jar"; // never reachable
+  private static final int CHUNK_SIZE = 512;
+
+  /**
+   * Route table whose packets are kept instead of being sent, they are encoded at once.
+   */
+  private static final class StubRouteTable extends RouteTable {
+    private final ArrayList<Packet> sent = new ArrayList<>();
+
+    private StubRouteTable() {
+      super(SELF);
+    }
+
+    @Override
+    public void sendTo(Packet packet, Id destination) {
+      sent.add(packet);
+    }
+
+    @Override
+    public void sendTo(Packet packet, Id destination, Runnable onEncoded) {
+      sent.add(packet);
+      onEncoded.run();
+    }
+
+    private List<Packet.Work.JarChunk> chunks() {
+      return sent.stream()
+              .filter(packet -> packet instanceof Packet.Work.JarChunk)
+              .map(packet -> (Packet.Work.JarChunk) packet)
+              .toList();
+    }
+
+    private long requests() {
+      return sent.stream().filter(packet -> packet instanceof Packet.Work.JarRequest).count();
+    }
+  }
+
+  private Path directory;
+  private JarCache jarCache;
+  private final StubRouteTable routeTable = new StubRouteTable();
+  private final AtomicInteger ready = new AtomicInteger(); // the actions run once the jar is here
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("jar-distributor");
+    jarCache = new JarCache(directory.resolve("receiver"));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (var paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  private static byte[] jar(int size) {
+    var content = new byte[size];
+    new Random(0).nextBytes(content);
+    return content;
+  }
+
+  private static Packet.Work.JarChunk chunk(byte[] content, int offset) {
+    var end = Math.min(content.length, offset + CHUNK_SIZE);
+    return new Packet.Work.JarChunk(SOURCE, SELF, URL, content.length, offset, Arrays.copyOfRange(content, offset, end));
+  }
+
+  // runs the packets prepared by the background threads, as the selector thread does, until the condition holds
+  private void processUntil(JarDistributor distributor, BooleanSupplier condition, String message)
+          throws InterruptedException {
+    for (var i = 0; i < 250 && !condition.getAsBoolean(); i++) {
+      Thread.sleep(20);
+      distributor.processActions(routeTable);
+    }
+    assertTrue(condition.getAsBoolean(), message);
+  }
+
+  // asks the jar to the source, and waits for the request to be sent
+  private void askJar(JarDistributor distributor) throws InterruptedException {
+    var requests = routeTable.requests();
+    var alreadyReady = ready.get();
+    distributor.awaitJar(URL, SELF, SOURCE, ready::incrementAndGet, routeTable);
+    processUntil(distributor, () -> routeTable.requests() == requests + 1, "the jar is asked to the source");
+    assertEquals(alreadyReady, ready.get());
+  }
+
+  private byte[] cachedJar() throws IOException, InterruptedException {
+    return Files.readAllBytes(jarCache.fetch(URL).orElseThrow());
+  }
+
+  @Test
+  void chunksReceivedInOrderAreReassembledTest() throws Exception {
+    var distributor = new JarDistributor(jarCache, () -> {});
+    var content = jar(3 * CHUNK_SIZE + 100);
+    askJar(distributor);
+    for (var offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+      distributor.receive(chunk(content, offset), true);
+    }
+    processUntil(distributor, () -> ready.get() == 1, "the action runs once the jar is stored");
+    assertArrayEquals(content, cachedJar());
+
+    // the jar is known to be here, it is not asked again
+    distributor.awaitJar(URL, SELF, SOURCE, ready::incrementAndGet, routeTable);
+    assertEquals(2, ready.get());
+    assertEquals(1, routeTable.requests());
+  }
+
+  @Test
+  void servedJarIsReassembledTest() throws Exception {
+    var content = jar(40_000); // more than a window of chunks
+    var serverCache = new JarCache(directory.resolve("server"));
+    serverCache.store(URL, content);
+    var server = new JarDistributor(serverCache, () -> {});
+    var receiver = new JarDistributor(jarCache, () -> {});
+    askJar(receiver);
+
+    server.serve(new Packet.Work.JarRequest(SELF, SOURCE, URL), SOURCE);
+    var chunks = (content.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    processUntil(server, () -> routeTable.chunks().size() == chunks, "the jar is sent in chunks");
+    for (var chunk : routeTable.chunks()) {
+      assertEquals(content.length, chunk.jarSize());
+      receiver.receive(chunk, true);
+    }
+    processUntil(receiver, () -> ready.get() == 1, "the action runs once the jar is stored");
+    assertArrayEquals(content, cachedJar());
+  }
+
+  @Test
+  void chunkOutOfOrderGivesTheJarUpTest() throws Exception {
+    var distributor = new JarDistributor(jarCache, () -> {});
+    var content = jar(3 * CHUNK_SIZE);
+    askJar(distributor);
+    distributor.receive(chunk(content, 0), true);
+    distributor.receive(chunk(content, 2 * CHUNK_SIZE), true);
+    assertEquals(1, ready.get(), "the action runs at once, the checker will be downloaded from its server");
+    // the rest of the jar is ignored
+    distributor.receive(chunk(content, CHUNK_SIZE), true);
+    Thread.sleep(100);
+    distributor.processActions(routeTable);
+    assertEquals(1, ready.get());
+    assertFalse(jarCache.contains(URL));
+  }
+
+  @Test
+  void unavailableJarIsReportedTest() throws Exception {
+    var server = new JarDistributor(new JarCache(directory.resolve("server")), () -> {});
+    var receiver = new JarDistributor(jarCache, () -> {});
+    askJar(receiver);
+
+    server.serve(new Packet.Work.JarRequest(SELF, SOURCE, URL), SOURCE);
+    processUntil(server, () -> !routeTable.chunks().isEmpty(), "the server answers");
+    var answer = routeTable.chunks().get(0);
+    assertEquals(Packet.Work.JarChunk.UNAVAILABLE_JAR, answer.jarSize());
+
+    receiver.receive(answer, false); // only relayed
+    assertEquals(0, ready.get());
+    receiver.receive(answer, true);
+    assertEquals(1, ready.get(), "the action runs at once, the checker will be downloaded from its server");
+    assertFalse(jarCache.contains(URL));
+  }
+
+  @Test
+  void jarNotReceivedInTimeIsGivenUpTest() throws Exception {
+    var distributor = new JarDistributor(jarCache, () -> {}, 500);
+    var content = jar(2 * CHUNK_SIZE);
+    askJar(distributor);
+    distributor.receive(chunk(content, 0), true);
+    processUntil(distributor, () -> ready.get() == 1, "the action runs once the jar has not been received in time");
+
+    // the late chunks are ignored, and the jar is asked again the next time
+    distributor.receive(chunk(content, CHUNK_SIZE), true);
+    assertFalse(jarCache.contains(URL));
+    askJar(distributor);
+    assertEquals(2, routeTable.requests());
+  }
+
+  @Test
+  void nonPositiveTimeoutIsRejectedTest() {
+    assertThrows(IllegalArgumentException.class, () -> new JarDistributor(jarCache, () -> {}, 0));
+  }
+}
@@ -0,0 +1,200 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.Checker;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.CheckerCache;
+import fr.uge.ugegreed.works.JarCache;
+import fr.uge.ugegreed.works.JarHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JarHandlerTest {
+  // value 3 waits until it is interrupted, value 5 ignores the interruption for a while,
+  // value 7 throws an error, the values from 1000 wait like a checker doing I/O
+  private static final String CHECKER_SOURCE = """
+          package slow;
+
+          public class SlowChecker implements fr.uge.ugegreed.Checker {
+            @Override
+            public String check(long value) throws InterruptedException {
+              if (value == 3) {
+                Thread.sleep(60_000);
+              }
+              if (value == 5) {
+                var end = System.nanoTime() + 300_000_000L;
+                while (System.nanoTime() < end) {
+                  Thread.onSpinWait();
+                }
+              }
+              if (value == 7) {
+                throw new AssertionError("broken checker");
+              }
+              if (value >= 1000) {
+                Thread.sleep(200);
+              }
+              return "checked " + value;
+            }
+          }
+          """;
+
+  private Path directory;
+  private Path jar;
+
+  @BeforeEach
+  public void buildChecker() throws IOException, URISyntaxException {
+    directory = Files.createTempDirectory("jar-handler-test");
+    var source = directory.resolve("slow/SlowChecker.java");
+    Files.createDirectories(source.getParent());
+    Files.writeString(source, CHECKER_SOURCE);
+    var compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, compiler.run(null, null, null,
+            "-cp", Path.of(Checker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString(), "-d", directory.toString(), source.toString()));
+    jar = directory.resolve("slow.jar");
+    try (var output = new JarOutputStream(Files.newOutputStream(jar))) {
+      output.putNextEntry(new ZipEntry("slow/SlowChecker.class"));
+      output.write(Files.readAllBytes(directory.resolve("slow/SlowChecker.class")));
+      output.closeEntry();
+    }
+  }
+
+  @AfterEach
+  public void deleteChecker() throws IOException {
+    try (var paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  private ArrayList<Response> check(Task.Range range, long timeoutMs) throws InterruptedException {
+    return check(range, timeoutMs, 16, JarHandler.Runner.platform());
+  }
+
+  private ArrayList<Response> check(Task.Range range, long timeoutMs, int batchSize, JarHandler.Runner runner)
+          throws InterruptedException {
+    var responses = new ArrayList<Response>();
+    try (var checkerCache = new CheckerCache(1, new JarCache(directory.resolve("cache")))) {
+      JarHandler.handleJar(checkerCache, new Task.Checker(jar.toString(), "slow.SlowChecker"), range,
+              batchSize, timeoutMs, runner, responses::addAll);
+    }
+    return responses;
+  }
+
+  @Test
+  public void onlyTheSlowValueTimesOut() throws InterruptedException {
+    var start = System.nanoTime();
+    var responses = check(new Task.Range(0, 4), 200);
+    assertTrue(System.nanoTime() - start < 30_000_000_000L, "the slow value must be interrupted");
+    assertEquals(5, responses.size());
+    for (var response : responses) {
+      if (response.value() == 3) {
+        assertEquals(new Response(3, Response.JOB_TIMEOUT, ""), response);
+      } else {
+        assertEquals(new Response(response.value(), Response.JOB_DONE, "checked " + response.value()), response);
+      }
+    }
+  }
+
+  @Test
+  public void valueIgnoringTheInterruptionTimesOut() throws InterruptedException {
+    var responses = check(new Task.Range(4, 6), 200);
+    assertEquals(3, responses.size());
+    assertEquals(Response.JOB_DONE, responses.get(0).opcode());
+    assertEquals(new Response(5, Response.JOB_TIMEOUT, ""), responses.get(1));
+    assertEquals(Response.JOB_DONE, responses.get(2).opcode());
+  }
+
+  @Test
+  public void valuesInTimeAreNotTimedOut() throws InterruptedException {
+    var responses = check(new Task.Range(4, 6), 5_000);
+    assertEquals(new Response(5, Response.JOB_DONE, "checked 5"), responses.get(1));
+  }
+
+  @Test
+  public void virtualThreadsTimeOutTheSlowValue() throws InterruptedException {
+    var responses = check(new Task.Range(0, 4), 200, 16, JarHandler.Runner.virtual(2));
+    assertEquals(5, responses.size());
+    assertEquals(new Response(3, Response.JOB_TIMEOUT, ""), responses.get(3));
+    assertEquals(new Response(4, Response.JOB_DONE, "checked 4"), responses.get(4));
+  }
+
+  @Test
+  public void virtualThreadsKeepManyWaitingValuesInFlight() throws InterruptedException {
+    var start = System.nanoTime();
+    var responses = check(new Task.Range(1000, 2999), 5_000, 1000, JarHandler.Runner.virtual(1000));
+    assertTrue(System.nanoTime() - start < 10_000_000_000L, "2000 values waiting 200 ms each");
+    assertEquals(2000, responses.size());
+    for (var i = 0; i < responses.size(); i++) {
+      assertEquals(new Response(1000 + i, Response.JOB_DONE, "checked " + (1000 + i)), responses.get(i));
+    }
+  }
+
+  @Test
+  public void errorOfTheCheckerOnlyLosesItsValue() throws InterruptedException {
+    var responses = check(new Task.Range(6, 8), 5_000);
+    assertEquals(3, responses.size());
+    assertEquals(new Response(6, Response.JOB_DONE, "checked 6"), responses.get(0));
+    assertEquals(new Response(7, Response.JOB_EXCEPTION, ""), responses.get(1));
+    assertEquals(new Response(8, Response.JOB_DONE, "checked 8"), responses.get(2));
+  }
+
+  @Test
+  public void virtualThreadsReportTheErrorOfTheChecker() throws InterruptedException {
+    var responses = check(new Task.Range(6, 8), 5_000, 16, JarHandler.Runner.virtual(1));
+    assertEquals(3, responses.size());
+    assertEquals(new Response(7, Response.JOB_EXCEPTION, ""), responses.get(1));
+    assertEquals(new Response(8, Response.JOB_DONE, "checked 8"), responses.get(2));
+  }
+
+  @Test
+  public void virtualThreadsWaitingForAPermitCanBeInterrupted() throws InterruptedException {
+    var runner = JarHandler.Runner.virtual(1);
+    var stuck = Thread.ofVirtual().start(() -> {
+      try {
+        check(new Task.Range(3, 3), 60_000, 16, runner);
+      } catch (InterruptedException e) {
+        // expected
+      }
+    });
+    Thread.sleep(100); // the only permit is taken by value 3
+    var failure = new Throwable[1];
+    var waiting = Thread.ofVirtual().start(() -> {
+      try {
+        check(new Task.Range(0, 1), 60_000, 16, runner);
+        failure[0] = new AssertionError("the values should not have been checked");
+      } catch (InterruptedException e) {
+        // expected
+      }
+    });
+    Thread.sleep(100);
+    waiting.interrupt();
+    waiting.join(5_000);
+    assertFalse(waiting.isAlive(), "the thread waiting for a permit must stop once interrupted");
+    assertNull(failure[0]);
+    stuck.interrupt();
+    stuck.join(5_000);
+  }
+
+  @Test
+  public void unknownExecutorIsRejected() {
+    System.setProperty(JarHandler.Runner.EXECUTOR_PROPERTY, "quantum");
+    try {
+      assertThrows(IllegalArgumentException.class, JarHandler.Runner::fromSystemProperties);
+    } finally {
+      System.clearProperty(JarHandler.Runner.EXECUTOR_PROPERTY);
+    }
+    assertFalse(JarHandler.Runner.fromSystemProperties().isVirtual());
+  }
+}
@@ -0,0 +1,151 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.Mailbox;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MailboxTest {
+  private static final int THREADS = 8;
+  private static final int POSTS = 10_000;
+
+  /**
+   * Selector counting its wakeups, never selecting anything.
+   */
+  private static final class CountingSelector extends AbstractSelector {
+    private final AtomicInteger wakeups = new AtomicInteger();
+
+    private CountingSelector() {
+      super(SelectorProvider.provider());
+    }
+
+    @Override
+    protected void implCloseSelector() {}
+
+    @Override
+    protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<SelectionKey> keys() {
+      return Set.of();
+    }
+
+    @Override
+    public Set<SelectionKey> selectedKeys() {
+      return Set.of();
+    }
+
+    @Override
+    public int selectNow() {
+      return 0;
+    }
+
+    @Override
+    public int select(long timeout) {
+      return 0;
+    }
+
+    @Override
+    public int select() {
+      return 0;
+    }
+
+    @Override
+    public Selector wakeup() {
+      wakeups.incrementAndGet();
+      return this;
+    }
+  }
+
+  @Test
+  void postsFromManyThreadsAreDrainedInOrderTest() throws IOException, InterruptedException {
+    try (var selector = Selector.open()) {
+      var mailbox = new Mailbox(selector);
+      var received = new ArrayList<List<Integer>>();
+      for (var i = 0; i < THREADS; i++) {
+        received.add(new ArrayList<>());
+      }
+      // the lists are only touched by the drainer thread, as the state of a selector thread
+      var drainer = Thread.ofPlatform().start(() -> {
+        try {
+          var count = 0;
+          while (count < THREADS * POSTS) {
+            selector.select(1_000);
+            var before = received.stream().mapToInt(List::size).sum();
+            mailbox.drain();
+            count += received.stream().mapToInt(List::size).sum() - before;
+          }
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      });
+      var posters = new ArrayList<Thread>();
+      for (var i = 0; i < THREADS; i++) {
+        var list = received.get(i);
+        posters.add(Thread.ofPlatform().start(() -> {
+          for (var j = 0; j < POSTS; j++) {
+            var value = j;
+            mailbox.post(() -> list.add(value));
+          }
+        }));
+      }
+      for (var poster : posters) {
+        poster.join();
+      }
+      drainer.join(30_000);
+      assertFalse(drainer.isAlive(), "every command must wake the drainer up");
+      for (var list : received) {
+        assertEquals(POSTS, list.size());
+        for (var j = 0; j < POSTS; j++) {
+          assertEquals(j, list.get(j), "the commands of a thread are run in order");
+        }
+      }
+    }
+  }
+
+  @Test
+  void wakeupsAreCoalescedTest() throws IOException {
+    try (var selector = new CountingSelector()) {
+      var mailbox = new Mailbox(selector);
+      var run = new ArrayList<Integer>();
+      for (var i = 0; i < 100; i++) {
+        var value = i;
+        mailbox.post(() -> run.add(value));
+      }
+      assertEquals(1, selector.wakeups.get(), "one wakeup for the commands posted before the drain");
+      mailbox.drain();
+      assertEquals(100, run.size());
+
+      mailbox.post(() -> run.add(100));
+      assertEquals(2, selector.wakeups.get());
+      // a command posted while draining wakes the selector up again, it is run by this drain or the next one
+      mailbox.post(() -> mailbox.post(() -> run.add(101)));
+      mailbox.drain();
+      assertEquals(3, selector.wakeups.get());
+      mailbox.drain();
+      assertEquals(List.of(100, 101), run.subList(100, run.size()));
+      mailbox.drain();
+      assertEquals(3, selector.wakeups.get());
+    }
+  }
+
+  @Test
+  void nullCommandIsRejectedTest() throws IOException {
+    try (var selector = new CountingSelector()) {
+      var mailbox = new Mailbox(selector);
+      assertThrows(NullPointerException.class, () -> mailbox.post(null));
+      assertEquals(0, selector.wakeups.get());
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.writer.BufferPool;
+import fr.uge.ugegreed.writer.OutputRing;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutputRingTest {
+
+  /**
+   * Channel accepting at most maxBytesPerWrite bytes per write, like a socket with a full send buffer.
+   */
+  private static final class ThrottledChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final int maxBytesPerWrite;
+    private int writes;
+
+    private ThrottledChannel(int maxBytesPerWrite) {
+      this.maxBytesPerWrite = maxBytesPerWrite;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      writes++;
+      var written = 0;
+      for (var i = offset; i < offset + length && written < maxBytesPerWrite; i++) {
+        while (srcs[i].hasRemaining() && written < maxBytesPerWrite) {
+          output.write(srcs[i].get());
+          written++;
+        }
+      }
+      return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      return (int) write(new ByteBuffer[] { src });
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static Packet response(long value) {
+    var id = new Id(new InetSocketAddress("127.0.0.1", 666));
+    return new Packet.Work.WorkResponse(id, id, 1L, new Response(value, Response.JOB_DONE, "value " + value));
+  }
+
+  // writes every packet it can in the ring, as ApplicationContext.processOut does
+  private static int fill(OutputRing ring, PacketWriter writer, Packet[] packets, int next) {
+    for (;;) {
+      if (!writer.isWriting()) {
+        if (next == packets.length) {
+          return next;
+        }
+        writer.set(packets[next++]);
+      }
+      if (writer.process(ring.tail()) == Writer.ProcessStatus.DONE) {
+        writer.reset();
+      } else if (!ring.grow()) {
+        return next;
+      }
+    }
+  }
+
+  @Test
+  void gatheringWriteTest() throws Exception {
+    var pool = new BufferPool(64, 8);
+    var ring = new OutputRing(pool, 4);
+    var writer = new PacketWriter();
+    var packets = new Packet[100];
+    var expected = new ByteArrayOutputStream();
+    for (var i = 0; i < packets.length; i++) {
+      packets[i] = response(i);
+      var bb = ByteBuffer.allocate(packets[i].size());
+      packets[i].encode(bb);
+      expected.write(bb.array());
+    }
+
+    var channel = new ThrottledChannel(100);
+    var next = fill(ring, writer, packets, 0);
+    while (!ring.isEmpty() || writer.isWriting() || next < packets.length) {
+      ring.writeTo(channel, writer.pending());
+      next = fill(ring, writer, packets, next);
+    }
+
+    assertArrayEquals(expected.toByteArray(), channel.output.toByteArray());
+    assertTrue(channel.writes < expected.size() / 64); // less writes than buffers filled
+    ring.release();
+    assertEquals(4, pool.freeBuffers());
+  }
+
+  @Test
+  void ringIsBoundedTest() throws Exception {
+    var pool = new BufferPool(64, 8);
+    var ring = new OutputRing(pool, 2);
+    var writer = new PacketWriter();
+    var packets = new Packet[50];
+    Arrays.setAll(packets, OutputRingTest::response);
+    var next = fill(ring, writer, packets, 0);
+    assertTrue(next < packets.length);
+    assertFalse(ring.grow());
+    assertFalse(ring.isEmpty());
+
+    var channel = new ThrottledChannel(Integer.MAX_VALUE);
+    ring.writeTo(channel, ByteBuffer.allocate(0));
+    assertTrue(ring.isEmpty());
+    assertEquals(1, pool.freeBuffers()); // the first buffer is kept by the ring
+  }
+}
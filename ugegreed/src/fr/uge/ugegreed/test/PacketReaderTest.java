@@ -4,11 +4,15 @@ import fr.uge.ugegreed.reader.PacketReader;
 import fr.uge.ugegreed.reader.Reader;
 import fr.uge.ugegreed.records.Id;
 import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
 import org.junit.jupiter.api.Test;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PacketReaderTest {
   @Test
@@ -344,4 +348,167 @@ public class PacketReaderTest {
     var reader = new PacketReader();
     assertEquals(Reader.ProcessStatus.ERROR, reader.process(buffer));
   }
+
+  @Test
+  void simpleJarRequestTest() {
+    var idSrc = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var idDest = new Id(new InetSocketAddress("10.20.42.10", 888));
+    var expected = new Packet.Work.JarRequest(idSrc, idDest, "http://www-igm.univ-mlv.fr/~carayol/Factorizer.jar");
+    var buffer = ByteBuffer.allocate(1024);
+    assertTrue(expected.encode(buffer));
+    var reader = new PacketReader();
+    assertEquals(Reader.ProcessStatus.DONE, reader.process(buffer));
+    assertEquals(expected, reader.get());
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  void jarChunkSmallBufferTest() {
+    var idSrc = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var idDest = new Id(new InetSocketAddress("10.20.42.10", 888));
+    var data = new byte[300];
+    for (var i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    var expected = new Packet.Work.JarChunk(idSrc, idDest, "/tmp/Collatz.jar", 1300, 512, data);
+    var buffer = ByteBuffer.allocate(1024);
+    assertTrue(expected.encode(buffer));
+    assertEquals(expected.size(), buffer.position());
+    buffer.flip();
+    var bbSmall = ByteBuffer.allocate(3);
+    var reader = new PacketReader();
+    while (buffer.hasRemaining()) {
+      while (buffer.hasRemaining() && bbSmall.hasRemaining()) {
+        bbSmall.put(buffer.get());
+      }
+      if (buffer.hasRemaining()) {
+        assertEquals(Reader.ProcessStatus.REFILL, reader.process(bbSmall));
+      } else {
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bbSmall));
+      }
+    }
+    assertEquals(expected, reader.get());
+  }
+
+  private static List<Packet> everyPacket() {
+    var id1 = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var id2 = new Id(new InetSocketAddress("::1", 888));
+    var ids = List.of(id1, id2, id1);
+    var checker = new Task.Checker("http://exemple.fr/é.jar", "fr.uge.Checker");
+    return List.of(
+            new Packet.Connection.Connect(id1),
+            new Packet.Connection.ConnectKo(),
+            new Packet.Connection.ConnectOk(id2, ids),
+            new Packet.Connection.AddNode(id1, id2),
+            new Packet.Disconnection.DisconnectionRequest(ids),
+            new Packet.Disconnection.DisconnectionDenied(),
+            new Packet.Disconnection.DisconnectionGranted(),
+            new Packet.Disconnection.PleaseReconnect(id2),
+            new Packet.Disconnection.Reconnect(id1, ids),
+            new Packet.Disconnection.Disconnected(id1, id2),
+            new Packet.Work.WorkRequest(id1, id2, 42L, checker, new Task.Range(10, 20), 5L),
+            new Packet.Work.WorkRequest(id1, id2, 43L, checker, new Task.Range(10, 20), 5L, 250L),
+            new Packet.Work.WorkAvailability(id2, id1, 42L, 7L),
+            new Packet.Work.WorkAssignment(id1, id2, 42L, new Task.Range(0, 3)),
+            new Packet.Work.WorkResponse(id1, id2, 42L, new Response(12L, Response.JOB_DONE, "réponse")),
+            new Packet.Work.JarRequest(id1, id2, checker.javaUrl()),
+            new Packet.Work.JarChunk(id2, id1, checker.javaUrl(), 10, 0, new byte[] { 1, 2, 3 }),
+            new Packet.Work.WorkResponseBatch(id2, id1, 42L, List.of(
+                    new Response(100L, Response.JOB_DONE, "ok"),
+                    new Response(101L, Response.JOB_TIMEOUT, ""),
+                    new Response(105L, Response.JOB_DONE, "réponse")))
+    );
+  }
+
+  @Test
+  void wholePacketsInOneBufferTest() {
+    var packets = everyPacket();
+    var buffer = ByteBuffer.allocate(2048);
+    packets.forEach(packet -> assertTrue(packet.encode(buffer)));
+    var reader = new PacketReader();
+    for (var expected : packets) {
+      assertEquals(Reader.ProcessStatus.DONE, reader.process(buffer));
+      assertEquals(expected, reader.get());
+      reader.reset();
+    }
+    assertEquals(0, buffer.position());
+    assertEquals(Reader.ProcessStatus.REFILL, reader.process(buffer));
+  }
+
+  @Test
+  void packetsSplitByteByByteTest() {
+    var packets = everyPacket();
+    var encoded = ByteBuffer.allocate(2048);
+    packets.forEach(packet -> assertTrue(packet.encode(encoded)));
+    encoded.flip();
+    var buffer = ByteBuffer.allocate(1024);
+    var reader = new PacketReader();
+    var read = new ArrayList<Packet>();
+    while (encoded.hasRemaining()) {
+      buffer.put(encoded.get());
+      if (reader.process(buffer) == Reader.ProcessStatus.DONE) {
+        read.add(reader.get());
+        reader.reset();
+      }
+    }
+    assertEquals(packets, read);
+  }
+
+  @Test
+  void invalidPacketFallsBackToReadersTest() {
+    var buffer = ByteBuffer.allocate(1024);
+    buffer.put((byte) 0).put((byte) 0).put((byte) 1).put((byte) 5); // unknown address type
+    buffer.put(new byte[20]);
+    var reader = new PacketReader();
+    assertEquals(Reader.ProcessStatus.ERROR, reader.process(buffer));
+  }
+
+  @Test
+  void workRequestWithoutTimeoutTest() {
+    var id = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var packet = new Packet.Work.WorkRequest(id, id, 42L, new Task.Checker("url", "fqn"), new Task.Range(1, 2), 5L);
+    var buffer = ByteBuffer.allocate(1024);
+    assertTrue(packet.encode(buffer));
+    buffer.putLong(buffer.position() - Long.BYTES, 0); // the timeout is the last field
+    var reader = new PacketReader();
+    assertEquals(Reader.ProcessStatus.ERROR, reader.process(buffer));
+  }
+
+  @Test
+  void workResponseBatchDecreasingValuesTest() {
+    var id = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var batch = new Packet.Work.WorkResponseBatch(id, id, 42L, List.of(
+            new Response(10L, Response.JOB_DONE, "a"), new Response(11L, Response.JOB_DONE, "b")));
+    var buffer = ByteBuffer.allocate(1024);
+    assertTrue(batch.encode(buffer));
+    // the offset of the second response is 1, it is replaced by 0
+    var secondOffsetPosition = batch.size() - (Integer.BYTES + Byte.BYTES + Integer.BYTES + 1);
+    buffer.putInt(secondOffsetPosition, 0);
+    var reader = new PacketReader();
+    assertEquals(Reader.ProcessStatus.ERROR, reader.process(buffer));
+  }
+
+  @Test
+  void workResponseBatchLargerThanBufferTest() {
+    var id = new Id(new InetSocketAddress("10.100.1.1", 777));
+    var responses = new ArrayList<Response>();
+    for (var i = 0; i < Packet.Work.WorkResponseBatch.MAX_RESPONSES; i++) {
+      responses.add(new Response(1_000_000L + i, Response.JOB_DONE, "value " + i));
+    }
+    var batch = new Packet.Work.WorkResponseBatch(id, id, 42L, responses);
+    var encoded = ByteBuffer.allocate(batch.size());
+    assertTrue(batch.encode(encoded));
+    encoded.flip();
+    var buffer = ByteBuffer.allocate(1024);
+    var reader = new PacketReader();
+    var status = Reader.ProcessStatus.REFILL;
+    while (status == Reader.ProcessStatus.REFILL) {
+      var length = Math.min(buffer.remaining(), encoded.remaining());
+      buffer.put(encoded.slice(encoded.position(), length));
+      encoded.position(encoded.position() + length);
+      status = reader.process(buffer);
+    }
+    assertEquals(Reader.ProcessStatus.DONE, status);
+    assertEquals(batch, reader.get());
+  }
 }
@@ -0,0 +1,129 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
+import org.junit.jupiter.api.Test;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PacketWriterTest {
+  @Test
+  void simpleWriteTest() {
+    var packet = new Packet.Connection.Connect(new Id(new InetSocketAddress("127.0.0.1", 666)));
+    var bb = ByteBuffer.allocate(1024);
+    var pw = new PacketWriter();
+    pw.set(packet);
+    assertEquals(Writer.ProcessStatus.DONE, pw.process(bb));
+    assertFalse(pw.isWriting());
+    var pr = new PacketReader();
+    assertEquals(Reader.ProcessStatus.DONE, pr.process(bb));
+    assertEquals(packet, pr.get());
+  }
+
+  @Test
+  void packetLargerThanBufferTest() {
+    var ids = IntStream.range(0, 200)
+            .mapToObj(i -> new Id(new InetSocketAddress("10.0.0." + (i % 250), 1000 + i)))
+            .toList();
+    var packet = new Packet.Connection.ConnectOk(new Id(new InetSocketAddress("127.0.0.1", 666)), ids);
+    var bufferOut = ByteBuffer.allocate(1024);
+    var bufferIn = ByteBuffer.allocate(1024);
+    var pw = new PacketWriter();
+    var pr = new PacketReader();
+    pw.set(packet);
+    var writes = 0;
+    Reader.ProcessStatus readStatus;
+    do {
+      var writeStatus = pw.process(bufferOut);
+      writes++;
+      // moves everything written from bufferOut to bufferIn, as the network would
+      bufferOut.flip();
+      bufferIn.put(bufferOut);
+      bufferOut.compact();
+      readStatus = pr.process(bufferIn);
+      assertEquals(writeStatus == Writer.ProcessStatus.DONE, readStatus == Reader.ProcessStatus.DONE);
+    } while (readStatus == Reader.ProcessStatus.REFILL);
+    assertTrue(writes > 1);
+    assertEquals(Reader.ProcessStatus.DONE, readStatus);
+    assertEquals(packet, pr.get());
+  }
+
+  @Test
+  void failedEncodeIsRolledBackTest() {
+    var id = new Id(new InetSocketAddress("127.0.0.1", 666));
+    var packet = new Packet.Work.WorkResponse(id, id, 42L,
+            new Response(7L, Response.JOB_DONE, "a message too long to fit in the remaining bytes"));
+    var bb = ByteBuffer.allocate(1024);
+    bb.position(1024 - 40);
+    assertFalse(packet.encode(bb.duplicate()));
+
+    var pw = new PacketWriter();
+    pw.set(packet);
+    assertEquals(Writer.ProcessStatus.REFILL, pw.process(bb));
+    assertFalse(bb.hasRemaining());
+    bb.clear();
+    assertEquals(Writer.ProcessStatus.DONE, pw.process(bb));
+
+    var expected = ByteBuffer.allocate(1024);
+    assertTrue(packet.encode(expected));
+    assertEquals(expected.position() - 40, bb.position());
+  }
+
+  @Test
+  void utf8LengthTest() {
+    var id = new Id(new InetSocketAddress("127.0.0.1", 666));
+    var packet = new Packet.Work.WorkRequest(id, id, 1L,
+            new Task.Checker("http://exemple.fr/é.jar", "fr.uge.Vérificateur"), new Task.Range(0, 10), 5L);
+    var bb = ByteBuffer.allocate(1024);
+    var pw = new PacketWriter();
+    pw.set(packet);
+    assertEquals(Writer.ProcessStatus.DONE, pw.process(bb));
+    var pr = new PacketReader();
+    assertEquals(Reader.ProcessStatus.DONE, pr.process(bb));
+    assertEquals(packet, pr.get());
+  }
+
+  @Test
+  void stagingIsReusedByLargePacketsTest() {
+    var id = new Id(new InetSocketAddress("127.0.0.1", 666));
+    var pw = new PacketWriter();
+    for (var length : new int[] { 5_000, 3_000, 2 * 1024 * 1024, 4_000, 10 }) {
+      var packet = new Packet.Work.WorkResponse(id, id, 42L, new Response(7L, Response.JOB_DONE, "x".repeat(length)));
+      var expected = ByteBuffer.allocate(packet.size());
+      assertTrue(packet.encode(expected));
+      var written = ByteBuffer.allocate(packet.size());
+      var bb = ByteBuffer.allocate(1024);
+      pw.set(packet);
+      Writer.ProcessStatus status;
+      do {
+        status = pw.process(bb);
+        written.put(bb.flip());
+        bb.clear();
+      } while (status == Writer.ProcessStatus.REFILL);
+      pw.reset();
+      assertEquals(expected.flip(), written.flip(), "packet of " + length + " characters");
+    }
+  }
+
+  @Test
+  void setTwiceTest() {
+    var packet = new Packet.Connection.ConnectKo();
+    var pw = new PacketWriter();
+    pw.set(packet);
+    assertThrows(IllegalStateException.class, () -> pw.set(packet));
+    pw.reset();
+    pw.set(packet);
+    assertTrue(pw.isWriting());
+  }
+}
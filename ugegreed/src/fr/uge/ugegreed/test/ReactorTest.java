@@ -0,0 +1,158 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.Application;
+import fr.uge.ugegreed.reader.PacketReader;
+import fr.uge.ugegreed.reader.Reader;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.writer.PacketWriter;
+import fr.uge.ugegreed.writer.Writer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReactorTest {
+  private static final int MAX_BYTES = 16 * 1024 * 1024; // far more than the socket buffers
+  private static final long STALL_MS = 500;
+  private static final long TIMEOUT_MS = 10_000;
+
+  private final Logger applicationLogger = Logger.getLogger("fr.uge.ugegreed");
+  private Level applicationLevel;
+  private int port;
+  private Id self;
+  private Id source;
+  private Application application;
+  private Thread applicationThread;
+  private final PacketReader reader = new PacketReader();
+  private final ByteBuffer bufferIn = ByteBuffer.allocate(64 * 1024);
+
+  @BeforeEach
+  void launch() throws IOException {
+    // every packet is logged, the test sends thousands of them
+    applicationLevel = applicationLogger.getLevel();
+    applicationLogger.setLevel(Level.WARNING);
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    self = new Id(new InetSocketAddress("0.0.0.0", port));
+    source = new Id(new InetSocketAddress("127.0.0.1", port + 1));
+    System.setProperty("ugegreed.reactors", "1");
+    try {
+      application = new Application(port);
+    } finally {
+      System.clearProperty("ugegreed.reactors");
+    }
+    applicationThread = Thread.ofPlatform().daemon().start(() -> {
+      try {
+        application.launch();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    });
+  }
+
+  @AfterEach
+  void stop() throws InterruptedException {
+    applicationThread.interrupt();
+    applicationThread.join(5_000);
+    applicationLogger.setLevel(applicationLevel);
+  }
+
+  // every work request is answered with a work availability, on the same connection, the requests have the same size
+  private ByteBuffer workRequest(long requestId) {
+    var writer = new PacketWriter();
+    var checker = new Task.Checker("http://127.0.0.1:1/checker.jar", "Checker");
+    writer.set(new Packet.Work.WorkRequest(source, self, requestId, checker, new Task.Range(0, 9), 10, 1_000));
+    var bytes = ByteBuffer.allocate(1024);
+    assertEquals(Writer.ProcessStatus.DONE, writer.process(bytes));
+    return bytes.flip();
+  }
+
+  private ByteBuffer workRequests(int count) {
+    var bytes = ByteBuffer.allocate(count * workRequest(0).remaining());
+    for (var requestId = 0; requestId < count; requestId++) {
+      bytes.put(workRequest(requestId));
+    }
+    return bytes.flip();
+  }
+
+  // reads the answers received so far, without blocking
+  private int readAvailabilities(SocketChannel client) throws IOException {
+    assertNotEquals(-1, client.read(bufferIn), "the connection is kept");
+    var availabilities = 0;
+    for (var status = reader.process(bufferIn); status != Reader.ProcessStatus.REFILL; status = reader.process(bufferIn)) {
+      assertEquals(Reader.ProcessStatus.DONE, status);
+      assertInstanceOf(Packet.Work.WorkAvailability.class, reader.get());
+      reader.reset();
+      availabilities++;
+    }
+    return availabilities;
+  }
+
+  // writes and reads until every request of the buffer is answered
+  private void exchange(SocketChannel client, ByteBuffer requests, int count) throws IOException, InterruptedException {
+    var deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    var answered = 0;
+    while (answered < count) {
+      assertTrue(System.currentTimeMillis() < deadline, answered + " requests answered out of " + count);
+      client.write(requests);
+      answered += readAvailabilities(client);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void readingStopsWhileTheApplicationThreadIsBusyTest() throws IOException, InterruptedException {
+    var size = workRequest(0).remaining();
+    var requests = workRequests(MAX_BYTES / size);
+    try (var client = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+      client.setOption(StandardSocketOptions.SO_SNDBUF, 64 * 1024);
+      client.configureBlocking(false);
+      // a first request answered : the connection is accepted by the application thread, then registered by the reactor
+      requests.limit(size);
+      exchange(client, requests, 1);
+      requests.limit(requests.capacity());
+
+      var blocked = new CountDownLatch(1);
+      var release = new CountDownLatch(1);
+      application.execute(() -> {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      blocked.await();
+
+      // the reactor stops reading once a few packets are waiting, the socket buffers fill up
+      var lastWrite = System.currentTimeMillis();
+      while (requests.hasRemaining() && System.currentTimeMillis() - lastWrite < STALL_MS) {
+        if (client.write(requests) > 0) {
+          lastWrite = System.currentTimeMillis();
+        } else {
+          Thread.sleep(10);
+        }
+      }
+      assertTrue(requests.hasRemaining(), "the connection is not read while the application thread is busy");
+      assertEquals(0, readAvailabilities(client), "no packet is processed while the application thread is busy");
+
+      // the requests partially written are finished, the reading resumes once the application thread caught up
+      var sent = (requests.position() + size - 1) / size;
+      requests.limit(sent * size);
+      release.countDown();
+      exchange(client, requests, sent - 1);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.RequestJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestJournalTest {
+  private static final Id NODE = new Id(new InetSocketAddress("127.0.0.1", 7778));
+  private static final Task TASK = new Task(new Task.Checker("http://exemple.fr/checker.jar", "fr.uge.Checker"),
+          new Task.Range(0, 99), Path.of("results.txt"), 2_000);
+
+  private Path directory;
+  private Path path;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal");
+    path = directory.resolve("results.txt.journal");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (var files = Files.list(directory)) {
+      for (var file : files.toList()) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void progressIsReadBackTest() throws IOException {
+    try (var journal = RequestJournal.create(path, 42L, TASK)) {
+      journal.assigned(NODE, new Task.Range(0, 49));
+      journal.completed(new Task.Range(10, 19));
+      journal.completed(new Task.Range(0, 9));
+      journal.completed(new Task.Range(30, 39));
+    }
+    var progress = RequestJournal.read(path).orElseThrow();
+    assertEquals(42L, progress.requestId());
+    assertEquals(TASK.checker(), progress.checker());
+    assertEquals(TASK.range(), progress.range());
+    assertEquals(2_000, progress.timeoutMs());
+    assertTrue(progress.matches(TASK));
+    assertFalse(progress.finished());
+    assertEquals(List.of(new Task.Range(0, 19), new Task.Range(30, 39)), progress.completed());
+    assertEquals(30, progress.completedCount());
+    assertEquals(List.of(new Task.Range(20, 29), new Task.Range(40, 99)), progress.missing());
+    assertEquals(50L, progress.assignedValues().get(NODE.toString()));
+  }
+
+  @Test
+  void recordsAreOnlyWrittenByCheckpointTest() throws IOException {
+    try (var journal = RequestJournal.create(path, 1L, TASK)) {
+      journal.completed(new Task.Range(0, 9));
+      assertTrue(journal.hasPendingRecords());
+      assertEquals(0, Files.size(path));
+      journal.checkpoint();
+      assertFalse(journal.hasPendingRecords());
+      assertEquals(List.of(new Task.Range(0, 9)), RequestJournal.read(path).orElseThrow().completed());
+    }
+  }
+
+  @Test
+  void tornRecordIsIgnoredAndOverwrittenTest() throws IOException {
+    try (var journal = RequestJournal.create(path, 1L, TASK)) {
+      journal.completed(new Task.Range(0, 9));
+      journal.completed(new Task.Range(50, 59));
+    }
+    // the last record is cut by a crash
+    var size = Files.size(path);
+    try (var channel = Files.newByteChannel(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 3);
+    }
+    var progress = RequestJournal.read(path).orElseThrow();
+    assertEquals(List.of(new Task.Range(0, 9)), progress.completed());
+
+    try (var journal = RequestJournal.resume(path, progress)) {
+      journal.completed(new Task.Range(10, 99));
+      journal.finished();
+    }
+    var resumed = RequestJournal.read(path).orElseThrow();
+    assertEquals(List.of(new Task.Range(0, 99)), resumed.completed());
+    assertEquals(List.of(), resumed.missing());
+    assertTrue(resumed.finished());
+  }
+
+  @Test
+  void anotherTaskDoesNotMatchTest() throws IOException {
+    try (var journal = RequestJournal.create(path, 1L, TASK)) {
+      journal.finished();
+    }
+    var progress = RequestJournal.read(path).orElseThrow();
+    assertFalse(progress.matches(new Task(TASK.checker(), new Task.Range(0, 100), TASK.resultsFilename())));
+    assertFalse(progress.matches(new Task(new Task.Checker("http://exemple.fr/other.jar", "fr.uge.Checker"),
+            TASK.range(), TASK.resultsFilename())));
+  }
+
+  @Test
+  void missingJournalTest() throws IOException {
+    assertEquals(Optional.empty(), RequestJournal.read(path));
+  }
+}
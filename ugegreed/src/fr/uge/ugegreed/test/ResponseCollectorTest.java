@@ -0,0 +1,173 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.ResponseCollector;
+import fr.uge.ugegreed.works.ResultWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ResponseCollectorTest {
+  private static final Id ID = new Id(new InetSocketAddress("127.0.0.1", 666));
+
+  private Path directory;
+  private ResponseCollector responseCollector;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("results");
+    responseCollector = new ResponseCollector();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    responseCollector.close();
+    try (var files = Files.list(directory)) {
+      for (var file : files.toList()) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void responsesAreAppendedInOrderTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    responseCollector.addResultFilename(1L, file, new Task.Range(0, 3));
+    var responses = List.of(
+            new Response(0, Response.JOB_DONE, "zéro"),
+            new Response(1, Response.JOB_DONE, "un"),
+            new Response(2, Response.JOB_TIMEOUT, ""),
+            new Response(3, Response.JOB_DONE, "trois"));
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, responses.get(0)));
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L, responses.subList(1, 4)));
+    responseCollector.flush();
+
+    var expected = new StringBuilder();
+    responses.forEach(expected::append);
+    assertEquals(expected.toString(), Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void requestsHaveTheirOwnFileTest() throws Exception {
+    var file1 = directory.resolve("1.txt");
+    var file2 = directory.resolve("2.txt");
+    responseCollector.addResultFilename(1L, file1, new Task.Range(0, 1000));
+    responseCollector.addResultFilename(2L, file2, new Task.Range(0, 1000));
+    var expected1 = new StringBuilder();
+    var expected2 = new StringBuilder();
+    for (var i = 0; i < 1000; i++) {
+      var response1 = new Response(i, Response.JOB_DONE, "first " + i);
+      var response2 = new Response(i, Response.JOB_DONE, "second " + i);
+      responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response1));
+      responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 2L, response2));
+      expected1.append(response1);
+      expected2.append(response2);
+    }
+    responseCollector.flush();
+
+    assertEquals(expected1.toString(), Files.readString(file1, StandardCharsets.UTF_8));
+    assertEquals(expected2.toString(), Files.readString(file2, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void runningRequestIsExportedByCloseTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    responseCollector.addResultFilename(1L, file, new Task.Range(0, 9));
+    var response3 = new Response(3, Response.JOB_DONE, "trois");
+    var response1 = new Response(1, Response.JOB_DONE, "un");
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response3));
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response1));
+    responseCollector.close();
+    assertEquals(response1.toString() + response3, Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void completedRequestIsWrittenWithoutFlushTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    responseCollector.addResultFilename(1L, file, new Task.Range(5, 6));
+    var response5 = new Response(5, Response.JOB_DONE, "cinq");
+    var response6 = new Response(6, Response.JOB_DONE, "six");
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L, List.of(response5, response6)));
+    // the file is written and closed by the writer thread once the request is complete
+    for (var i = 0; i < 100 && (!Files.exists(file) || Files.size(file) == 0); i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(response5.toString() + response6, Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void duplicatedResponsesAreDroppedTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    var completed = new CopyOnWriteArrayList<Long>();
+    responseCollector.addCompletionListener(completed::add);
+    responseCollector.addResultFilename(1L, file, new Task.Range(0, 3));
+    var response0 = new Response(0, Response.JOB_DONE, "zéro");
+    var response1 = new Response(1, Response.JOB_DONE, "un");
+    var response2 = new Response(2, Response.JOB_DONE, "deux");
+    var response3 = new Response(3, Response.JOB_DONE, "trois");
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L, List.of(response0, response1)));
+    assertEquals(OptionalDouble.of(0.5), responseCollector.progress(1L));
+    // a retried range sends the same values again
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L,
+            List.of(new Response(1, Response.JOB_DONE, "un encore"), response2)));
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response0));
+    assertEquals(OptionalDouble.of(0.75), responseCollector.progress(1L));
+    assertEquals(List.of(), completed);
+
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response3));
+    assertEquals(List.of(1L), completed);
+    assertEquals(OptionalDouble.empty(), responseCollector.progress(1L));
+    responseCollector.flush();
+    assertEquals(response0.toString() + response1 + response2 + response3, Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void responsesAreAppendedIfTheStoreFailsTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    Files.createDirectory(ResultWriter.storePath(file)); // the store can't be created
+    var completed = new CopyOnWriteArrayList<Long>();
+    responseCollector.addCompletionListener(completed::add);
+    responseCollector.addResultFilename(1L, file, new Task.Range(0, 2));
+    var response0 = new Response(0, Response.JOB_DONE, "zéro");
+    var response1 = new Response(1, Response.JOB_DONE, "un");
+    var response2 = new Response(2, Response.JOB_DONE, "deux");
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response2));
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, response0));
+    responseCollector.flush();
+    assertEquals(response2.toString() + response0, Files.readString(file, StandardCharsets.UTF_8));
+
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L, List.of(response0, response1)));
+    assertEquals(List.of(1L), completed);
+    responseCollector.flush();
+    assertEquals(response2.toString() + response0 + response1, Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void lateResponsesOfAFinishedRequestAreDroppedTest() throws Exception {
+    var file = directory.resolve("results.txt");
+    responseCollector.addResultFilename(1L, file, new Task.Range(0, 1));
+    var response0 = new Response(0, Response.JOB_DONE, "zéro");
+    var response1 = new Response(1, Response.JOB_DONE, "un");
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L, List.of(response0, response1)));
+    responseCollector.flush();
+    // a straggler answers after the values were computed by another application
+    responseCollector.saveResponseIntoResultFile(new Packet.Work.WorkResponse(ID, ID, 1L, new Response(1, Response.JOB_DONE, "un encore")));
+    responseCollector.saveResponsesIntoResultFile(new Packet.Work.WorkResponseBatch(ID, ID, 1L,
+            List.of(new Response(0, Response.JOB_DONE, "zéro encore"))));
+    responseCollector.flush();
+    assertEquals(response0.toString() + response1, Files.readString(file, StandardCharsets.UTF_8));
+  }
+}
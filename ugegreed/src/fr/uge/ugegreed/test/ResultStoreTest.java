@@ -0,0 +1,108 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.ResultStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultStoreTest {
+  private Path directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("store");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (var files = Files.list(directory)) {
+      for (var file : files.toList()) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void responsesAreFoundByValueTest() throws IOException {
+    try (var store = ResultStore.create(directory.resolve("1.store"), 1L, new Task.Range(100, 199))) {
+      store.put(new Response(150, Response.JOB_DONE, "cent cinquante"));
+      store.put(new Response(100, Response.JOB_TIMEOUT, ""));
+      assertEquals(Optional.of(new Response(150, Response.JOB_DONE, "cent cinquante")), store.get(150));
+      assertEquals(Optional.of(new Response(100, Response.JOB_TIMEOUT, "")), store.get(100));
+      assertEquals(Optional.empty(), store.get(199));
+      assertTrue(store.contains(150));
+      assertFalse(store.contains(101));
+      assertEquals(2, store.count());
+      assertThrows(IllegalArgumentException.class, () -> store.get(200));
+      assertThrows(IllegalArgumentException.class, () -> store.put(new Response(99, Response.JOB_DONE, "")));
+    }
+  }
+
+  @Test
+  void exportIsOrderedByValueTest() throws IOException {
+    var text = directory.resolve("results.txt");
+    var expected = new StringBuilder();
+    try (var store = ResultStore.create(directory.resolve("1.store"), 1L, new Task.Range(0, 999))) {
+      for (var i = 999; i >= 0; i--) {
+        store.put(new Response(i, Response.JOB_DONE, "réponse " + i));
+      }
+      for (var i = 0; i < 1000; i++) {
+        expected.append(new Response(i, Response.JOB_DONE, "réponse " + i));
+      }
+      assertTrue(store.isComplete());
+      store.exportText(text);
+    }
+    assertEquals(expected.toString(), Files.readString(text, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void replacedResponseIsCountedOnceTest() throws IOException {
+    try (var store = ResultStore.create(directory.resolve("1.store"), 1L, new Task.Range(0, 1))) {
+      store.put(new Response(0, Response.JOB_TIMEOUT, ""));
+      store.put(new Response(0, Response.JOB_DONE, "zéro"));
+      assertEquals(1, store.count());
+      assertFalse(store.isComplete());
+      assertEquals(Optional.of(new Response(0, Response.JOB_DONE, "zéro")), store.get(0));
+    }
+  }
+
+  @Test
+  void reopenedStoreKeepsItsResponsesTest() throws IOException {
+    var path = directory.resolve("1.store");
+    try (var store = ResultStore.create(path, 42L, new Task.Range(5, 15))) {
+      store.put(new Response(15, Response.JOB_DONE, "quinze"));
+      store.put(new Response(5, Response.JOB_DONE, "cinq"));
+    }
+    try (var store = ResultStore.open(path)) {
+      assertEquals(42L, store.requestId());
+      assertEquals(new Task.Range(5, 15), store.range());
+      assertEquals(2, store.count());
+      assertEquals(Optional.of(new Response(5, Response.JOB_DONE, "cinq")), store.get(5));
+      assertEquals(Optional.of(new Response(15, Response.JOB_DONE, "quinze")), store.get(15));
+    }
+  }
+
+  @Test
+  void notAStoreIsRejectedTest() throws IOException {
+    var path = directory.resolve("results.txt");
+    Files.writeString(path, "not a store");
+    assertThrows(IOException.class, () -> ResultStore.open(path));
+  }
+
+  @Test
+  void tooLargeRangeIsRejectedTest() {
+    var path = directory.resolve("1.store");
+    assertThrows(IOException.class, () -> ResultStore.create(path, 1L, new Task.Range(0, 1L << 40)));
+    assertThrows(IOException.class, () -> ResultStore.create(path, 1L, new Task.Range(0, Long.MAX_VALUE)));
+    assertFalse(Files.exists(path));
+  }
+}
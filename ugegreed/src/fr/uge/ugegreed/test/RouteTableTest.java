@@ -0,0 +1,225 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.Application;
+import fr.uge.ugegreed.ApplicationContext;
+import fr.uge.ugegreed.RouteTable;
+import fr.uge.ugegreed.records.Id;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteTableTest {
+  private static final Id SELF = id(7777);
+  private static final List<Id> IDS = List.of(id(7778), id(7779), id(7780), id(7781), id(7782), id(7783), id(7784));
+
+  private static Selector selector;
+  private static SocketChannel channel;
+  private static ApplicationContext context;
+
+  private static Id id(int port) {
+    return new Id(new InetSocketAddress("127.0.0.1", port));
+  }
+
+  // the route table only keeps the contexts, a single one is enough, its constructor is only used by the application
+  @BeforeAll
+  static void createContext() throws IOException, ReflectiveOperationException {
+    selector = Selector.open();
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    var key = channel.register(selector, 0);
+    var constructor = ApplicationContext.class.getDeclaredConstructor(Application.class, SelectionKey.class);
+    constructor.setAccessible(true);
+    context = constructor.newInstance(new Application(0), key);
+  }
+
+  @AfterAll
+  static void closeContext() throws IOException {
+    channel.close();
+    selector.close();
+  }
+
+  /**
+   * The route table recomputed the brute-force way : the routes of every machine, and the mother.
+   */
+  private static final class Model {
+    private final HashMap<Id, Id> routes = new HashMap<>();
+    private Id mother = SELF;
+
+    private Model() {
+      routes.put(SELF, SELF);
+    }
+
+    private Set<Id> neighbours() {
+      var neighbours = new HashSet<>(routes.values());
+      neighbours.remove(SELF);
+      return neighbours;
+    }
+
+    private Set<Id> daughters() {
+      var daughters = neighbours();
+      daughters.remove(mother);
+      return daughters;
+    }
+
+    private void findAndReplace(Id toFind, Id replacement) {
+      routes.replaceAll((destination, route) -> route.equals(toFind) ? replacement : route);
+    }
+  }
+
+  private final RouteTable routeTable = new RouteTable(SELF);
+  private final Model model = new Model();
+  // read once, the views follow the changes of the route table
+  private final Set<Id> neighbours = routeTable.getNeighbours();
+  private final Set<Id> daughters = routeTable.getDaughters();
+
+  private void assertSameViews() {
+    assertEquals(model.routes.keySet(), Set.copyOf(routeTable.getAllId()));
+    assertEquals(model.neighbours(), neighbours);
+    assertEquals(model.daughters(), daughters);
+    assertEquals(model.neighbours(), routeTable.getNeighbours());
+    assertEquals(model.daughters(), routeTable.getDaughters());
+    assertEquals(model.mother, routeTable.getMother());
+    var forDisconnection = routeTable.daughtersForDisconnection();
+    assertEquals(SELF, forDisconnection.get(0));
+    assertEquals(model.daughters(), Set.copyOf(forDisconnection.subList(1, forDisconnection.size())));
+    assertEquals(model.daughters().size(), forDisconnection.size() - 1);
+    for (var id : IDS) {
+      assertEquals(model.routes.containsKey(id), routeTable.contains(id));
+      assertEquals(model.routes.containsKey(id), routeTable.getContext(id).isPresent());
+    }
+  }
+
+  private void add(Id id, Id route) {
+    routeTable.add(id, route, context);
+    model.routes.put(id, route);
+    assertSameViews();
+  }
+
+  private void remove(Id id) {
+    routeTable.remove(id);
+    model.routes.remove(id);
+    assertSameViews();
+  }
+
+  private void findAndReplace(Id toFind, Id replacement) {
+    routeTable.findAndReplace(toFind, replacement);
+    model.findAndReplace(toFind, replacement);
+    assertSameViews();
+  }
+
+  private void changeMother(Id mother) {
+    routeTable.changeMother(mother);
+    model.mother = mother;
+    assertSameViews();
+  }
+
+  @Test
+  void viewsAreReadOnlyTest() {
+    add(IDS.get(0), IDS.get(0));
+    assertThrows(UnsupportedOperationException.class, () -> neighbours.add(IDS.get(1)));
+    assertThrows(UnsupportedOperationException.class, () -> daughters.remove(IDS.get(0)));
+  }
+
+  @Test
+  void rerouteTest() {
+    var a = IDS.get(0);
+    var b = IDS.get(1);
+    var c = IDS.get(2);
+    add(a, a);
+    add(b, b);
+    add(c, a);
+    add(c, b); // c is now reached through b, a still reaches itself
+    add(a, b); // nothing is reached through a anymore
+    assertFalse(neighbours.contains(a));
+    remove(c);
+    remove(a);
+    remove(b);
+    assertTrue(neighbours.isEmpty());
+  }
+
+  @Test
+  void findAndReplaceTest() {
+    var a = IDS.get(0);
+    var b = IDS.get(1);
+    var c = IDS.get(2);
+    var d = IDS.get(3);
+    add(a, a);
+    add(b, b);
+    add(c, a);
+    add(d, a);
+    findAndReplace(a, b);
+    findAndReplace(b, b);
+    findAndReplace(c, a); // not a route
+    changeMother(b);
+    findAndReplace(b, SELF);
+  }
+
+  @Test
+  void changeMotherTest() {
+    var mother = IDS.get(0);
+    var daughter = IDS.get(1);
+    changeMother(mother); // the mother is known before its route, as when the application starts
+    add(mother, mother);
+    add(daughter, daughter);
+    add(IDS.get(2), mother);
+    changeMother(daughter); // the old mother becomes a daughter
+    changeMother(IDS.get(3)); // not a route yet
+    add(IDS.get(3), IDS.get(3));
+  }
+
+  @Test
+  void pleaseReconnectTest() {
+    var oldMother = IDS.get(0);
+    var newMother = IDS.get(1);
+    var daughter = IDS.get(2);
+    changeMother(oldMother);
+    add(oldMother, oldMother);
+    add(newMother, oldMother);
+    add(IDS.get(3), oldMother);
+    add(daughter, daughter);
+    // connectToNewMother adds the new mother, then the old mother is removed and replaced
+    add(newMother, newMother);
+    remove(oldMother);
+    changeMother(newMother);
+    // the machines behind the old mother are reached through the new one
+    findAndReplace(oldMother, newMother);
+    assertEquals(Set.of(daughter), daughters);
+  }
+
+  @Test
+  void randomChangesTest() {
+    var random = new Random(0);
+    var ids = new ArrayList<>(IDS);
+    ids.add(SELF);
+    for (var i = 0; i < 10_000; i++) {
+      var id = IDS.get(random.nextInt(IDS.size()));
+      var other = ids.get(random.nextInt(ids.size()));
+      switch (random.nextInt(5)) {
+        case 0, 1 -> add(id, random.nextBoolean() ? id : other);
+        case 2 -> remove(id);
+        case 3 -> findAndReplace(id, other);
+        default -> {
+          if (random.nextInt(4) == 0) { // the PleaseReconnect sequence
+            var oldMother = routeTable.getMother();
+            if (!oldMother.equals(SELF)) {
+              remove(oldMother);
+            }
+          }
+          changeMother(other);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,325 @@
+package fr.uge.ugegreed.test;
+
+import fr.uge.ugegreed.RouteTable;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.works.JarCache;
+import fr.uge.ugegreed.works.JarDistributor;
+import fr.uge.ugegreed.works.ResponseCollector;
+import fr.uge.ugegreed.works.Scheduler;
+import fr.uge.ugegreed.works.Worker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchedulerTest {
+  private static final Id ROOT = new Id(new InetSocketAddress("127.0.0.1", 7777));
+  private static final Id NODE1 = new Id(new InetSocketAddress("127.0.0.1", 7778));
+  private static final Id NODE2 = new Id(new InetSocketAddress("127.0.0.1", 7779));
+  private static final long REQUEST_ID = 1L;
+
+  /**
+   * Route table of the root, whose packets are kept instead of being sent.
+   */
+  private static final class StubRouteTable extends RouteTable {
+    private final LinkedHashSet<Id> ids = new LinkedHashSet<>(List.of(ROOT, NODE1, NODE2));
+    private final ArrayList<Packet> sent = new ArrayList<>();
+
+    private StubRouteTable() {
+      super(ROOT);
+    }
+
+    @Override
+    public List<Id> getAllId() {
+      return List.copyOf(ids);
+    }
+
+    @Override
+    public boolean contains(Id id) {
+      return ids.contains(id);
+    }
+
+    @Override
+    public void sendTo(Packet packet, Id destination) {
+      sent.add(packet);
+    }
+  }
+
+  /**
+   * Keeps the assignments journaled by the scheduler, those of the root included.
+   */
+  private static final class RecordingCollector extends ResponseCollector {
+    private final ArrayList<Scheduler.Share> assignments = new ArrayList<>();
+
+    @Override
+    public void recordAssignment(long requestId, Id id, Task.Range range) {
+      assignments.add(new Scheduler.Share(id, range));
+    }
+  }
+
+  private Path directory;
+  private StubRouteTable routeTable;
+  private RecordingCollector collector;
+  private Worker worker;
+  private long rootCapacity; // the share of the root in the first wave
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("scheduler");
+    routeTable = new StubRouteTable();
+    collector = new RecordingCollector();
+    var jarCache = new JarCache(directory);
+    worker = new Worker(() -> {}, jarCache, new JarDistributor(jarCache, () -> {}), (packet, table) -> {});
+    rootCapacity = Math.max(1, worker.capacity());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    collector.close();
+    try (var paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  // the first wave is split between the root, and the nodes advertising 10 values each
+  private Scheduler start(Task.Range range, long stallDelayMs) {
+    var scheduler = new Scheduler(worker, collector, () -> {}, stallDelayMs);
+    var task = new Task(new Task.Checker(directory.resolve("missing.jar").toString(), "Missing"), range,
+            directory.resolve("results.txt"), 10);
+    scheduler.start(REQUEST_ID, task, List.of(range), routeTable);
+    scheduler.onAvailability(new Packet.Work.WorkAvailability(NODE1, ROOT, REQUEST_ID, 10), routeTable);
+    scheduler.onAvailability(new Packet.Work.WorkAvailability(NODE2, ROOT, REQUEST_ID, 10), routeTable);
+    return scheduler;
+  }
+
+  // the range of the last values given to the application
+  private Task.Range lastAssignmentOf(Id id) {
+    for (var i = collector.assignments.size() - 1; i >= 0; i--) {
+      var share = collector.assignments.get(i);
+      if (share.id().equals(id)) {
+        return share.range();
+      }
+    }
+    throw new AssertionError("nothing assigned to " + id);
+  }
+
+  // sends the responses of the values from the application, returns the values kept by the scheduler
+  private List<Long> respond(Scheduler scheduler, Id id, Task.Range range) {
+    var accepted = new ArrayList<Long>();
+    for (var from = range.inf(); from <= range.sup(); from += Packet.Work.WorkResponseBatch.MAX_RESPONSES) {
+      var responses = new ArrayList<Response>();
+      for (var value = from; value <= Math.min(range.sup(), from + Packet.Work.WorkResponseBatch.MAX_RESPONSES - 1); value++) {
+        responses.add(new Response(value, Response.JOB_DONE, "ok"));
+      }
+      scheduler.accept(new Packet.Work.WorkResponseBatch(id, ROOT, REQUEST_ID, responses), routeTable)
+              .ifPresent(batch -> batch.responses().forEach(response -> accepted.add(response.value())));
+    }
+    return accepted;
+  }
+
+  private static List<Long> values(Task.Range range) {
+    var values = new ArrayList<Long>();
+    for (var value = range.inf(); value <= range.sup(); value++) {
+      values.add(value);
+    }
+    return values;
+  }
+
+  private boolean pull(Scheduler scheduler, Id id) {
+    var assigned = collector.assignments.size();
+    scheduler.onAvailability(new Packet.Work.WorkAvailability(id, ROOT, REQUEST_ID, 10), routeTable);
+    return collector.assignments.size() > assigned;
+  }
+
+  private Set<Id> finishedFor() {
+    var ids = new LinkedHashSet<Id>();
+    for (var packet : routeTable.sent) {
+      if (packet instanceof Packet.Work.WorkRequest request && request.nbComputation() == 0) {
+        ids.add(request.idDest());
+      }
+    }
+    return ids;
+  }
+
+  private static Map<Id, Long> capacities(long root, long node1, long node2) {
+    var capacities = new LinkedHashMap<Id, Long>();
+    capacities.put(ROOT, root);
+    capacities.put(NODE1, node1);
+    capacities.put(NODE2, node2);
+    return capacities;
+  }
+
+  @Test
+  void sharesAreProportionalToTheCapacitiesTest() {
+    var shares = Scheduler.split(new Task.Range(0, 999), capacities(1, 2, 2));
+    assertEquals(List.of(
+            new Scheduler.Share(ROOT, new Task.Range(0, 199)),
+            new Scheduler.Share(NODE1, new Task.Range(200, 599)),
+            new Scheduler.Share(NODE2, new Task.Range(600, 999))), shares);
+  }
+
+  @Test
+  void sharesCoverTheWholeRangeTest() {
+    var shares = Scheduler.split(new Task.Range(10, 20), capacities(3, 5, 7));
+    assertEquals(10, shares.get(0).range().inf());
+    assertEquals(20, shares.get(shares.size() - 1).range().sup());
+    for (var i = 1; i < shares.size(); i++) {
+      assertEquals(shares.get(i - 1).range().sup() + 1, shares.get(i).range().inf());
+    }
+  }
+
+  @Test
+  void applicationWithoutCapacityGetsNothingTest() {
+    var shares = Scheduler.split(new Task.Range(0, 9), capacities(1, 0, 1));
+    assertEquals(List.of(
+            new Scheduler.Share(ROOT, new Task.Range(0, 4)),
+            new Scheduler.Share(NODE2, new Task.Range(5, 9))), shares);
+  }
+
+  @Test
+  void loneApplicationTakesEverythingTest() {
+    var shares = Scheduler.split(new Task.Range(0, 9), Map.of(ROOT, 4L));
+    assertEquals(List.of(new Scheduler.Share(ROOT, new Task.Range(0, 9))), shares);
+  }
+
+  @Test
+  void moreApplicationsThanValuesTest() {
+    var shares = Scheduler.split(new Task.Range(5, 5), capacities(1, 1, 1));
+    assertEquals(List.of(new Scheduler.Share(NODE2, new Task.Range(5, 5))), shares);
+  }
+
+  @Test
+  void hugeRangeDoesNotOverflowTest() {
+    var shares = Scheduler.split(new Task.Range(0, Long.MAX_VALUE), capacities(Long.MAX_VALUE, Long.MAX_VALUE, 1));
+    assertEquals(0, shares.get(0).range().inf());
+    assertEquals(Long.MAX_VALUE, shares.get(shares.size() - 1).range().sup());
+  }
+
+  @Test
+  void noCapacityIsRejectedTest() {
+    assertThrows(IllegalArgumentException.class, () -> Scheduler.split(new Task.Range(0, 9), capacities(0, 0, 0)));
+  }
+
+  @Test
+  void firstChunkIsSizedByTheCapacityTest() {
+    assertEquals(400, Scheduler.chunkSize(null, 400, 1_000_000, 2));
+    assertEquals(16, Scheduler.chunkSize(null, 4, 1_000_000, 2));
+  }
+
+  @Test
+  void chunkIsSizedByTheThroughputTest() {
+    assertEquals(5_000, Scheduler.chunkSize(5_000.0, 4, 1_000_000, 2));
+    assertTrue(Scheduler.chunkSize(50_000.0, 4, 1_000_000, 2) > Scheduler.chunkSize(5_000.0, 4, 1_000_000, 2));
+  }
+
+  @Test
+  void chunkShrinksAtTheEndOfTheRangeTest() {
+    assertEquals(251, Scheduler.chunkSize(5_000.0, 4, 1_000, 2));
+    assertEquals(16, Scheduler.chunkSize(5_000.0, 4, 100, 10));
+    assertEquals(3, Scheduler.chunkSize(5_000.0, 4, 3, 10));
+  }
+
+  @Test
+  void chunkOfHugeCapacityIsBoundedTest() {
+    assertEquals(1 << 20, Scheduler.chunkSize(null, Long.MAX_VALUE, Long.MAX_VALUE, 1));
+    assertEquals(1 << 20, Scheduler.chunkSize(Double.MAX_VALUE, 4, Long.MAX_VALUE, 1));
+  }
+
+  @Test
+  void firstWaveIsSplitAndTheRestIsPulledTest() {
+    var scheduler = start(new Task.Range(0, 99_999), 60_000);
+    var c = rootCapacity;
+    assertEquals(List.of(
+            new Scheduler.Share(ROOT, new Task.Range(0, c - 1)),
+            new Scheduler.Share(NODE1, new Task.Range(c, c + 9)),
+            new Scheduler.Share(NODE2, new Task.Range(c + 10, c + 19))), collector.assignments);
+
+    assertEquals(values(new Task.Range(c, c + 9)), respond(scheduler, NODE1, new Task.Range(c, c + 9)));
+    assertEquals(List.of(), respond(scheduler, NODE1, new Task.Range(c, c + 9)), "already received");
+    assertEquals(List.of(), respond(scheduler, NODE2, new Task.Range(c, c + 4)), "not assigned to NODE2");
+
+    assertTrue(pull(scheduler, NODE1));
+    var next = lastAssignmentOf(NODE1);
+    assertEquals(c + 20, next.inf(), "the next values not assigned yet");
+    assertTrue(next.sup() >= next.inf());
+  }
+
+  @Test
+  void responsesOfStolenValuesAreDroppedTest() {
+    var c = rootCapacity;
+    var scheduler = start(new Task.Range(0, c + 19), 60_000);
+    respond(scheduler, NODE1, lastAssignmentOf(NODE1));
+    // every value is assigned, NODE1 steals the second half of the largest assignment left
+    var straggler = c > 10 ? ROOT : NODE2;
+    var share = lastAssignmentOf(straggler);
+    assertTrue(pull(scheduler, NODE1));
+    var from = share.inf() + (share.sup() - share.inf() + 1) / 2;
+    assertEquals(new Task.Range(from, share.sup()), lastAssignmentOf(NODE1));
+
+    assertEquals(values(new Task.Range(share.inf(), from - 1)), respond(scheduler, straggler, share));
+    assertEquals(values(new Task.Range(from, share.sup())), respond(scheduler, NODE1, lastAssignmentOf(NODE1)));
+  }
+
+  @Test
+  void requestFinishesOnceEveryValueIsReceivedTest() {
+    var c = rootCapacity;
+    var scheduler = start(new Task.Range(0, c + 19), 60_000);
+    respond(scheduler, ROOT, lastAssignmentOf(ROOT));
+    respond(scheduler, NODE1, lastAssignmentOf(NODE1));
+    assertEquals(Set.of(), finishedFor());
+    respond(scheduler, NODE2, lastAssignmentOf(NODE2));
+    assertEquals(Set.of(NODE1, NODE2), finishedFor());
+    // the late responses of a finished request are not saved again
+    assertEquals(List.of(), respond(scheduler, NODE2, new Task.Range(c + 10, c + 19)));
+    assertFalse(pull(scheduler, NODE1));
+  }
+
+  @Test
+  void valuesOfAnApplicationWhichLeftAreAssignedAgainTest() {
+    var c = rootCapacity;
+    var scheduler = start(new Task.Range(0, c + 19), 60_000);
+    respond(scheduler, ROOT, lastAssignmentOf(ROOT));
+    respond(scheduler, NODE1, lastAssignmentOf(NODE1));
+    routeTable.ids.remove(NODE2);
+    scheduler.assignExpiredRequests(routeTable);
+    assertTrue(pull(scheduler, NODE1));
+    assertEquals(new Task.Range(c + 10, c + 19), lastAssignmentOf(NODE1));
+    assertEquals(List.of(), respond(scheduler, NODE2, new Task.Range(c + 10, c + 19)), "taken back from NODE2");
+    assertEquals(values(new Task.Range(c + 10, c + 19)), respond(scheduler, NODE1, lastAssignmentOf(NODE1)));
+    assertEquals(Set.of(NODE1), finishedFor());
+  }
+
+  @Test
+  void stalledStragglerIsAssignedToAnIdleThiefTest() throws InterruptedException {
+    var c = rootCapacity;
+    var scheduler = start(new Task.Range(0, c + 19), 100);
+    respond(scheduler, ROOT, lastAssignmentOf(ROOT));
+    respond(scheduler, NODE2, lastAssignmentOf(NODE2));
+    // NODE2 steals from NODE1, which never answers, until there is nothing left to steal
+    while (pull(scheduler, NODE2)) {
+      respond(scheduler, NODE2, lastAssignmentOf(NODE2));
+    }
+    var left = collector.assignments.size();
+    Thread.sleep(200);
+    scheduler.assignExpiredRequests(routeTable);
+    assertEquals(left + 1, collector.assignments.size(), "the idle thief is given the values of the straggler");
+    var reassigned = lastAssignmentOf(NODE2);
+    assertEquals(c, reassigned.inf());
+    assertEquals(values(reassigned), respond(scheduler, NODE2, reassigned));
+    assertEquals(Set.of(NODE1, NODE2), finishedFor());
+  }
+}
@@ -0,0 +1,126 @@
+package fr.uge.ugegreed.works;
+
+/**
+ * Estimates the number of values a worker can still compute per second,
+ * advertised to the other applications in the WorkAvailability packets.<br>
+ * The throughput comes from the processors of the machine and an EWMA of the time spent on each value
+ * (all cores together), measured on the last batches computed. It decreases with the values already assigned
+ * and not computed yet, and a worker running as many assignments as it has threads, or with more than
+ * MAX_BACKLOG_SECONDS of work waiting, is saturated : its capacity is 0.<br>
+ * This class is thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class CapacityEstimator {
+    private static final long DEFAULT_LATENCY_NANOS = 10_000_000; // 10 ms per value until something is measured
+    private static final double LATENCY_WEIGHT = 0.2; // weight of the last measure in the latency
+    private static final double MAX_BACKLOG_SECONDS = 2;
+
+    private final Object lock = new Object();
+    private final int processors;
+    private final int maxAssignments;
+    private double latencyNanos = DEFAULT_LATENCY_NANOS;
+    private int runningAssignments;
+    private long queuedValues;
+
+    /**
+     * CapacityEstimator constructor.
+     *
+     * @param processors Int, the number of processors computing the values.
+     * @param maxAssignments Int, the number of assignments computed at once, the others wait in a queue.
+     */
+    public CapacityEstimator(int processors, int maxAssignments) {
+        if (processors <= 0 || maxAssignments <= 0) {
+            throw new IllegalArgumentException("processors and assignments should be positive");
+        }
+        this.processors = processors;
+        this.maxAssignments = maxAssignments;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        var sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Records an assignment given to the worker.
+     *
+     * @param nbValues Long, the number of values of the assignment.
+     */
+    public void onAssignmentStarted(long nbValues) {
+        synchronized (lock) {
+            runningAssignments++;
+            queuedValues = saturatedAdd(queuedValues, nbValues);
+        }
+    }
+
+    /**
+     * Records a batch of values computed.
+     *
+     * @param nbValues Int, the number of values of the batch, positive.
+     * @param elapsedNanos Long, the time spent computing the batch.
+     */
+    public void onValuesComputed(int nbValues, long elapsedNanos) {
+        var measure = (double) Math.max(1, elapsedNanos) * processors / nbValues;
+        synchronized (lock) {
+            latencyNanos = (1 - LATENCY_WEIGHT) * latencyNanos + LATENCY_WEIGHT * measure;
+            queuedValues = Math.max(0, queuedValues - nbValues);
+        }
+    }
+
+    /**
+     * Records values which won't be computed (timed out or failed).
+     *
+     * @param nbValues Long, the number of values.
+     */
+    public void onValuesDropped(long nbValues) {
+        synchronized (lock) {
+            queuedValues = Math.max(0, queuedValues - nbValues);
+        }
+    }
+
+    /**
+     * Records the end of an assignment.
+     */
+    public void onAssignmentFinished() {
+        synchronized (lock) {
+            runningAssignments = Math.max(0, runningAssignments - 1);
+        }
+    }
+
+    /**
+     * Returns the time spent on a value by one processor, on average.
+     *
+     * @return Double, the latency in nanoseconds.
+     */
+    public double latencyNanos() {
+        synchronized (lock) {
+            return latencyNanos;
+        }
+    }
+
+    /**
+     * Returns the number of values the worker can still compute in a second.
+     *
+     * @return Long, the capacity, 0 if the worker is saturated.
+     */
+    public long capacity() {
+        synchronized (lock) {
+            var throughput = processors * 1e9 / latencyNanos;
+            var maxBacklog = throughput * MAX_BACKLOG_SECONDS;
+            if (runningAssignments >= maxAssignments || queuedValues >= maxBacklog) {
+                return 0;
+            }
+            // the more values are waiting, the less is advertised
+            return Math.max(1, (long) (throughput * (1 - queuedValues / maxBacklog)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "assignments : " + runningAssignments + "/" + maxAssignments + ", queued values : " + queuedValues
+                    + ", latency : " + (long) latencyNanos + " ns";
+        }
+    }
+}
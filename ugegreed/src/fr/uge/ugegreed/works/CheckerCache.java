@@ -0,0 +1,199 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.Checker;
+import fr.uge.ugegreed.records.Task;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the last used checkers loaded, so repeated assignments of the same job
+ * don't download, link and instantiate the checker again.<br>
+ * The cache is bounded : the least recently used checker is evicted and its class loader closed
+ * once no computation uses it anymore.<br>
+ * This class is thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class CheckerCache implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(CheckerCache.class.getName());
+
+  /**
+   * A loaded checker and the number of computations using it.
+   */
+  private static final class Entry {
+    private final Client.LoadedChecker loadedChecker;
+    private int users;
+    private boolean evicted;
+
+    private Entry(Client.LoadedChecker loadedChecker) {
+      this.loadedChecker = loadedChecker;
+    }
+  }
+
+  /**
+   * A checker borrowed from the cache.<br>
+   * The lease must be closed when the computation is done, so an evicted checker can be unloaded.
+   */
+  public final class Lease implements AutoCloseable {
+    private final Entry entry;
+    private boolean closed;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public Checker checker() {
+      return entry.loadedChecker.checker();
+    }
+
+    @Override
+    public void close() {
+      synchronized (lock) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        entry.users--;
+        unloadIfUnused(entry);
+      }
+    }
+  }
+
+  private final Object lock = new Object();
+  private final JarCache jarCache;
+  private final int capacity;
+  private final LinkedHashMap<Task.Checker, Entry> entries;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * CheckerCache constructor.
+   *
+   * @param capacity Int, the maximum number of checkers kept loaded.
+   * @param jarCache JarCache, where the jars downloaded from an HTTP server are stored.
+   */
+  public CheckerCache(int capacity, JarCache jarCache) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity should be positive");
+    }
+    this.jarCache = Objects.requireNonNull(jarCache);
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true); // access order, the eldest is the least recently used
+  }
+
+  private static void unloadIfUnused(Entry entry) {
+    if (entry.evicted && entry.users == 0) {
+      entry.loadedChecker.close();
+    }
+  }
+
+  // the jar is first looked up in the jar cache, then as an url and finally as a path on the disk
+  private Optional<Client.LoadedChecker> load(Task.Checker key) throws InterruptedException {
+    var cachedJar = jarCache.fetch(key.javaUrl());
+    if (cachedJar.isPresent()) {
+      var loaded = Client.loadCheckerFromDisk(cachedJar.orElseThrow(), key.classPath());
+      if (loaded.isPresent()) {
+        return loaded;
+      }
+    }
+    return Client.loadCheckerFromHTTP(key.javaUrl(), key.classPath())
+            .or(() -> Client.loadCheckerFromDisk(Path.of(key.javaUrl()), key.classPath()));
+  }
+
+  private void evictIfFull() {
+    var iterator = entries.entrySet().iterator();
+    while (entries.size() > capacity && iterator.hasNext()) {
+      var eldestEntry = iterator.next();
+      var eldest = eldestEntry.getValue();
+      iterator.remove();
+      logger.info("Checker evicted from the cache : " + eldestEntry.getKey());
+      eldest.evicted = true;
+      evictions++;
+      unloadIfUnused(eldest);
+    }
+  }
+
+  /**
+   * Borrows the checker of the given jar and class, loading it if it is not in the cache.<br>
+   * The loading is done without holding the lock of the cache.
+   *
+   * @param key Task.Checker, the jar url and the fully qualified name of the checker.
+   * @return the lease of the checker, or an empty optional if the checker couldn't be loaded.
+   * @throws InterruptedException If the thread was interrupted while downloading the jar.
+   */
+  public Optional<Lease> acquire(Task.Checker key) throws InterruptedException {
+    Objects.requireNonNull(key);
+    synchronized (lock) {
+      var entry = entries.get(key);
+      if (entry != null) {
+        hits++;
+        entry.users++;
+        return Optional.of(new Lease(entry));
+      }
+      misses++;
+    }
+
+    var loaded = load(key);
+    if (loaded.isEmpty()) {
+      return Optional.empty();
+    }
+    synchronized (lock) {
+      var entry = entries.get(key);
+      if (entry != null) { // loaded concurrently by another computation, we keep the first one
+        loaded.orElseThrow().close();
+      } else {
+        entry = new Entry(loaded.orElseThrow());
+        entries.put(key, entry);
+      }
+      entry.users++;
+      var lease = new Lease(entry);
+      evictIfFull();
+      return Optional.of(lease);
+    }
+  }
+
+  public long hits() {
+    synchronized (lock) {
+      return hits;
+    }
+  }
+
+  public long misses() {
+    synchronized (lock) {
+      return misses;
+    }
+  }
+
+  public long evictions() {
+    synchronized (lock) {
+      return evictions;
+    }
+  }
+
+  /**
+   * Evicts every checker, their class loaders are closed as soon as they are not used anymore.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      for (var entry : entries.values()) {
+        entry.evicted = true;
+        unloadIfUnused(entry);
+      }
+      entries.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    synchronized (lock) {
+      return "checkers loaded : " + entries.size() + "/" + capacity
+              + ", hits : " + hits + ", misses : " + misses + ", evictions : " + evictions;
+    }
+  }
+}
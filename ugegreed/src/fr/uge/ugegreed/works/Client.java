@@ -1,11 +1,14 @@
 package fr.uge.ugegreed.works;
 
 import fr.uge.ugegreed.Checker;
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.logging.Logger;
@@ -14,18 +17,44 @@ public class Client {
     private static final Logger logger = Logger.getLogger(Client.class.getName());
 
 
+    /**
+     * A checker with the class loader it was loaded from.<br>
+     * Closing it closes the class loader, the checker must not be used afterwards.
+     *
+     * @param checker Checker, the instance of the checker.
+     * @param classLoader URLClassLoader, the class loader of the checker.
+     */
+    public record LoadedChecker(Checker checker, URLClassLoader classLoader) implements Closeable {
+        public LoadedChecker {
+            Objects.requireNonNull(checker);
+            Objects.requireNonNull(classLoader);
+        }
+
+        @Override
+        public void close() {
+            closeSilently(classLoader);
+        }
+    }
+
+    private static void closeSilently(URLClassLoader classLoader) {
+        try {
+            classLoader.close();
+        } catch (IOException e) {
+            logger.info("Failed to close the class loader of " + Arrays.toString(classLoader.getURLs()));
+        }
+    }
+
     /**
      * This method downloads the jar file from the given url
      * and creates an instance of the class assuming it implements the
      * fr.uge.ugegreed.Checker interface.
-     * This method can both be used retrieve the class from a local jar file
-     * or from a jar file provided by an HTTP server. The behavior depends
-     * on the url parameter.
+     * The class loader is returned with the instance, so it can be closed
+     * when the checker is not needed anymore.
      * @param url the url of the jar file
      * @param className the fully qualified name of the class to load
-     * @return an instance of the class if it exists
+     * @return an instance of the class and its class loader if it exists
      */
-    public static Optional<Checker> retrieveCheckerFromURL(URL url, String className) {
+    public static Optional<LoadedChecker> loadCheckerFromURL(URL url, String className) {
         Objects.requireNonNull(url);
         Objects.requireNonNull(className);
         var urls = new URL[]{url};
@@ -34,39 +63,61 @@ public class Client {
             var clazz = Class.forName(className, true, urlClassLoader);
             var constructor = clazz.getDeclaredConstructor();
             var instance = constructor.newInstance();
-            return Optional.of((Checker) instance);
+            return Optional.of(new LoadedChecker((Checker) instance, urlClassLoader));
         } catch (ClassNotFoundException e) {
             logger.info("The class %s was not found in %s. The jarfile might not be present at the given URL.".formatted(className, url));
-            return Optional.empty();
-        } catch (NoSuchMethodException e) {
+        } catch (NoSuchMethodException | ClassCastException e) {
             logger.info("Class %s in jar %s cannot be cast to fr.uge.ugegreed.Checker".formatted(className, url));
-            return Optional.empty();
         } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
             logger.info("Failed to create an instance of %s".formatted(className));
-            return Optional.empty();
         }
+        closeSilently(urlClassLoader);
+        return Optional.empty();
     }
 
-    public static Optional<Checker> checkerFromDisk(Path jarPath, String className) {
+    /**
+     * This method downloads the jar file from the given url
+     * and creates an instance of the class assuming it implements the
+     * fr.uge.ugegreed.Checker interface.
+     * This method can both be used retrieve the class from a local jar file
+     * or from a jar file provided by an HTTP server. The behavior depends
+     * on the url parameter.
+     * @param url the url of the jar file
+     * @param className the fully qualified name of the class to load
+     * @return an instance of the class if it exists
+     */
+    public static Optional<Checker> retrieveCheckerFromURL(URL url, String className) {
+        return loadCheckerFromURL(url, className).map(LoadedChecker::checker);
+    }
+
+    public static Optional<LoadedChecker> loadCheckerFromDisk(Path jarPath, String className) {
         try {
             var url = jarPath.toUri().toURL();
-            return retrieveCheckerFromURL(url, className);
+            return loadCheckerFromURL(url, className);
         } catch (MalformedURLException e) {
             logger.info("URL is malformed");
             return Optional.empty();
         }
     }
 
-    public static Optional<Checker> checkerFromHTTP(String url, String className) {
+    public static Optional<LoadedChecker> loadCheckerFromHTTP(String url, String className) {
         try {
             var jarURL = new URL("jar", "", url + "!/");
-            return retrieveCheckerFromURL(jarURL, className);
+            return loadCheckerFromURL(jarURL, className);
         } catch (MalformedURLException e) {
             logger.info("URL is malformed");
             return Optional.empty();
         }
     }
 
+    public static Optional<Checker> checkerFromDisk(Path jarPath, String className) {
+        return loadCheckerFromDisk(jarPath, className).map(LoadedChecker::checker);
+    }
+
+    public static Optional<Checker> checkerFromHTTP(String url, String className) {
+        return loadCheckerFromHTTP(url, className).map(LoadedChecker::checker);
+    }
+
 //    public static void main(String[] args) throws InterruptedException {
 //        var checker = checkerFromHTTP("http://www-igm.univ-mlv.fr/~carayol/Factorizer.jar","fr.uge.factors.Factorizer").orElseThrow();
 //        System.out.println(checker.check(12L));
@@ -0,0 +1,266 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.records.Task;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Set of the values of a range which have received their response, compressed as a roaring bitmap.<br>
+ * The range is cut in chunks of 2^16 values, the chunk of a value is found by the high bits of its offset in the range,
+ * and each chunk has its own container, chosen by the number of values it holds :
+ * a sorted array of the low 16 bits while the chunk is sparse, a bitmap of 2^16 bits once it is dense,
+ * and a shared marker once every value of the chunk is there.
+ * The chunks without any value have no container, so a range of billions of values costs
+ * a few bytes per chunk once it is computed.<br>
+ * This class is not thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class CompletionBitmap {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_ARRAY_SIZE = 4096; // an array of more shorts would be larger than the bitmap
+
+    /**
+     * The values of a chunk, by their low 16 bits.
+     */
+    private sealed interface Container permits ArrayContainer, BitmapContainer, FullContainer {
+        boolean contains(int low);
+
+        /**
+         * Adds the value to the container.
+         *
+         * @return the container which holds the value, this one or a denser one, or null if the value was already there.
+         */
+        Container add(int low);
+
+        int cardinality();
+    }
+
+    private static final class ArrayContainer implements Container {
+        private short[] values = new short[4]; // sorted, unsigned
+        private int size;
+
+        @Override
+        public boolean contains(int low) {
+            return search(low) >= 0;
+        }
+
+        private int search(int low) {
+            var from = 0;
+            var to = size - 1;
+            while (from <= to) {
+                var middle = (from + to) >>> 1;
+                var value = Short.toUnsignedInt(values[middle]);
+                if (value < low) {
+                    from = middle + 1;
+                } else if (value > low) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(from + 1);
+        }
+
+        @Override
+        public Container add(int low) {
+            // the values usually come in order, they are appended
+            var index = size > 0 && Short.toUnsignedInt(values[size - 1]) < low ? -(size + 1) : search(low);
+            if (index >= 0) {
+                return null;
+            }
+            if (size == MAX_ARRAY_SIZE) {
+                return toBitmap().add(low);
+            }
+            var insertion = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, 2 * size));
+            }
+            System.arraycopy(values, insertion, values, insertion + 1, size - insertion);
+            values[insertion] = (short) low;
+            size++;
+            return this;
+        }
+
+        private BitmapContainer toBitmap() {
+            var bitmap = new BitmapContainer();
+            for (var i = 0; i < size; i++) {
+                bitmap.add(Short.toUnsignedInt(values[i]));
+            }
+            return bitmap;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[CHUNK_SIZE / Long.SIZE];
+        private int cardinality;
+
+        @Override
+        public boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container add(int low) {
+            var word = words[low >>> 6];
+            var bit = 1L << low;
+            if ((word & bit) != 0) {
+                return null;
+            }
+            words[low >>> 6] = word | bit;
+            cardinality++;
+            return cardinality == CHUNK_SIZE ? FullContainer.FULL : this;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+    }
+
+    private enum FullContainer implements Container {
+        FULL;
+
+        @Override
+        public boolean contains(int low) {
+            return true;
+        }
+
+        @Override
+        public Container add(int low) {
+            return null;
+        }
+
+        @Override
+        public int cardinality() {
+            return CHUNK_SIZE;
+        }
+    }
+
+    private final Task.Range range;
+    private final long size;
+    private final HashMap<Long, Container> containers = new HashMap<>();
+    private long cardinality;
+    // the container of the last value added, the values of a batch are usually in the same chunk
+    private long lastKey = -1;
+    private Container lastContainer;
+
+    /**
+     * CompletionBitmap constructor, no value of the range is there.
+     *
+     * @param range Range, the values tracked.
+     */
+    public CompletionBitmap(Task.Range range) {
+        this.range = Objects.requireNonNull(range);
+        var size = range.sup() - range.inf();
+        this.size = size == Long.MAX_VALUE ? size : size + 1; // saturated
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value Long, the value.
+     * @return True if the value is in the range and was not there yet, false if it is a duplicate or out of the range.
+     */
+    public boolean add(long value) {
+        if (value < range.inf() || value > range.sup()) {
+            return false;
+        }
+        var offset = value - range.inf();
+        var key = offset >>> CHUNK_BITS;
+        var container = key == lastKey ? lastContainer : containers.get(key);
+        var updated = container == null ? new ArrayContainer().add((int) offset & (CHUNK_SIZE - 1))
+                : container.add((int) offset & (CHUNK_SIZE - 1));
+        if (updated == null) {
+            return false;
+        }
+        if (updated != container) {
+            containers.put(key, updated);
+        }
+        lastKey = key;
+        lastContainer = updated;
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Adds every value of a sub-range, the chunks it covers whole are marked full at once.
+     *
+     * @param values Range, the values, in the range.
+     */
+    public void addRange(Task.Range values) {
+        if (values.inf() < range.inf() || values.sup() > range.sup()) {
+            throw new IllegalArgumentException(values + " is not in " + range);
+        }
+        var from = values.inf() - range.inf();
+        var to = values.sup() - range.inf();
+        for (var key = from >>> CHUNK_BITS; key <= to >>> CHUNK_BITS; key++) {
+            var chunkStart = key << CHUNK_BITS;
+            var first = Math.max(from, chunkStart);
+            var last = Math.min(to, chunkStart + CHUNK_SIZE - 1);
+            if (last - first + 1 == CHUNK_SIZE) {
+                var previous = containers.put(key, FullContainer.FULL);
+                cardinality += CHUNK_SIZE - (previous == null ? 0 : previous.cardinality());
+                lastKey = -1; // the cached container may be replaced
+                continue;
+            }
+            for (var offset = first; offset <= last; offset++) {
+                add(range.inf() + offset);
+            }
+        }
+    }
+
+    /**
+     * Tells if the value is there.
+     *
+     * @param value Long, the value.
+     * @return True if the value was added.
+     */
+    public boolean contains(long value) {
+        if (value < range.inf() || value > range.sup()) {
+            return false;
+        }
+        var offset = value - range.inf();
+        var container = containers.get(offset >>> CHUNK_BITS);
+        return container != null && container.contains((int) offset & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Returns the number of values there.
+     *
+     * @return Long, the number of values added.
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Tells if every value of the range is there.
+     *
+     * @return True if the range is covered.
+     */
+    public boolean isComplete() {
+        return cardinality == size;
+    }
+
+    /**
+     * Returns the part of the range covered.
+     *
+     * @return Double, between 0 and 1.
+     */
+    public double progress() {
+        return (double) cardinality / size;
+    }
+
+    @Override
+    public String toString() {
+        return "CompletionBitmap " + range + " : " + cardinality + "/" + size + " values in " + containers.size() + " chunks";
+    }
+}
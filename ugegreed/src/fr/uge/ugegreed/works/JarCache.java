@@ -0,0 +1,268 @@
+package fr.uge.ugegreed.works;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Node-local cache of the jars downloaded from an HTTP server.<br>
+ * A jar is stored once in the cache directory under the SHA-256 of its content,
+ * and a small properties file per url remembers the ETag and the hash of the last version downloaded.<br>
+ * A cached url is revalidated lazily : at most once every REVALIDATION_DELAY,
+ * with a conditional request, so an unchanged jar is never downloaded again.
+ * If the server can't be reached, the cached version is used.<br>
+ * A jar can also be received from another application of the network :
+ * it is as fresh as the copy of the sender for REVALIDATION_DELAY, then it is revalidated with its server
+ * like a downloaded one, so a stale or bad copy doesn't spread through the network forever.<br>
+ * This class is thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class JarCache {
+  public static final Path DEFAULT_DIRECTORY = Path.of("ugegreed-jar-cache");
+
+  private static final Logger logger = Logger.getLogger(JarCache.class.getName());
+  private static final Duration REVALIDATION_DELAY = Duration.ofMinutes(1);
+  private static final Duration HTTP_TIMEOUT = Duration.ofSeconds(30);
+  private static final String URL_KEY = "url";
+  private static final String ETAG_KEY = "etag";
+  private static final String HASH_KEY = "sha256";
+
+  private final Path directory;
+  private final HttpClient httpClient = HttpClient.newBuilder()
+          .followRedirects(HttpClient.Redirect.NORMAL)
+          .connectTimeout(HTTP_TIMEOUT)
+          .build();
+  private final ConcurrentHashMap<String, Object> urlLocks = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> lastValidations = new ConcurrentHashMap<>();
+  private final AtomicLong downloads = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+
+  /**
+   * JarCache constructor.
+   *
+   * @param directory Path, the directory where the jars are stored, created if needed.
+   */
+  public JarCache(Path directory) {
+    this.directory = Objects.requireNonNull(directory);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is available on every JVM", e);
+    }
+  }
+
+  private static String hexHash(byte[] bytes) {
+    return HexFormat.of().formatHex(sha256().digest(bytes));
+  }
+
+  private static Optional<URI> httpUri(String url) {
+    try {
+      var uri = new URI(url);
+      var scheme = uri.getScheme();
+      if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+        return Optional.empty();
+      }
+      return Optional.of(uri);
+    } catch (URISyntaxException e) {
+      return Optional.empty();
+    }
+  }
+
+  private Path metadataPath(String url) {
+    return directory.resolve(hexHash(url.getBytes(StandardCharsets.UTF_8)) + ".properties");
+  }
+
+  private Path jarPath(String contentHash) {
+    return directory.resolve(contentHash + ".jar");
+  }
+
+  private Optional<Properties> readMetadata(String url) {
+    var path = metadataPath(url);
+    if (!Files.exists(path)) {
+      return Optional.empty();
+    }
+    var metadata = new Properties();
+    try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      metadata.load(reader);
+    } catch (IOException e) {
+      logger.info("Unreadable cache metadata for " + url);
+      return Optional.empty();
+    }
+    if (!url.equals(metadata.getProperty(URL_KEY)) || metadata.getProperty(HASH_KEY) == null
+            || !Files.exists(jarPath(metadata.getProperty(HASH_KEY)))) {
+      return Optional.empty();
+    }
+    return Optional.of(metadata);
+  }
+
+  private void writeMetadata(String url, String etag, String contentHash) throws IOException {
+    var metadata = new Properties();
+    metadata.setProperty(URL_KEY, url);
+    metadata.setProperty(HASH_KEY, contentHash);
+    if (etag != null) {
+      metadata.setProperty(ETAG_KEY, etag);
+    }
+    var temporary = Files.createTempFile(directory, "metadata", ".tmp");
+    try (var writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      metadata.store(writer, null);
+    }
+    Files.move(temporary, metadataPath(url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // streams the body into the cache directory and returns the hash of its content
+  private String store(InputStream body) throws IOException {
+    var digest = sha256();
+    var temporary = Files.createTempFile(directory, "download", ".tmp");
+    try {
+      try (body; var output = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+        body.transferTo(output);
+      }
+      var contentHash = HexFormat.of().formatHex(digest.digest());
+      var target = jarPath(contentHash);
+      if (!Files.exists(target)) { // the same content may already be cached for another url
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+      }
+      return contentHash;
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private Optional<Path> download(URI uri, String url, Properties cached) throws IOException, InterruptedException {
+    var builder = HttpRequest.newBuilder(uri).timeout(HTTP_TIMEOUT).GET();
+    var etag = cached == null ? null : cached.getProperty(ETAG_KEY);
+    if (etag != null) {
+      builder.header("If-None-Match", etag);
+    }
+    revalidations.incrementAndGet();
+    var response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+    var status = response.statusCode();
+    if (status == 304 && cached != null) {
+      response.body().close();
+      return Optional.of(jarPath(cached.getProperty(HASH_KEY)));
+    }
+    if (status != 200) {
+      response.body().close();
+      logger.info("Server answered " + status + " for " + url);
+      return Optional.empty();
+    }
+    var contentHash = store(response.body());
+    downloads.incrementAndGet();
+    writeMetadata(url, response.headers().firstValue("ETag").orElse(null), contentHash);
+    return Optional.of(jarPath(contentHash));
+  }
+
+  /**
+   * Returns the local copy of the jar at the given url, downloading it if needed.<br>
+   * Only http and https urls are downloaded, other urls are only looked up in the cache.
+   *
+   * @param url String, the url of the jar.
+   * @return the path of the jar on the disk,
+   * or an empty optional if the jar is not cached and couldn't be downloaded.
+   * @throws InterruptedException If the thread was interrupted while downloading.
+   */
+  public Optional<Path> fetch(String url) throws InterruptedException {
+    Objects.requireNonNull(url);
+    synchronized (urlLocks.computeIfAbsent(url, __ -> new Object())) {
+      var cached = readMetadata(url).orElse(null);
+      if (cached != null && isFresh(url)) {
+        return Optional.of(jarPath(cached.getProperty(HASH_KEY)));
+      }
+      var uri = httpUri(url);
+      if (uri.isEmpty()) {
+        return cached == null ? Optional.empty() : Optional.of(jarPath(cached.getProperty(HASH_KEY)));
+      }
+      try {
+        Files.createDirectories(directory);
+        var path = download(uri.orElseThrow(), url, cached);
+        path.ifPresent(__ -> lastValidations.put(url, System.nanoTime()));
+        return path;
+      } catch (IOException | UncheckedIOException e) {
+        logger.info("Failed to download " + url + " : " + e.getMessage());
+        return cached == null ? Optional.empty() : Optional.of(jarPath(cached.getProperty(HASH_KEY)));
+      }
+    }
+  }
+
+  private boolean isFresh(String url) {
+    var lastValidation = lastValidations.get(url);
+    return lastValidation != null && System.nanoTime() - lastValidation < REVALIDATION_DELAY.toNanos();
+  }
+
+  /**
+   * Returns true if a copy of the jar at the given url is stored in the cache,
+   * whether it is fresh or not.
+   *
+   * @param url String, the url of the jar.
+   * @return True if the jar is cached, false if not.
+   */
+  public boolean contains(String url) {
+    Objects.requireNonNull(url);
+    return readMetadata(url).isPresent();
+  }
+
+  /**
+   * Stores a jar received from another application.<br>
+   * The copy has no ETag : once it is not fresh anymore, the jar is downloaded again from its server,
+   * if the server can be reached.
+   *
+   * @param url String, the url of the jar, as given in the checker.
+   * @param content Array of bytes, the whole jar.
+   * @return Path, where the jar is stored.
+   * @throws IOException If the jar couldn't be written in the cache directory.
+   */
+  public Path store(String url, byte[] content) throws IOException {
+    Objects.requireNonNull(url);
+    Objects.requireNonNull(content);
+    synchronized (urlLocks.computeIfAbsent(url, __ -> new Object())) {
+      Files.createDirectories(directory);
+      var contentHash = store(new ByteArrayInputStream(content));
+      writeMetadata(url, null, contentHash);
+      lastValidations.put(url, System.nanoTime());
+      return jarPath(contentHash);
+    }
+  }
+
+  /**
+   * Returns the number of jars downloaded (answered with a body) since the creation of the cache.
+   *
+   * @return Long, the number of downloads.
+   */
+  public long downloads() {
+    return downloads.get();
+  }
+
+  /**
+   * Returns the number of requests sent to the HTTP servers since the creation of the cache.
+   *
+   * @return Long, the number of requests.
+   */
+  public long revalidations() {
+    return revalidations.get();
+  }
+}
@@ -0,0 +1,348 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.RouteTable;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Spreads the jars of the checkers through the network, so the server of a jar
+ * is not asked by every application computing a job.<br>
+ * An application which needs a jar asks the source of the work request with a JarRequest,
+ * the first application of the route which has the jar answers with JarChunks.
+ * The applications relaying the chunks keep a copy of the jar too,
+ * so the next requests coming from their side of the tree are answered by them.<br>
+ * Disk and network accesses are done by background threads,
+ * the packets are handed back to the selector thread through a lock-free queue.
+ * The selector thread only remembers in memory which jars are on this application.<br>
+ * A jar is sent by windows of chunks, the next window is read once the previous one is encoded
+ * in the output buffers of the connection, so a slow connection doesn't pile the whole jar up in memory.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class JarDistributor {
+  private static final Logger logger = Logger.getLogger(JarDistributor.class.getName());
+  private static final int CHUNK_SIZE = 512;
+  private static final long MAX_JAR_SIZE = 64L * 1024 * 1024;
+  private static final int WINDOW_CHUNKS = 32;
+  private static final int MAX_WINDOWS_IN_FLIGHT = 2;
+  private static final long JAR_TIMEOUT_MS = 30_000; // for a jar asked, and for a window to leave
+
+  /**
+   * The actions waiting for a jar asked to another application.
+   */
+  private static final class Waiting {
+    private final ArrayList<Runnable> actions = new ArrayList<>();
+  }
+
+  /**
+   * A jar being received, the chunks arrive in order.
+   */
+  private static final class Assembly {
+    private final byte[] content;
+    private int received;
+
+    private Assembly(int size) {
+      content = new byte[size];
+    }
+  }
+
+  private final JarCache jarCache;
+  private final Runnable wakeup;
+  private final long timeoutMs;
+  private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+          Thread.ofPlatform().daemon().unstarted(runnable));
+  private final ConcurrentLinkedQueue<Consumer<RouteTable>> actions = new ConcurrentLinkedQueue<>();
+  // only used by the selector thread
+  private final HashMap<String, Assembly> assemblies = new HashMap<>();
+  private final HashMap<String, Waiting> waitingForJar = new HashMap<>();
+  private final HashSet<String> availableJars = new HashSet<>(); // found on the disk or received
+
+  /**
+   * JarDistributor constructor.
+   *
+   * @param jarCache JarCache, where the jars are stored.
+   * @param wakeup Runnable, wakes up the selector thread when packets are ready to be sent.
+   */
+  public JarDistributor(JarCache jarCache, Runnable wakeup) {
+    this(jarCache, wakeup, JAR_TIMEOUT_MS);
+  }
+
+  /**
+   * JarDistributor constructor, with the time after which a jar asked, or a window to send, is given up.
+   *
+   * @param jarCache JarCache, where the jars are stored.
+   * @param wakeup Runnable, wakes up the selector thread when packets are ready to be sent.
+   * @param timeoutMs Long, the time to receive a jar asked, and for a window to leave.
+   */
+  public JarDistributor(JarCache jarCache, Runnable wakeup, long timeoutMs) {
+    if (timeoutMs <= 0) {
+      throw new IllegalArgumentException("timeoutMs should be positive");
+    }
+    this.jarCache = Objects.requireNonNull(jarCache);
+    this.wakeup = Objects.requireNonNull(wakeup);
+    this.timeoutMs = timeoutMs;
+  }
+
+  private static Optional<Path> existingLocalFile(String url) {
+    try {
+      var path = Path.of(url);
+      return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    } catch (InvalidPathException e) {
+      return Optional.empty();
+    }
+  }
+
+  private void post(Consumer<RouteTable> action) {
+    actions.add(action);
+    wakeup.run();
+  }
+
+  // reads the disk, never called by the selector thread
+  private boolean canServe(String url) {
+    return jarCache.contains(url) || existingLocalFile(url).isPresent();
+  }
+
+  /**
+   * Runs the action once the jar is available on this application.<br>
+   * If the jar is neither cached nor on the disk, which is looked up by the background thread,
+   * it is asked to the source of the work. If the jar is not received in time,
+   * the action is run anyway : the checker is downloaded from its server, or its values are reported as failed.
+   * Must be called by the selector thread.
+   *
+   * @param url String, the url of the jar.
+   * @param selfId Id, the id of this application.
+   * @param sourceId Id, the source of the work, which knows how to get the jar.
+   * @param onReady Runnable, the action to run.
+   * @param routeTable RouteTable, used to send the request.
+   */
+  public void awaitJar(String url, Id selfId, Id sourceId, Runnable onReady, RouteTable routeTable) {
+    if (selfId.equals(sourceId) || availableJars.contains(url)) {
+      onReady.run();
+      return;
+    }
+    var waiting = waitingForJar.get(url);
+    if (waiting == null) { // the jar is asked only once
+      var asked = new Waiting();
+      waitingForJar.put(url, asked);
+      ioExecutor.execute(() -> {
+        var found = canServe(url);
+        post(table -> {
+          if (waitingForJar.get(url) != asked) {
+            return;
+          }
+          if (found) {
+            availableJars.add(url);
+            release(url);
+          } else {
+            table.sendTo(new Packet.Work.JarRequest(selfId, sourceId, url), sourceId);
+          }
+        });
+      });
+      ioExecutor.schedule(() -> post(__ -> expire(url, asked)), timeoutMs, TimeUnit.MILLISECONDS);
+      waiting = asked;
+    }
+    waiting.actions.add(onReady);
+  }
+
+  private void expire(String url, Waiting asked) {
+    if (waitingForJar.get(url) != asked) {
+      return;
+    }
+    logger.info("The jar " + url + " was not received in time, it will be downloaded from its server");
+    assemblies.remove(url);
+    release(url);
+  }
+
+  private void release(String url) {
+    var waiting = waitingForJar.remove(url);
+    if (waiting != null) {
+      waiting.actions.forEach(Runnable::run);
+    }
+  }
+
+  // by a serving thread, returns false if the jar is not here or could not be sent in time
+  private boolean sendJar(String url, Id selfId, Id destinationId) throws IOException, InterruptedException {
+    var path = jarCache.fetch(url).or(() -> existingLocalFile(url));
+    if (path.isEmpty()) {
+      return false;
+    }
+    try (var channel = FileChannel.open(path.orElseThrow(), StandardOpenOption.READ)) {
+      var size = channel.size();
+      if (size > MAX_JAR_SIZE) {
+        return false;
+      }
+      var windows = new Semaphore(MAX_WINDOWS_IN_FLIGHT);
+      var offset = 0L;
+      do {
+        if (!windows.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+          logger.info("The jar " + url + " is not sent to " + destinationId + " anymore, the connection is stalled");
+          return true; // the chunks already sent can't be taken back
+        }
+        var window = new ArrayList<Packet.Work.JarChunk>(WINDOW_CHUNKS);
+        for (var i = 0; i < WINDOW_CHUNKS && (offset < size || offset == 0); i++) {
+          var data = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, size - offset));
+          while (data.hasRemaining()) {
+            if (channel.read(data, offset + data.position()) == -1) {
+              throw new IOException("the jar was truncated");
+            }
+          }
+          window.add(new Packet.Work.JarChunk(selfId, destinationId, url, size, offset, data.array()));
+          offset += data.capacity();
+          if (size == 0) {
+            break;
+          }
+        }
+        post(routeTable -> {
+          for (var i = 0; i < window.size() - 1; i++) {
+            routeTable.sendTo(window.get(i), destinationId);
+          }
+          routeTable.sendTo(window.get(window.size() - 1), destinationId, windows::release);
+        });
+      } while (offset < size);
+      return true;
+    }
+  }
+
+  /**
+   * Sends the jar asked by the request, in chunks.<br>
+   * The jar is read (or downloaded) by its own virtual thread, which waits for each window to leave.
+   *
+   * @param request JarRequest, the request.
+   * @param selfId Id, the id of this application.
+   */
+  public void serve(Packet.Work.JarRequest request, Id selfId) {
+    var url = request.jarUrl();
+    var destinationId = request.idSrc();
+    Thread.ofVirtual().start(() -> {
+      boolean sent;
+      try {
+        sent = sendJar(url, selfId, destinationId);
+      } catch (IOException e) {
+        logger.info("Failed to read the jar " + url + " : " + e.getMessage());
+        sent = false;
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!sent) {
+        var unavailable = new Packet.Work.JarChunk(selfId, destinationId, url,
+                Packet.Work.JarChunk.UNAVAILABLE_JAR, 0, new byte[0]);
+        post(routeTable -> routeTable.sendTo(unavailable, destinationId));
+      }
+    });
+  }
+
+  /**
+   * Serves a JarRequest going through this application if the jar is here, or sends it on its route.<br>
+   * The disk is looked up by the background thread unless the jar is already known to be here.
+   * Must be called by the selector thread.
+   *
+   * @param request JarRequest, the request, for another application.
+   * @param selfId Id, the id of this application.
+   * @param routeTable RouteTable, used to send the request on.
+   */
+  public void serveOrForward(Packet.Work.JarRequest request, Id selfId, RouteTable routeTable) {
+    var url = request.jarUrl();
+    if (availableJars.contains(url)) {
+      serve(request, selfId);
+      return;
+    }
+    ioExecutor.execute(() -> {
+      if (canServe(url)) {
+        post(__ -> availableJars.add(url));
+        serve(request, selfId);
+      } else {
+        post(table -> table.sendTo(request, request.idDest()));
+      }
+    });
+  }
+
+  /**
+   * Receives a chunk of a jar, either sent to this application or relayed by it.<br>
+   * Once the whole jar is received, it is stored in the cache and the waiting actions are run.
+   * Must be called by the selector thread.
+   *
+   * @param chunk JarChunk, the chunk.
+   * @param forThisApplication boolean, false if the chunk is only relayed.
+   */
+  public void receive(Packet.Work.JarChunk chunk, boolean forThisApplication) {
+    var url = chunk.jarUrl();
+    if (chunk.jarSize() == Packet.Work.JarChunk.UNAVAILABLE_JAR) {
+      assemblies.remove(url);
+      if (forThisApplication) {
+        logger.info("The jar " + url + " is not available, it will be downloaded from its server");
+        release(url);
+      }
+      return;
+    }
+    if (chunk.offset() == 0) {
+      if (chunk.jarSize() > MAX_JAR_SIZE || (!forThisApplication && availableJars.contains(url))) {
+        return;
+      }
+      assemblies.put(url, new Assembly((int) chunk.jarSize()));
+    }
+    var assembly = assemblies.get(url);
+    if (assembly == null) {
+      return;
+    }
+    var data = chunk.data();
+    if (chunk.offset() != assembly.received || assembly.received + data.length > assembly.content.length) {
+      logger.info("Chunk out of order for the jar " + url);
+      assemblies.remove(url);
+      if (forThisApplication) {
+        release(url);
+      }
+      return;
+    }
+    System.arraycopy(data, 0, assembly.content, assembly.received, data.length);
+    assembly.received += data.length;
+    if (assembly.received < assembly.content.length) {
+      return;
+    }
+    assemblies.remove(url);
+    ioExecutor.execute(() -> {
+      try {
+        jarCache.store(url, assembly.content);
+      } catch (IOException e) {
+        logger.info("Failed to store the jar " + url + " : " + e.getMessage());
+        post(__ -> release(url));
+        return;
+      }
+      post(__ -> {
+        availableJars.add(url);
+        release(url);
+      });
+    });
+  }
+
+  /**
+   * Sends the packets prepared by the background thread since the last call.<br>
+   * Must be called by the selector thread.
+   *
+   * @param routeTable RouteTable, the route table of the application.
+   */
+  public void processActions(RouteTable routeTable) {
+    for (var action = actions.poll(); action != null; action = actions.poll()) {
+      action.accept(routeTable);
+    }
+  }
+}
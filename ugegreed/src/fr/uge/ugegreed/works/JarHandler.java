@@ -4,48 +4,490 @@ import fr.uge.ugegreed.Checker;
 import fr.uge.ugegreed.records.Response;
 import fr.uge.ugegreed.records.Task;
 
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class JarHandler {
 
   private static final Logger LOGGER = Logger.getLogger(JarHandler.class.getName());
+  private static final int NB_CORES = Runtime.getRuntime().availableProcessors();
+  private static final int SLICE_SIZE = 4; // under this size, a slice is checked by one thread
+  private static final ForkJoinPool POOL = new ForkJoinPool(NB_CORES);
+  private static final long WATCHDOG_PERIOD_MS = 50;
+  private static final Watchdog WATCHDOG = new Watchdog();
+
+  /**
+   * Runs the values of the batches.<br>
+   * The platform runner spreads them over a pool sized to the cores, for the checkers using the processors.
+   * The virtual runner starts a virtual thread for each value, with at most limit values in flight,
+   * for the checkers waiting for I/O or sleeping.<br>
+   * The runner of the application is chosen with the system property ugegreed.executor (platform or virtual)
+   * and the limit of the virtual runner with ugegreed.executor.limit.
+   */
+  public static final class Runner {
+    public static final String EXECUTOR_PROPERTY = "ugegreed.executor";
+    public static final String LIMIT_PROPERTY = "ugegreed.executor.limit";
+    private static final int DEFAULT_VIRTUAL_LIMIT = 10_000;
+
+    private final int parallelism;
+    private final Semaphore permits; // null for the platform runner
+
+    private Runner(int parallelism, Semaphore permits) {
+      this.parallelism = parallelism;
+      this.permits = permits;
+    }
+
+    public static Runner platform() {
+      return new Runner(NB_CORES, null);
+    }
+
+    /**
+     * Returns a runner starting a virtual thread for each value.
+     *
+     * @param limit Int, the maximum number of values in flight, shared by every batch.
+     * @return Runner, the runner.
+     */
+    public static Runner virtual(int limit) {
+      if (limit <= 0) {
+        throw new IllegalArgumentException("limit should be positive");
+      }
+      return new Runner(limit, new Semaphore(limit));
+    }
+
+    /**
+     * Returns the runner configured by the system properties, the platform runner by default.
+     *
+     * @return Runner, the runner.
+     */
+    public static Runner fromSystemProperties() {
+      var executor = System.getProperty(EXECUTOR_PROPERTY, "platform");
+      return switch (executor) {
+        case "platform" -> platform();
+        case "virtual" -> virtual(Integer.getInteger(LIMIT_PROPERTY, DEFAULT_VIRTUAL_LIMIT));
+        default -> throw new IllegalArgumentException("unknown executor " + executor + ", platform or virtual expected");
+      };
+    }
+
+    /**
+     * Returns the number of values checked at once.
+     *
+     * @return Int, the number of cores or the limit of virtual threads.
+     */
+    public int parallelism() {
+      return parallelism;
+    }
+
+    public boolean isVirtual() {
+      return permits != null;
+    }
+
+    @Override
+    public String toString() {
+      return isVirtual() ? "virtual threads (" + parallelism + " values in flight)" : "platform threads (" + parallelism + ")";
+    }
+  }
+
+  /**
+   * Receives the responses of a range, batch by batch, while the checker is still running.
+   */
+  @FunctionalInterface
+  public interface ResponseBatchConsumer {
+
+    /**
+     * Accepts a batch of responses.<br>
+     * The batch is ordered by value and is never empty.
+     *
+     * @param batch List of Response, the batch.
+     * @throws InterruptedException If the consumer was interrupted while waiting to accept the batch.
+     */
+    void accept(List<Response> batch) throws InterruptedException;
+  }
+
+  /**
+   * Interrupts the checkers running on a value for longer than the timeout of their request.<br>
+   * Each thread of the pool has a slot, armed before a value and disarmed after it
+   * (a virtual thread, which checks a single value, has its own slot),
+   * a background thread sweeps the slots every WATCHDOG_PERIOD_MS.
+   * The interruption is done while holding the slot, so it never reaches the next value of the thread.
+   */
+  private static final class Watchdog {
+
+    private static final class Slot {
+      private final Thread thread = Thread.currentThread();
+      // guarded by the slot
+      private Batch batch; // null while the thread is not computing a value
+      private long deadline;
+      private boolean interrupted;
+    }
+
+    private final Set<Slot> slots = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Slot> currentSlot = ThreadLocal.withInitial(() -> {
+      var slot = new Slot();
+      slots.add(slot);
+      return slot;
+    });
+
+    private Watchdog() {
+      Thread.ofPlatform().daemon().name("checker-watchdog").start(this::run);
+    }
+
+    private Slot arm(Batch batch) {
+      Slot slot;
+      if (Thread.currentThread().isVirtual()) {
+        slot = new Slot();
+        slots.add(slot);
+      } else {
+        slot = currentSlot.get();
+      }
+      synchronized (slot) {
+        slot.batch = batch;
+        slot.deadline = System.nanoTime() + batch.timeoutNanos;
+        slot.interrupted = false;
+      }
+      return slot;
+    }
+
+    // returns true if the value was interrupted by the watchdog, the interruption is cleared
+    private boolean disarm(Slot slot) {
+      if (slot.thread.isVirtual()) {
+        slots.remove(slot);
+      }
+      synchronized (slot) {
+        slot.batch = null;
+        if (slot.interrupted) {
+          Thread.interrupted();
+          return true;
+        }
+        return false;
+      }
+    }
+
+    private static void interrupt(Slot slot) {
+      slot.interrupted = true;
+      slot.thread.interrupt();
+    }
+
+    // interrupts the values of a cancelled batch
+    private void interruptAll(Batch batch) {
+      for (var slot : slots) {
+        synchronized (slot) {
+          if (slot.batch == batch && !slot.interrupted) {
+            interrupt(slot);
+          }
+        }
+      }
+    }
+
+    // returns true if a value of the batch ignored its interruption for another timeout
+    private boolean isStuck(Batch batch) {
+      var now = System.nanoTime();
+      for (var slot : slots) {
+        synchronized (slot) {
+          if (slot.batch == batch && slot.interrupted && now - slot.deadline >= batch.timeoutNanos) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private void run() {
+      for (;;) {
+        try {
+          Thread.sleep(WATCHDOG_PERIOD_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        var now = System.nanoTime();
+        for (var slot : slots) {
+          if (!slot.thread.isAlive()) { // the pool has retired the thread
+            slots.remove(slot);
+            continue;
+          }
+          synchronized (slot) {
+            if (slot.batch != null && !slot.interrupted && now - slot.deadline >= 0) {
+              interrupt(slot);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A batch of values being checked.
+   */
+  private static final class Batch {
+    private final Checker checker;
+    private final Response[] responses;
+    private final long firstValue;
+    private final long timeoutNanos;
+    private volatile boolean cancelled;
+
+    private Batch(Checker checker, long firstValue, int size, long timeoutNanos) {
+      this.checker = checker;
+      this.responses = new Response[size];
+      this.firstValue = firstValue;
+      this.timeoutNanos = timeoutNanos;
+    }
+  }
+
+  /**
+   * Checks a slice of a batch.<br>
+   * The slice is split in two until it is small enough,
+   * idle threads of the pool steal the halves that are not computed yet.
+   */
+  @SuppressWarnings("serial") // never serialized, it only runs in the pool
+  private static final class SliceTask extends RecursiveAction {
+    private final Batch batch;
+    private final int from;
+    private final int to;
+
+    private SliceTask(Batch batch, int from, int to) {
+      this.batch = batch;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SLICE_SIZE) {
+        for (var i = from; i < to && !batch.cancelled; i++) {
+          batch.responses[i] = process(batch, batch.firstValue + i);
+        }
+        return;
+      }
+      var middle = (from + to) >>> 1;
+      invokeAll(new SliceTask(batch, from, middle), new SliceTask(batch, middle, to));
+    }
+  }
+
+  /**
+   * Runs the checker over the range and streams the responses to the consumer.<br>
+   * At most batchSize responses are kept in memory at once,
+   * whatever the size of the range.<br>
+   * The values of a batch are spread over every core of the machine,
+   * so the checker must accept concurrent calls.<br>
+   * A value checked for longer than the timeout is interrupted and reported as timed out,
+   * the other values of the batch are kept. If the checker ignores the interruption for another timeout,
+   * the batch is abandoned and its values not checked yet are reported as timed out too.
+   * A value on which the checker throws is reported as an exception, the other values are kept.
+   *
+   * @param checkerCache CheckerCache, where the checker is loaded from.
+   * @param jar Task.Checker, the url (or the path) of the jar and the fully qualified name of the checker.
+   * @param range Range, the values to check (both bounds included).
+   * @param batchSize Int, the maximum number of responses in one batch.
+   * @param timeoutMs Long, the time given to the checker for each value.
+   * @param consumer ResponseBatchConsumer, receives the batches in order.
+   * @throws InterruptedException If the thread was interrupted while computing, the values being checked are interrupted.
+   */
+  public static void handleJar(CheckerCache checkerCache,
+                               Task.Checker jar,
+                               Task.Range range,
+                               int batchSize,
+                               long timeoutMs,
+                               ResponseBatchConsumer consumer) throws InterruptedException {
+    handleJar(checkerCache, jar, range, batchSize, timeoutMs, Runner.platform(), consumer);
+  }
+
+  /**
+   * Runs the checker over the range with the given runner and streams the responses to the consumer.
+   *
+   * @param checkerCache CheckerCache, where the checker is loaded from.
+   * @param jar Task.Checker, the url (or the path) of the jar and the fully qualified name of the checker.
+   * @param range Range, the values to check (both bounds included).
+   * @param batchSize Int, the maximum number of responses in one batch.
+   * @param timeoutMs Long, the time given to the checker for each value.
+   * @param runner Runner, runs the values of the batches.
+   * @param consumer ResponseBatchConsumer, receives the batches in order.
+   * @throws InterruptedException If the thread was interrupted while computing, the values being checked are interrupted.
+   * @see #handleJar(CheckerCache, Task.Checker, Task.Range, int, long, ResponseBatchConsumer)
+   */
+  public static void handleJar(CheckerCache checkerCache,
+                               Task.Checker jar,
+                               Task.Range range,
+                               int batchSize,
+                               long timeoutMs,
+                               Runner runner,
+                               ResponseBatchConsumer consumer) throws InterruptedException {
+    Objects.requireNonNull(checkerCache);
+    Objects.requireNonNull(runner);
+    Objects.requireNonNull(jar);
+    Objects.requireNonNull(range);
+    Objects.requireNonNull(consumer);
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batch size should be positive");
+    }
+    if (timeoutMs <= 0) {
+      throw new IllegalArgumentException("timeout should be positive");
+    }
+    var timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    var lease = checkerCache.acquire(jar);
+    try {
+      var checker = lease.map(CheckerCache.Lease::checker).orElse(null);
+      var start = range.inf();
+      for (;;) {
+        var size = (int) Math.min(batchSize - 1L, range.sup() - start) + 1;
+        consumer.accept(checkBatch(checker, start, size, timeoutNanos, runner));
+        if (range.sup() - start < size) {
+          return;
+        }
+        start += size;
+      }
+    } finally {
+      lease.ifPresent(CheckerCache.Lease::close);
+    }
+  }
+
+  // the values of the batch are checked in parallel, the responses stay ordered by value
+  private static List<Response> checkBatch(Checker checker, long firstValue, int size, long timeoutNanos,
+                                           Runner runner) throws InterruptedException {
+    if (checker == null) {
+      var responses = new Response[size];
+      for (var i = 0; i < size; i++) {
+        responses[i] = new Response(firstValue + i, Response.FAILED_TO_RECOVER_CHECKER, "");
+      }
+      return List.of(responses);
+    }
+    var batch = new Batch(checker, firstValue, size, timeoutNanos);
+    Future<?> task = null;
+    try {
+      task = runner.isVirtual() ? startVirtualThreads(batch, runner.permits) : POOL.submit(new SliceTask(batch, 0, size));
+      for (;;) {
+        try {
+          task.get(WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+          return List.of(batch.responses);
+        } catch (TimeoutException e) {
+          if (WATCHDOG.isStuck(batch)) {
+            return abandon(batch);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel(batch);
+      if (task != null) {
+        task.cancel(true);
+      }
+      throw e;
+    } catch (ExecutionException e) {
+      cancel(batch);
+      throw new IllegalStateException("checker failed", e.getCause());
+    }
+  }
+
+  // each value has its own virtual thread, the permits bound the values in flight of every batch.
+  // the permits are taken by a launcher thread, so the caller polls the future and can be interrupted meanwhile
+  private static Future<?> startVirtualThreads(Batch batch, Semaphore permits) {
+    var done = new CompletableFuture<Void>();
+    var remaining = new AtomicInteger(batch.responses.length + 1); // the launcher counts as one
+    Thread.ofVirtual().start(() -> {
+      var launched = 0;
+      try {
+        while (launched < batch.responses.length && !batch.cancelled) {
+          if (!permits.tryAcquire(WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS)) {
+            continue;
+          }
+          var index = launched++;
+          Thread.ofVirtual().start(() -> {
+            try {
+              if (!batch.cancelled) {
+                batch.responses[index] = process(batch, batch.firstValue + index);
+              }
+            } catch (Throwable e) {
+              batch.cancelled = true; // the launcher stops, the caller has given up on the batch
+              done.completeExceptionally(e);
+            } finally {
+              permits.release();
+              if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
+              }
+            }
+          });
+        }
+      } catch (Throwable e) {
+        batch.cancelled = true;
+        done.completeExceptionally(e);
+      } finally {
+        // the values never launched are not waited for
+        if (remaining.addAndGet(-(batch.responses.length - launched + 1)) == 0) {
+          done.complete(null);
+        }
+      }
+    });
+    return done;
+  }
+
+  private static void cancel(Batch batch) {
+    batch.cancelled = true;
+    WATCHDOG.interruptAll(batch);
+  }
+
+  // the threads stuck in the checker are lost until it returns, the pool has other threads
+  private static List<Response> abandon(Batch batch) {
+    cancel(batch);
+    LOGGER.warning("the checker ignores the timeout, batch abandoned at value " + batch.firstValue);
+    var responses = batch.responses.clone();
+    for (var i = 0; i < responses.length; i++) {
+      if (responses[i] == null) {
+        responses[i] = new Response(batch.firstValue + i, Response.JOB_TIMEOUT, "");
+      }
+    }
+    return List.of(responses);
+  }
 
   public static List<Response> handleJar(String url,
                                          String className,
                                          Task.Range range) {
-    Objects.requireNonNull(url);
-    Objects.requireNonNull(className);
     var listResponse = new ArrayList<Response>();
-    var checker = Client.checkerFromHTTP(url, className).orElse(null);
-    if (checker == null) { // Not the best way for checking if it's URL or PATH
-      // But, it uses Client class instead of saying "is URL then, bla bla bla..."
-      checker = Client.checkerFromDisk(Path.of(url), className).orElse(null);
-      if (checker == null) {
-        for (var i = range.inf(); i < range.sup(); i++) {
-          listResponse.add(new Response(i, (byte) 3, ""));
-        }
-        return List.copyOf(listResponse);
-      }
-    }
-    for (var i = range.inf(); i <= range.sup(); i++) {
-      listResponse.add(process(checker, i));
+    try (var checkerCache = new CheckerCache(1, new JarCache(JarCache.DEFAULT_DIRECTORY))) {
+      handleJar(checkerCache, new Task.Checker(url, className), range, 1024, Task.DEFAULT_TIMEOUT_MS, listResponse::addAll);
+    } catch (InterruptedException e) {
+      LOGGER.warning("interrupted while computing");
+      Thread.currentThread().interrupt();
     }
     return List.copyOf(listResponse);
   }
 
-  private static Response process(Checker checker, long value) {
+  private static Response process(Batch batch, long value) {
     var message = "";
+    var interrupted = false;
+    Throwable failure = null;
+    var slot = WATCHDOG.arm(batch);
+    boolean timedOut;
     try {
-      message = checker.check(value);
+      message = batch.checker.check(value);
     } catch (InterruptedException e) {
+      interrupted = true;
+    } catch (RuntimeException | Error e) { // only this value is lost
+      failure = e;
+    } finally {
+      timedOut = WATCHDOG.disarm(slot);
+    }
+    if (timedOut) {
+      return new Response(value, Response.JOB_TIMEOUT, "");
+    }
+    if (interrupted) {
       LOGGER.warning("interrupted while computing");
-      return new Response(value, (byte) 1, message);
+      return new Response(value, Response.JOB_EXCEPTION, "");
+    }
+    if (failure != null) {
+      LOGGER.warning("the checker failed on the value " + value + " : " + failure);
+      return new Response(value, Response.JOB_EXCEPTION, "");
     }
-    return new Response(value, (byte) 0, message);
+    return new Response(value, Response.JOB_DONE, message);
   }
 
   public static void main(String[] args) throws InterruptedException {
@@ -0,0 +1,379 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Task;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Write-ahead journal of a request, kept next to its results file.<br>
+ * The journal records the request, the sub-ranges assigned and to whom, and the values saved in the ResultStore :
+ * <pre>
+ * file   : magic (INT), version (INT), records
+ * record : size of the content (INT), kind (BYTE), content, CRC32 of the kind and the content (INT)
+ * START     : requestId (LONG), inf (LONG), sup (LONG), timeoutMs (LONG), url (STRING), fqn (STRING)
+ * ASSIGNED  : inf (LONG), sup (LONG), application (STRING)
+ * COMPLETED : inf (LONG), sup (LONG)
+ * FINISHED  : nothing
+ * </pre>
+ * The records are buffered and only written by checkpoint, once the ResultStore has been forced,
+ * so a value is never journaled as completed before its response is on the disk.
+ * A record cut by a crash fails its CRC, the journal is read up to the last whole record
+ * and a resumed journal is truncated there before the new records are appended.<br>
+ * This class is not thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class RequestJournal implements Closeable {
+    private static final int MAGIC = 0x55475251; // "UGRQ"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte START = 1;
+    private static final byte ASSIGNED = 2;
+    private static final byte COMPLETED = 3;
+    private static final byte FINISHED = 4;
+
+    /**
+     * What the journal of a request tells about it.
+     *
+     * @param requestId Long, the request.
+     * @param checker Checker, the checker of the request.
+     * @param range Range, the values of the request.
+     * @param timeoutMs Long, the time given to the checker for each value.
+     * @param completed List of Range, the values saved, merged and ordered.
+     * @param assignedValues Map of String and Long, the number of values assigned to each application.
+     * @param finished Boolean, true if every value was saved and the results file exported.
+     * @param length Long, the size of the whole records, what follows is a torn write.
+     */
+    public record Progress(long requestId, Task.Checker checker, Task.Range range, long timeoutMs,
+                           List<Task.Range> completed, Map<String, Long> assignedValues, boolean finished, long length) {
+        public Progress {
+            Objects.requireNonNull(checker);
+            Objects.requireNonNull(range);
+            completed = List.copyOf(completed);
+            assignedValues = Map.copyOf(assignedValues);
+        }
+
+        /**
+         * Tells if the journal is the one of the task, started with the same checker on the same range.
+         *
+         * @param task Task, the task started.
+         * @return True if the task can resume the request of the journal.
+         */
+        public boolean matches(Task task) {
+            return checker.equals(task.checker()) && range.equals(task.range());
+        }
+
+        /**
+         * Returns the number of values saved.
+         *
+         * @return Long, the number of values saved.
+         */
+        public long completedCount() {
+            return completed.stream().mapToLong(completed -> completed.sup() - completed.inf() + 1).sum();
+        }
+
+        /**
+         * Returns the values of the range not saved yet.
+         *
+         * @return List of Range, the sub-ranges to compute again, ordered.
+         */
+        public List<Task.Range> missing() {
+            var missing = new ArrayList<Task.Range>();
+            var next = range.inf(); // first value not covered yet
+            for (var done : completed) {
+                if (done.inf() > next) {
+                    missing.add(new Task.Range(next, done.inf() - 1));
+                }
+                if (done.sup() == range.sup()) {
+                    return List.copyOf(missing);
+                }
+                next = done.sup() + 1;
+            }
+            missing.add(new Task.Range(next, range.sup()));
+            return List.copyOf(missing);
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // grows until the next checkpoint
+    private final CRC32 crc = new CRC32();
+
+    private RequestJournal(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates the journal of a new request, an existing journal is replaced.
+     *
+     * @param path Path, the journal.
+     * @param requestId Long, the request.
+     * @param task Task, the checker and the range of the request.
+     * @return RequestJournal, the journal, its START record is written at the first checkpoint.
+     * @throws IOException If the file couldn't be created.
+     */
+    public static RequestJournal create(Path path, long requestId, Task task) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(task);
+        var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE);
+        var journal = new RequestJournal(path, channel);
+        journal.buffer.putInt(MAGIC).putInt(VERSION);
+        var url = task.checker().javaUrl().getBytes(StandardCharsets.UTF_8);
+        var fqn = task.checker().classPath().getBytes(StandardCharsets.UTF_8);
+        journal.append(START, 4 * Long.BYTES + 2 * Integer.BYTES + url.length + fqn.length, content -> content
+                .putLong(requestId)
+                .putLong(task.range().inf())
+                .putLong(task.range().sup())
+                .putLong(task.timeoutMs())
+                .putInt(url.length).put(url)
+                .putInt(fqn.length).put(fqn));
+        return journal;
+    }
+
+    /**
+     * Opens the journal of a request resumed, the records are appended after the last whole record.
+     *
+     * @param path Path, the journal.
+     * @param progress Progress, the journal as it was read.
+     * @return RequestJournal, the journal.
+     * @throws IOException If the file couldn't be opened.
+     */
+    public static RequestJournal resume(Path path, Progress progress) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(progress);
+        var channel = FileChannel.open(path, WRITE);
+        try {
+            channel.truncate(progress.length());
+            channel.position(progress.length());
+            return new RequestJournal(path, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the journal of a request.
+     *
+     * @param path Path, the journal.
+     * @return the progress of the request, or an empty optional if there is no journal.
+     * @throws IOException If the file couldn't be read or is not a journal.
+     */
+    public static Optional<Progress> read(Path path) throws IOException {
+        Objects.requireNonNull(path);
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(path + " is not a journal");
+            }
+            return Optional.ofNullable(readRecords(input));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (EOFException e) {
+            return Optional.empty(); // the START record was never written
+        }
+    }
+
+    private static Progress readRecords(DataInputStream input) throws IOException {
+        var crc = new CRC32();
+        var completed = new TreeMap<Long, Long>(); // inf -> sup, merged
+        var assignedValues = new LinkedHashMap<String, Long>();
+        ByteBuffer start = null;
+        var finished = false;
+        var length = (long) FILE_HEADER_SIZE;
+        for (;;) {
+            var content = nextRecord(input, crc);
+            if (content == null) {
+                break;
+            }
+            var kind = content.get();
+            if (start == null && kind != START) {
+                return null;
+            }
+            switch (kind) {
+                case START -> start = content;
+                case ASSIGNED -> {
+                    var inf = content.getLong();
+                    var sup = content.getLong();
+                    assignedValues.merge(getString(content), sup - inf + 1, Long::sum);
+                }
+                case COMPLETED -> merge(completed, content.getLong(), content.getLong());
+                case FINISHED -> finished = true;
+                default -> {
+                    return null;
+                }
+            }
+            length += Integer.BYTES + content.limit() + Integer.BYTES;
+        }
+        if (start == null) {
+            return null;
+        }
+        var requestId = start.getLong();
+        var range = new Task.Range(start.getLong(), start.getLong());
+        var timeoutMs = start.getLong();
+        var checker = new Task.Checker(getString(start), getString(start));
+        var ranges = completed.entrySet().stream()
+                .map(entry -> new Task.Range(entry.getKey(), entry.getValue()))
+                .toList();
+        return new Progress(requestId, checker, range, timeoutMs, ranges, assignedValues, finished, length);
+    }
+
+    // the kind and the content of the next record, or null if the journal ends or the record is torn
+    private static ByteBuffer nextRecord(DataInputStream input, CRC32 crc) throws IOException {
+        try {
+            var size = input.readInt();
+            if (size < 0 || size > MAX_RECORD_SIZE) {
+                return null;
+            }
+            var bytes = new byte[Byte.BYTES + size];
+            input.readFully(bytes);
+            var expected = input.readInt();
+            crc.reset();
+            crc.update(bytes);
+            return (int) crc.getValue() == expected ? ByteBuffer.wrap(bytes) : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static String getString(ByteBuffer content) {
+        var bytes = new byte[content.getInt()];
+        content.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // adds [inf, sup] to the ranges, the ranges which overlap or touch it are merged
+    private static void merge(TreeMap<Long, Long> ranges, long inf, long sup) {
+        var before = ranges.floorEntry(inf);
+        if (before != null && (before.getValue() == Long.MAX_VALUE || before.getValue() + 1 >= inf)) {
+            inf = before.getKey();
+            sup = Math.max(sup, before.getValue());
+        }
+        for (var after = ranges.ceilingEntry(inf); after != null && (sup == Long.MAX_VALUE || after.getKey() <= sup + 1);
+             after = ranges.ceilingEntry(inf)) {
+            sup = Math.max(sup, after.getValue());
+            ranges.remove(after.getKey());
+        }
+        ranges.put(inf, sup);
+    }
+
+    private interface Content {
+        void write(ByteBuffer content);
+    }
+
+    private void append(byte kind, int size, Content content) {
+        var recordSize = Integer.BYTES + Byte.BYTES + size + Integer.BYTES;
+        if (buffer.remaining() < recordSize) { // never written before the checkpoint, which follows the ResultStore
+            var larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + recordSize));
+            buffer = larger.put(buffer.flip());
+        }
+        buffer.putInt(size);
+        var start = buffer.position();
+        buffer.put(kind);
+        content.write(buffer);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Records a sub-range assigned to an application.
+     *
+     * @param id Id, the application.
+     * @param range Range, the values assigned.
+     */
+    public void assigned(Id id, Task.Range range) {
+        var application = id.toString().getBytes(StandardCharsets.UTF_8);
+        append(ASSIGNED, 2 * Long.BYTES + Integer.BYTES + application.length, content -> content
+                .putLong(range.inf())
+                .putLong(range.sup())
+                .putInt(application.length).put(application));
+    }
+
+    /**
+     * Records values saved in the ResultStore.<br>
+     * The ResultStore must be forced before the next checkpoint.
+     *
+     * @param range Range, the values saved.
+     */
+    public void completed(Task.Range range) {
+        append(COMPLETED, 2 * Long.BYTES, content -> content.putLong(range.inf()).putLong(range.sup()));
+    }
+
+    /**
+     * Records that every value was saved and the results file exported.
+     */
+    public void finished() {
+        append(FINISHED, 0, content -> {});
+    }
+
+    /**
+     * Tells if records are waiting for the next checkpoint.
+     *
+     * @return True if records are buffered.
+     */
+    public boolean hasPendingRecords() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Writes the buffered records and forces them on the disk.<br>
+     * Must be called once the responses of the COMPLETED records are forced in the ResultStore.
+     *
+     * @throws IOException If the journal couldn't be written.
+     */
+    public void checkpoint() throws IOException {
+        write();
+        channel.force(false);
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer = buffer.capacity() > BUFFER_SIZE ? ByteBuffer.allocate(BUFFER_SIZE) : buffer.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered records and closes the journal.
+     *
+     * @throws IOException If the journal couldn't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RequestJournal " + path;
+    }
+}
@@ -1,19 +1,53 @@
 package fr.uge.ugegreed.works;
 
+import fr.uge.ugegreed.records.Id;
 import fr.uge.ugegreed.records.Packet;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import fr.uge.ugegreed.records.Task;
+import fr.uge.ugegreed.records.Response;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 
-import static java.nio.file.StandardOpenOption.*;
-
-public class ResponseCollector {
+/**
+ * Saves the responses received for the requests of this application in their results files.<br>
+ * The files are written by a ResultWriter, the selector thread only formats the responses.
+ * The responses of a request whose range is known are kept in a binary ResultStore,
+ * the text results file is exported from it once the request is complete, on flush and on close.
+ * The requests started from the console are journaled, so they can be resumed after a crash.
+ * The values of a request whose range is known are tracked in a CompletionBitmap : a response for a value
+ * already received is dropped, the progress is logged every PROGRESS_STEP, and the file of the request
+ * is closed and the completion listeners called once a response has been received for every value of its range.
+ * The late responses of a finished request are dropped, its results file is never written again.
+ */
+public class ResponseCollector implements AutoCloseable {
     private static final Logger logger = Logger.getLogger(ResponseCollector.class.getName());
+    private static final double PROGRESS_STEP = 0.1;
+
+    /**
+     * The values received for a request, only updated by the selector thread.
+     */
+    private static final class Completion {
+        private final CompletionBitmap bitmap;
+        private int reportedSteps;
+
+        private Completion(Task.Range range) {
+            this.bitmap = new CompletionBitmap(range);
+        }
+    }
 
-    private final HashMap<Long, Path> resultsFiles = new HashMap<>();
+    // the requests are registered by the console thread
+    private final ConcurrentHashMap<Long, Path> resultsFiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Completion> completions = new ConcurrentHashMap<>();
+    private final Set<Long> finishedRequests = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<LongConsumer> completionListeners = new CopyOnWriteArrayList<>();
+    private final ResultWriter resultWriter = new ResultWriter();
 
     private static Path defaultFilePath(long requestId) {
         return Path.of(requestId + " results.txt");
@@ -23,17 +57,185 @@ public class ResponseCollector {
         resultsFiles.put(requestId, filename);
     }
 
+    /**
+     * Registers the results file of a request and the range computed,
+     * so the file can be closed once every response has been received.
+     *
+     * @param requestId Long, the request.
+     * @param filename Path, the results file.
+     * @param range Range, the values of the request.
+     */
+    public void addResultFilename(long requestId, Path filename, Task.Range range) {
+        addResultFilename(requestId, filename);
+        resultWriter.register(requestId, filename, range);
+        completions.put(requestId, new Completion(range));
+    }
+
+    /**
+     * Registers a request started from the console, with its store and its journal.<br>
+     * A resumed request only waits for the responses of the values its journal has not saved.
+     *
+     * @param requestId Long, the request.
+     * @param task Task, the request.
+     * @param resumed Progress, the journal of the request resumed, or null for a new request.
+     */
+    public void addRequest(long requestId, Task task, RequestJournal.Progress resumed) {
+        addResultFilename(requestId, task.resultsFilename());
+        resultWriter.register(requestId, task, resumed);
+        var completion = new Completion(task.range());
+        if (resumed != null) {
+            resumed.completed().forEach(completion.bitmap::addRange);
+            completion.reportedSteps = (int) (completion.bitmap.progress() / PROGRESS_STEP);
+        }
+        if (completion.bitmap.isComplete()) { // every value was saved before the crash, the results file is exported again
+            complete(requestId);
+            return;
+        }
+        completions.put(requestId, completion);
+    }
+
+    /**
+     * Adds a listener called with the id of each request of which every response has been received.<br>
+     * The listener is called by the thread which saved the last response.
+     *
+     * @param listener LongConsumer, the listener.
+     */
+    public void addCompletionListener(LongConsumer listener) {
+        completionListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Returns the part of the range of a request whose responses have been received.<br>
+     * Must be called by the selector thread.
+     *
+     * @param requestId Long, the request.
+     * @return the progress, between 0 and 1, or an empty optional if the request is not running.
+     */
+    public OptionalDouble progress(long requestId) {
+        var completion = completions.get(requestId);
+        return completion == null ? OptionalDouble.empty() : OptionalDouble.of(completion.bitmap.progress());
+    }
+
+    /**
+     * Tells if the responses of the request are still expected.
+     *
+     * @param requestId Long, the request.
+     * @return True if the request is running.
+     */
+    public boolean isRunning(long requestId) {
+        return completions.containsKey(requestId);
+    }
+
+    /**
+     * Records in the journal of the request the values assigned to an application.
+     *
+     * @param requestId Long, the request.
+     * @param id Id, the application.
+     * @param range Range, the values assigned.
+     */
+    public void recordAssignment(long requestId, Id id, Task.Range range) {
+        resultWriter.assigned(requestId, id, range);
+    }
+
     public Path getResultFilePath(long requestId) {
         return resultsFiles.getOrDefault(requestId, defaultFilePath(requestId));
     }
 
     public void saveResponseIntoResultFile(Packet.Work.WorkResponse workResponse){
         var requestId = workResponse.requestId();
-        var filePath = resultsFiles.getOrDefault(requestId, defaultFilePath(requestId));
-        try {
-            Files.writeString(filePath, workResponse.response().toString(), StandardCharsets.UTF_8, CREATE, WRITE, APPEND);
-        } catch(IOException e) {
-            logger.severe("Fatal exception in Thread : " + Thread.currentThread().getName());
+        var completion = completions.get(requestId);
+        if (completion == null) {
+            if (finishedRequests.contains(requestId)) {
+                logger.fine("late response dropped for the finished request " + requestId);
+                return;
+            }
+            resultWriter.append(requestId, getResultFilePath(requestId), workResponse.response().toString());
+            return;
+        }
+        if (completion.bitmap.add(workResponse.response().value())) {
+            resultWriter.store(requestId, List.of(workResponse.response()));
+            onResponsesSaved(requestId, completion);
+        }
+    }
+
+    /**
+     * Saves every response of the batch, in the same format as saveResponseIntoResultFile.
+     *
+     * @param workResponseBatch WorkResponseBatch, the responses.
+     */
+    public void saveResponsesIntoResultFile(Packet.Work.WorkResponseBatch workResponseBatch) {
+        var requestId = workResponseBatch.requestId();
+        var completion = completions.get(requestId);
+        if (completion == null) {
+            if (finishedRequests.contains(requestId)) {
+                logger.fine(workResponseBatch.responses().size() + " late responses dropped for the finished request " + requestId);
+                return;
+            }
+            var builder = new StringBuilder();
+            workResponseBatch.responses().forEach(builder::append);
+            resultWriter.append(requestId, getResultFilePath(requestId), builder.toString());
+            return;
         }
+        var responses = workResponseBatch.responses();
+        List<Response> accepted = null; // copied only if a duplicate is dropped
+        for (var i = 0; i < responses.size(); i++) {
+            var response = responses.get(i);
+            if (completion.bitmap.add(response.value())) {
+                if (accepted != null) {
+                    accepted.add(response);
+                }
+            } else if (accepted == null) {
+                accepted = new ArrayList<>(responses.subList(0, i));
+            }
+        }
+        if (accepted == null) {
+            accepted = responses;
+        } else if (accepted.isEmpty()) {
+            return;
+        } else {
+            logger.fine((responses.size() - accepted.size()) + " duplicated responses dropped for the request " + requestId);
+        }
+        resultWriter.store(requestId, accepted);
+        onResponsesSaved(requestId, completion);
+    }
+
+    private void onResponsesSaved(long requestId, Completion completion) {
+        var bitmap = completion.bitmap;
+        if (bitmap.isComplete()) {
+            if (completions.remove(requestId) != null) {
+                complete(requestId);
+            }
+            return;
+        }
+        var steps = (int) (bitmap.progress() / PROGRESS_STEP);
+        if (steps > completion.reportedSteps) {
+            completion.reportedSteps = steps;
+            logger.info("Request " + requestId + " : " + Math.round(steps * PROGRESS_STEP * 100) + "% of the responses received");
+        }
+    }
+
+    private void complete(long requestId) {
+        finishedRequests.add(requestId);
+        resultWriter.complete(requestId);
+        logger.info("Every response of the request " + requestId + " has been received");
+        completionListeners.forEach(listener -> listener.accept(requestId));
+    }
+
+    /**
+     * Waits until every response saved before this call is written in its file.<br>
+     * The results files of the running requests are exported from their stores, with the responses received so far.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        resultWriter.flush();
+    }
+
+    /**
+     * Writes every response saved and closes the files, the results files of the running requests are exported.
+     */
+    @Override
+    public void close() {
+        resultWriter.close();
     }
 }
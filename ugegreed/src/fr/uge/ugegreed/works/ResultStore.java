@@ -0,0 +1,319 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Binary results file of a request, written through memory mapped buffers.<br>
+ * The file is made of a header, one fixed-size record per value of the range and a heap of strings :
+ * <pre>
+ * header  : magic (INT), version (INT), requestId (LONG), inf (LONG), sup (LONG), heap size (LONG), count (LONG)
+ * records : value (LONG), offset in the heap (LONG), size of the message (INT), opcode (BYTE), present (BYTE), padding
+ * heap    : the UTF-8 messages, one after the other
+ * </pre>
+ * The record of a value is at a fixed position, so the responses can be written in any order
+ * and the response of a value is found without reading the others.
+ * The file is mapped by segments, so the range may be larger than what a single buffer can map,
+ * up to MAX_RECORDS values : the records of a larger range would not fit in a sane file.<br>
+ * This class is not thread-safe.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class ResultStore implements Closeable {
+    private static final int MAGIC = 0x55475253; // "UGRS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HEAP_SIZE_POSITION = 32;
+    private static final int COUNT_POSITION = 40;
+    private static final int RECORD_SIZE = 24;
+    private static final int RECORDS_PER_SEGMENT = 1 << 21;
+    private static final long RECORD_SEGMENT_SIZE = (long) RECORDS_PER_SEGMENT * RECORD_SIZE;
+    private static final int HEAP_SEGMENT_SIZE = 1 << 24;
+    private static final byte PRESENT = 1;
+    private static final long MAX_RECORDS = 1L << 28; // 6 GiB of records
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final long requestId;
+    private final Task.Range range;
+    private final long heapStart;
+    private final HashMap<Long, MappedByteBuffer> recordSegments = new HashMap<>();
+    private final HashMap<Long, MappedByteBuffer> heapSegments = new HashMap<>();
+    private long heapSize;
+    private long count;
+
+    private ResultStore(Path path, FileChannel channel, long requestId, Task.Range range) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.requestId = requestId;
+        this.range = range;
+        this.heapStart = heapStart(path, range);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    }
+
+    private static long nbRecords(Task.Range range) {
+        return range.sup() - range.inf() + 1;
+    }
+
+    // the records are followed by the heap
+    private static long heapStart(Path path, Task.Range range) throws IOException {
+        try {
+            var nbRecords = Math.addExact(Math.subtractExact(range.sup(), range.inf()), 1);
+            if (nbRecords > MAX_RECORDS) {
+                throw new IOException(path + " : the range " + range + " has too many values to be stored");
+            }
+            return HEADER_SIZE + Math.multiplyExact(nbRecords, RECORD_SIZE);
+        } catch (ArithmeticException e) {
+            throw new IOException(path + " : the range " + range + " has too many values to be stored", e);
+        }
+    }
+
+    /**
+     * Creates the results file of a request, an existing file is replaced.
+     *
+     * @param path Path, the file.
+     * @param requestId Long, the request.
+     * @param range Range, the values of the request.
+     * @return ResultStore, the store, empty.
+     * @throws IOException If the file couldn't be created, or if the range has more than MAX_RECORDS values.
+     */
+    public static ResultStore create(Path path, long requestId, Task.Range range) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(range);
+        heapStart(path, range); // checked before an existing file is replaced
+        var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        try {
+            var store = new ResultStore(path, channel, requestId, range);
+            store.header.putInt(0, MAGIC)
+                    .putInt(4, VERSION)
+                    .putLong(8, requestId)
+                    .putLong(16, range.inf())
+                    .putLong(24, range.sup())
+                    .putLong(HEAP_SIZE_POSITION, 0)
+                    .putLong(COUNT_POSITION, 0);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing results file.
+     *
+     * @param path Path, the file.
+     * @return ResultStore, the store.
+     * @throws IOException If the file couldn't be read or is not a results file.
+     */
+    public static ResultStore open(Path path) throws IOException {
+        Objects.requireNonNull(path);
+        var channel = FileChannel.open(path, READ, WRITE);
+        try {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // reads the whole header
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a results file");
+            }
+            var store = new ResultStore(path, channel, header.getLong(8), new Task.Range(header.getLong(16), header.getLong(24)));
+            store.heapSize = header.getLong(HEAP_SIZE_POSITION);
+            store.count = header.getLong(COUNT_POSITION);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer recordSegment(long segmentIndex) throws IOException {
+        var segment = recordSegments.get(segmentIndex);
+        if (segment == null) {
+            var position = HEADER_SIZE + segmentIndex * RECORD_SEGMENT_SIZE;
+            var size = Math.min(RECORD_SEGMENT_SIZE, heapStart - position);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+            recordSegments.put(segmentIndex, segment);
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer heapSegment(long segmentIndex) throws IOException {
+        var segment = heapSegments.get(segmentIndex);
+        if (segment == null) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, heapStart + segmentIndex * HEAP_SEGMENT_SIZE, HEAP_SEGMENT_SIZE);
+            heapSegments.put(segmentIndex, segment);
+        }
+        return segment;
+    }
+
+    private long index(long value) {
+        if (value < range.inf() || value > range.sup()) {
+            throw new IllegalArgumentException("value " + value + " out of the range " + range);
+        }
+        return value - range.inf();
+    }
+
+    // copies the bytes to or from the heap, across as many segments as needed
+    private void transferHeap(long offset, byte[] bytes, boolean write) throws IOException {
+        var done = 0;
+        while (done < bytes.length) {
+            var position = offset + done;
+            var segment = heapSegment(position / HEAP_SEGMENT_SIZE);
+            var positionInSegment = (int) (position % HEAP_SEGMENT_SIZE);
+            var length = Math.min(bytes.length - done, HEAP_SEGMENT_SIZE - positionInSegment);
+            if (write) {
+                segment.put(positionInSegment, bytes, done, length);
+            } else {
+                segment.get(positionInSegment, bytes, done, length);
+            }
+            done += length;
+        }
+    }
+
+    /**
+     * Stores the response of a value, a response already stored for this value is replaced.
+     *
+     * @param response Response, the response, its value must be in the range of the request.
+     * @throws IOException If the file couldn't be written.
+     */
+    public void put(Response response) throws IOException {
+        var index = index(response.value());
+        var message = response.response().getBytes(StandardCharsets.UTF_8);
+        var offset = heapSize;
+        transferHeap(offset, message, true);
+        heapSize += message.length;
+
+        var segment = recordSegment(index / RECORDS_PER_SEGMENT);
+        var position = (int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+        if (segment.get(position + 21) != PRESENT) {
+            count++;
+        }
+        segment.putLong(position, response.value())
+                .putLong(position + 8, offset)
+                .putInt(position + 16, message.length)
+                .put(position + 20, response.opcode())
+                .put(position + 21, PRESENT);
+        header.putLong(HEAP_SIZE_POSITION, heapSize).putLong(COUNT_POSITION, count);
+    }
+
+    /**
+     * Returns the response stored for a value.
+     *
+     * @param value Long, the value, in the range of the request.
+     * @return the response, or an empty optional if no response was stored for this value.
+     * @throws IOException If the file couldn't be read.
+     */
+    public Optional<Response> get(long value) throws IOException {
+        var index = index(value);
+        var segment = recordSegment(index / RECORDS_PER_SEGMENT);
+        var position = (int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+        if (segment.get(position + 21) != PRESENT) {
+            return Optional.empty();
+        }
+        var message = new byte[segment.getInt(position + 16)];
+        transferHeap(segment.getLong(position + 8), message, false);
+        return Optional.of(new Response(segment.getLong(position), segment.get(position + 20), new String(message, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns true if a response is stored for the value.
+     *
+     * @param value Long, the value, in the range of the request.
+     * @return boolean.
+     * @throws IOException If the file couldn't be read.
+     */
+    public boolean contains(long value) throws IOException {
+        var index = index(value);
+        return recordSegment(index / RECORDS_PER_SEGMENT).get((int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE + 21) == PRESENT;
+    }
+
+    /**
+     * Returns the number of values which have a response.
+     *
+     * @return Long, the number of values.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns true if every value of the range has a response.
+     *
+     * @return boolean.
+     */
+    public boolean isComplete() {
+        return count == nbRecords(range);
+    }
+
+    public long requestId() {
+        return requestId;
+    }
+
+    public Task.Range range() {
+        return range;
+    }
+
+    /**
+     * Writes the responses in a text file, ordered by value,
+     * in the format of the results files (the responses one after the other).
+     *
+     * @param target Path, the text file, an existing file is replaced.
+     * @throws IOException If a file couldn't be read or written.
+     */
+    public void exportText(Path target) throws IOException {
+        try (var writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            for (var value = range.inf(); ; value++) {
+                var response = get(value);
+                if (response.isPresent()) {
+                    writer.write(response.orElseThrow().toString());
+                }
+                if (value == range.sup()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the mapped buffers on the disk.
+     */
+    public void force() {
+        header.force();
+        recordSegments.values().forEach(MappedByteBuffer::force);
+        heapSegments.values().forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * Writes the store on the disk and closes it, the unused end of the heap is removed from the file.
+     *
+     * @throws IOException If the file couldn't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            force();
+            recordSegments.clear();
+            heapSegments.clear();
+            channel.truncate(heapStart + heapSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResultStore[" + path + ", request " + requestId + ", " + count + "/" + nbRecords(range) + " responses]";
+    }
+}
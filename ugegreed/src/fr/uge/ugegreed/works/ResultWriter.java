@@ -0,0 +1,461 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Writes the results files from a background thread, so the selector thread never waits for the disk.<br>
+ * Each request has its own buffer and its own file channel, kept open while the request is running.
+ * A buffer is written in its file when it is full or when its oldest byte has waited for FLUSH_DELAY,
+ * and the file is closed once the request is complete.<br>
+ * The responses of a request whose range is known are stored in a ResultStore instead,
+ * in any order, and the results file is exported from the store once the request is complete,
+ * on flush, and when the writer is closed : a full export is as long as the range, it is not done periodically.
+ * If its store couldn't be created, its responses are appended as text to the results file, as they come.
+ * A request started from the console also has a RequestJournal, checkpointed every FLUSH_DELAY
+ * right after its store is forced, so a request interrupted by a crash can be resumed.<br>
+ * The methods only enqueue a command for the writer thread, they can be called by any thread.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class ResultWriter implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ResultWriter.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long IDLE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30); // an idle file is closed, then reopened if needed
+
+    private sealed interface Command {}
+    private record Append(long requestId, Path path, String text) implements Command {}
+    private record Register(long requestId, Path path, Task.Range range, Task task, RequestJournal.Progress resumed)
+            implements Command {}
+    private record Assigned(long requestId, Id id, Task.Range range) implements Command {}
+    private record Store(long requestId, List<Response> responses) implements Command {}
+    private record Complete(long requestId) implements Command {}
+    private record Flush(CountDownLatch done) implements Command {}
+    private record Shutdown() implements Command {}
+
+    /**
+     * The results file of a request, only used by the writer thread.
+     */
+    private static final class ResultFile {
+        private final Path path;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private FileChannel channel;
+        private long pendingSince; // time of the oldest byte not written, 0 if the buffer is empty
+        private long lastWrite;
+
+        private ResultFile(Path path) {
+            this.path = path;
+        }
+    }
+
+    private final LinkedBlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    private final HashMap<Long, ResultFile> files = new HashMap<>();
+    private final HashMap<Long, Path> storedFiles = new HashMap<>();
+    private final HashMap<Long, ResultStore> stores = new HashMap<>();
+    private final HashMap<Long, Path> unstoredFiles = new HashMap<>(); // the requests whose store couldn't be created
+    private final HashMap<Long, RequestJournal> journals = new HashMap<>();
+    private long lastCheckpoint = System.nanoTime();
+    private final Thread writerThread;
+
+    public ResultWriter() {
+        writerThread = Thread.ofPlatform().daemon().name("result-writer").start(this::run);
+    }
+
+    /**
+     * Appends the text at the end of the results file of the request.
+     *
+     * @param requestId Long, the request.
+     * @param path Path, the results file of the request.
+     * @param text String, the text to append.
+     */
+    public void append(long requestId, Path path, String text) {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(text);
+        commands.add(new Append(requestId, path, text));
+    }
+
+    /**
+     * Returns the path of the binary store of a results file.
+     *
+     * @param path Path, the results file.
+     * @return Path, the store, next to the results file.
+     */
+    public static Path storePath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".store");
+    }
+
+    /**
+     * Creates the store of the request, the responses of the request will be given to store.
+     *
+     * @param requestId Long, the request.
+     * @param path Path, the results file of the request, exported from the store once the request is complete.
+     * @param range Range, the values of the request.
+     */
+    public void register(long requestId, Path path, Task.Range range) {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(range);
+        commands.add(new Register(requestId, path, range, null, null));
+    }
+
+    /**
+     * Returns the path of the journal of a results file.
+     *
+     * @param path Path, the results file.
+     * @return Path, the journal, next to the results file.
+     */
+    public static Path journalPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".journal");
+    }
+
+    /**
+     * Creates the store and the journal of a request, or reopens them if the request is resumed.
+     *
+     * @param requestId Long, the request.
+     * @param task Task, the request, its results file is exported from the store once the request is complete.
+     * @param resumed Progress, the journal of the request resumed, or null for a new request.
+     */
+    public void register(long requestId, Task task, RequestJournal.Progress resumed) {
+        Objects.requireNonNull(task);
+        commands.add(new Register(requestId, task.resultsFilename(), task.range(), task, resumed));
+    }
+
+    /**
+     * Records in the journal of the request the values assigned to an application.
+     *
+     * @param requestId Long, the request.
+     * @param id Id, the application.
+     * @param range Range, the values assigned.
+     */
+    public void assigned(long requestId, Id id, Task.Range range) {
+        Objects.requireNonNull(id);
+        Objects.requireNonNull(range);
+        commands.add(new Assigned(requestId, id, range));
+    }
+
+    /**
+     * Stores the responses in the store of the request, whatever their order.
+     *
+     * @param requestId Long, the request, previously registered.
+     * @param responses List of Response, the responses.
+     */
+    public void store(long requestId, List<Response> responses) {
+        Objects.requireNonNull(responses);
+        commands.add(new Store(requestId, responses));
+    }
+
+    /**
+     * Writes what is left of the results of the request and closes its file.
+     *
+     * @param requestId Long, the request.
+     */
+    public void complete(long requestId) {
+        commands.add(new Complete(requestId));
+    }
+
+    /**
+     * Waits until every text appended and every response stored before this call is written in its file,
+     * the results files of the running requests are exported from their stores.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        var done = new CountDownLatch(1);
+        commands.add(new Flush(done));
+        done.await();
+    }
+
+    /**
+     * Writes every result and closes every file, then stops the writer thread.
+     */
+    @Override
+    public void close() {
+        commands.add(new Shutdown());
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                var command = commands.poll(FLUSH_DELAY_NANOS, TimeUnit.NANOSECONDS);
+                var now = System.nanoTime();
+                switch (command) {
+                    case null -> {}
+                    case Append append -> append(append, now);
+                    case Register register -> register(register);
+                    case Assigned assigned -> {
+                        var journal = journals.get(assigned.requestId());
+                        if (journal != null) {
+                            journal.assigned(assigned.id(), assigned.range());
+                        }
+                    }
+                    case Store store -> store(store, now);
+                    case Complete complete -> {
+                        var file = files.remove(complete.requestId());
+                        if (file != null) {
+                            writeAndClose(file);
+                        }
+                        exportAndClose(complete.requestId());
+                        unstoredFiles.remove(complete.requestId());
+                        finishJournal(complete.requestId());
+                    }
+                    case Flush flush -> {
+                        files.values().forEach(file -> write(file, now));
+                        stores.forEach(this::export);
+                        checkpoint(now);
+                        flush.done().countDown();
+                    }
+                    case Shutdown shutdown -> {
+                        closeAll();
+                        return;
+                    }
+                }
+                writeExpiredBuffers(now);
+                if (now - lastCheckpoint >= FLUSH_DELAY_NANOS) {
+                    checkpoint(now);
+                }
+            }
+        } catch (InterruptedException e) {
+            closeAll();
+        }
+    }
+
+    private void closeAll() {
+        files.values().forEach(this::writeAndClose);
+        files.clear();
+        // the results received so far are exported, the store keeps them for a later run
+        for (var requestId : stores.keySet().toArray(Long[]::new)) {
+            exportAndClose(requestId);
+        }
+        // the stores are forced by close, the journals can be written
+        journals.values().forEach(ResultWriter::closeJournal);
+        journals.clear();
+    }
+
+    private void register(Register register) {
+        var path = storePath(register.path());
+        var resumed = register.resumed();
+        try {
+            var store = resumed == null ? null : ResultStore.open(path);
+            if (store != null && (store.requestId() != register.requestId() || !store.range().equals(register.range()))) {
+                store.close();
+                throw new IOException(path + " is the store of another request");
+            }
+            if (store == null) {
+                store = ResultStore.create(path, register.requestId(), register.range());
+            }
+            stores.put(register.requestId(), store);
+            storedFiles.put(register.requestId(), register.path());
+        } catch (IOException e) {
+            logger.severe("Failed to create the results store " + path + " : " + e.getMessage()
+                    + ", the results are appended to " + register.path() + " and the request can't be resumed");
+            unstoredFiles.put(register.requestId(), register.path());
+            return;
+        }
+        if (register.task() == null) {
+            return;
+        }
+        var journalPath = journalPath(register.path());
+        try {
+            journals.put(register.requestId(), resumed == null
+                    ? RequestJournal.create(journalPath, register.requestId(), register.task())
+                    : RequestJournal.resume(journalPath, resumed));
+        } catch (IOException e) {
+            logger.severe("Failed to create the journal " + journalPath + " : " + e.getMessage());
+        }
+    }
+
+    // the stores are forced before their journals are written, so a journaled value is always in its store
+    private void checkpoint(long now) {
+        lastCheckpoint = now;
+        for (var entry : journals.entrySet()) {
+            var journal = entry.getValue();
+            if (!journal.hasPendingRecords()) {
+                continue;
+            }
+            var store = stores.get(entry.getKey());
+            if (store != null) {
+                store.force();
+            }
+            try {
+                journal.checkpoint();
+            } catch (IOException e) {
+                logger.severe("Failed to write the journal of the request " + entry.getKey() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    private void finishJournal(long requestId) {
+        var journal = journals.remove(requestId);
+        if (journal != null) {
+            journal.finished();
+            closeJournal(journal);
+        }
+    }
+
+    private static void closeJournal(RequestJournal journal) {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.severe("Failed to write the journal " + journal + " : " + e.getMessage());
+        }
+    }
+
+    private void store(Store store, long now) {
+        var resultStore = stores.get(store.requestId());
+        if (resultStore == null) {
+            var path = unstoredFiles.get(store.requestId());
+            if (path == null) {
+                logger.warning("No results store for the request " + store.requestId());
+                return;
+            }
+            var builder = new StringBuilder();
+            store.responses().forEach(builder::append);
+            append(new Append(store.requestId(), path, builder.toString()), now);
+            return;
+        }
+        var journal = journals.get(store.requestId());
+        try {
+            // the consecutive values are journaled as a single range
+            var first = -1L;
+            var last = -1L;
+            for (var response : store.responses()) {
+                resultStore.put(response);
+                var value = response.value();
+                if (first >= 0 && value != last + 1) {
+                    journalCompleted(journal, first, last);
+                    first = -1;
+                }
+                if (first < 0) {
+                    first = value;
+                }
+                last = value;
+            }
+            if (first >= 0) {
+                journalCompleted(journal, first, last);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.severe("Failed to store the results of the request " + store.requestId() + " : " + e.getMessage());
+        }
+    }
+
+    private static void journalCompleted(RequestJournal journal, long first, long last) {
+        if (journal != null) {
+            journal.completed(new Task.Range(first, last));
+        }
+    }
+
+    // the results received so far, the store is forced before its journal is checkpointed
+    private void export(long requestId, ResultStore resultStore) {
+        var path = storedFiles.get(requestId);
+        resultStore.force();
+        try {
+            resultStore.exportText(path);
+        } catch (IOException e) {
+            logger.severe("Failed to export the results in " + path + " : " + e.getMessage());
+        }
+    }
+
+    private void exportAndClose(long requestId) {
+        var resultStore = stores.remove(requestId);
+        var path = storedFiles.remove(requestId);
+        if (resultStore == null) {
+            return;
+        }
+        try (resultStore) {
+            resultStore.exportText(path);
+        } catch (IOException e) {
+            logger.severe("Failed to export the results in " + path + " : " + e.getMessage());
+        }
+    }
+
+    private void append(Append append, long now) {
+        var file = files.computeIfAbsent(append.requestId(), __ -> new ResultFile(append.path()));
+        var bytes = append.text().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > file.buffer.remaining()) {
+            write(file, now);
+        }
+        if (bytes.length > file.buffer.capacity()) { // too large to be buffered
+            write(file, ByteBuffer.wrap(bytes), now);
+            return;
+        }
+        file.buffer.put(bytes);
+        if (file.pendingSince == 0) {
+            file.pendingSince = now;
+        }
+    }
+
+    private void writeExpiredBuffers(long now) {
+        for (var file : files.values()) {
+            if (file.pendingSince != 0 && now - file.pendingSince >= FLUSH_DELAY_NANOS) {
+                write(file, now);
+            } else if (file.pendingSince == 0 && file.channel != null && now - file.lastWrite >= IDLE_DELAY_NANOS) {
+                closeChannel(file);
+            }
+        }
+    }
+
+    private void write(ResultFile file, long now) {
+        file.buffer.flip();
+        try {
+            write(file, file.buffer, now);
+        } finally {
+            file.buffer.clear();
+            file.pendingSince = 0;
+        }
+    }
+
+    private void write(ResultFile file, ByteBuffer bytes, long now) {
+        if (!bytes.hasRemaining()) {
+            return;
+        }
+        try {
+            if (file.channel == null) {
+                file.channel = FileChannel.open(file.path, CREATE, WRITE, APPEND);
+            }
+            while (bytes.hasRemaining()) {
+                file.channel.write(bytes);
+            }
+            file.lastWrite = now;
+        } catch (IOException e) {
+            logger.severe("Failed to write the results in " + file.path + " : " + e.getMessage());
+            closeChannel(file);
+        }
+    }
+
+    private void writeAndClose(ResultFile file) {
+        write(file, System.nanoTime());
+        closeChannel(file);
+    }
+
+    private static void closeChannel(ResultFile file) {
+        if (file.channel == null) {
+            return;
+        }
+        try {
+            file.channel.close();
+        } catch (IOException e) {
+            // ignore exception
+        }
+        file.channel = null;
+    }
+}
@@ -0,0 +1,497 @@
+package fr.uge.ugegreed.works;
+
+import fr.uge.ugegreed.RouteTable;
+import fr.uge.ugegreed.records.Id;
+import fr.uge.ugegreed.records.Packet;
+import fr.uge.ugegreed.records.Response;
+import fr.uge.ugegreed.records.Task;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Spreads the requests of this application over the network.<br>
+ * A WorkRequest is sent to every application of the network, each one answers with its capacity
+ * (the number of values it can still compute per second). Once every application answered,
+ * or after AVAILABILITY_TIMEOUT_MS, a first wave of values is split in WorkAssignments proportional to the capacities.
+ * This application always takes its own share, so a request started on a lone application is computed too.<br>
+ * The rest of the range is pulled : an application which has computed its assignment sends a WorkAvailability again,
+ * and receives the next chunk of the range, sized from the throughput measured on its previous assignments.
+ * Once the whole range is assigned, an idle application steals the second half of the values not computed yet
+ * by the slowest one (or all of them if it has not made progress for STALL_DELAY_MS).
+ * The responses of the stolen values sent by the straggler are then ignored, so every value is saved once.
+ * While requests are running, a timer checks the assignments every half STALL_DELAY_MS :
+ * the values of an application which left the route table, or has not made progress for STALL_DELAY_MS
+ * (or three timeouts of the checker, if longer),
+ * are assigned again, first to the applications whose last pull found nothing to steal.<br>
+ * Once every value is received, a WorkRequest asking for no computation tells the applications the request is over.<br>
+ * A request resumed from its journal only assigns the sub-ranges the journal has not saved,
+ * every assignment is recorded in the journal through the ResponseCollector.<br>
+ * This class must only be used by the selector thread.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class Scheduler {
+    private static final Logger logger = Logger.getLogger(Scheduler.class.getName());
+    private static final long AVAILABILITY_TIMEOUT_MS = 2_000;
+    private static final long STALL_DELAY_MS = 10_000;
+    private static final double TARGET_CHUNK_SECONDS = 1; // time to compute a chunk, long enough to hide the round trip
+    private static final long MIN_CHUNK = 16;
+    private static final long MAX_CHUNK = 1 << 20;
+    private static final double THROUGHPUT_WEIGHT = 0.5; // weight of the last measure in the throughput
+
+    /**
+     * Values given to an application and not received yet.<br>
+     * sup shrinks when values are stolen, next is the first value not received.
+     */
+    private static final class Assignment {
+        private final Id id;
+        private final long inf;
+        private long sup;
+        private long next;
+        private final long assignedAt;
+        private long lastProgress;
+
+        private Assignment(Id id, Task.Range range, long now) {
+            this.id = id;
+            this.inf = range.inf();
+            this.sup = range.sup();
+            this.next = range.inf();
+            this.assignedAt = now;
+            this.lastProgress = now;
+        }
+
+        // saturated, a range may contain more than Long.MAX_VALUE values
+        private long remaining() {
+            var remaining = sup - next;
+            return remaining == Long.MAX_VALUE ? remaining : remaining + 1;
+        }
+    }
+
+    /**
+     * A request of this application.
+     */
+    private static final class Job {
+        private final Task task;
+        private final Set<Id> waitingFor;
+        private final LinkedHashMap<Id, Long> capacities = new LinkedHashMap<>();
+        private final HashSet<Id> participants = new HashSet<>();
+        private final TreeMap<Long, Assignment> assignments = new TreeMap<>(); // by first value
+        private final long deadline;
+        private final long stallNanos; // without any response for that long, an application has stalled
+        private final ArrayDeque<Task.Range> pending; // values not assigned yet
+        private final LinkedHashSet<Id> idle = new LinkedHashSet<>(); // their last pull found nothing to steal
+        private boolean started; // the first wave was assigned
+
+        private Job(Task task, List<Task.Range> pending, Set<Id> waitingFor, long deadline, long stallNanos) {
+            this.task = task;
+            this.stallNanos = stallNanos;
+            this.pending = new ArrayDeque<>(pending);
+            this.waitingFor = waitingFor;
+            this.deadline = deadline;
+        }
+
+        private boolean fullyAssigned() {
+            return pending.isEmpty();
+        }
+
+        // saturated, a range may contain more than Long.MAX_VALUE values
+        private long remaining() {
+            var remaining = 0L;
+            for (var range : pending) {
+                var size = range.sup() - range.inf();
+                remaining += size == Long.MAX_VALUE ? size : size + 1;
+                if (remaining < 0) {
+                    return Long.MAX_VALUE;
+                }
+            }
+            return remaining;
+        }
+
+        // the first values not assigned yet, at most size, taken from a single sub-range
+        private Task.Range take(long size) {
+            var first = pending.poll();
+            if (first.sup() - first.inf() < size) {
+                return first;
+            }
+            var taken = new Task.Range(first.inf(), first.inf() + size - 1);
+            pending.addFirst(new Task.Range(taken.sup() + 1, first.sup()));
+            return taken;
+        }
+    }
+
+    /**
+     * The values given to an application.
+     *
+     * @param id Id, the application.
+     * @param range Range, the values.
+     */
+    public record Share(Id id, Task.Range range) {}
+
+    private final HashMap<Long, Job> jobs = new HashMap<>();
+    private final HashSet<Long> finishedJobs = new HashSet<>();
+    private final HashMap<Id, Double> throughputs = new HashMap<>(); // values per second, kept from one request to another
+    private final Worker worker;
+    private final ResponseCollector responseCollector;
+    private final Runnable wakeup;
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+            Thread.ofPlatform().daemon().unstarted(runnable));
+    private final long stallDelayNanos;
+    private ScheduledFuture<?> stallTimer; // wakes the selector thread up while requests are running
+    private long nextStallCheck = System.nanoTime();
+
+    /**
+     * Scheduler constructor.
+     *
+     * @param worker Worker, computes the share of this application.
+     * @param responseCollector ResponseCollector, journals the assignments.
+     * @param wakeup Runnable, wakes up the selector thread when the capacities have waited too long,
+     * and when the assignments must be checked.
+     */
+    public Scheduler(Worker worker, ResponseCollector responseCollector, Runnable wakeup) {
+        this(worker, responseCollector, wakeup, STALL_DELAY_MS);
+    }
+
+    /**
+     * Scheduler constructor, with the time after which an application without progress has stalled.
+     *
+     * @param worker Worker, computes the share of this application.
+     * @param responseCollector ResponseCollector, journals the assignments.
+     * @param wakeup Runnable, wakes up the selector thread when the capacities have waited too long,
+     * and when the assignments must be checked.
+     * @param stallDelayMs Long, the time without any response after which the values of an application are assigned again.
+     */
+    public Scheduler(Worker worker, ResponseCollector responseCollector, Runnable wakeup, long stallDelayMs) {
+        if (stallDelayMs <= 0) {
+            throw new IllegalArgumentException("stallDelayMs should be positive");
+        }
+        this.worker = Objects.requireNonNull(worker);
+        this.responseCollector = Objects.requireNonNull(responseCollector);
+        this.wakeup = Objects.requireNonNull(wakeup);
+        this.stallDelayNanos = TimeUnit.MILLISECONDS.toNanos(stallDelayMs);
+    }
+
+    /**
+     * Splits the range in consecutive shares proportional to the capacities.<br>
+     * An application whose share would be empty gets nothing, the shares cover the whole range.
+     *
+     * @param range Range, the values to split.
+     * @param capacities Map of Id and Long, the capacity of each application, in the order of the shares.
+     * @return List of Share, the shares, ordered by value.
+     */
+    public static List<Share> split(Task.Range range, Map<Id, Long> capacities) {
+        var total = capacities.values().stream()
+                .filter(capacity -> capacity > 0)
+                .map(BigInteger::valueOf)
+                .reduce(BigInteger.ZERO, BigInteger::add);
+        if (total.signum() == 0) {
+            throw new IllegalArgumentException("no capacity to split the range");
+        }
+        var nbValues = BigInteger.valueOf(range.sup()).subtract(BigInteger.valueOf(range.inf())).add(BigInteger.ONE);
+        var shares = new ArrayList<Share>();
+        var cumulated = BigInteger.ZERO;
+        var start = range.inf(); // first value not given yet
+        for (var entry : capacities.entrySet()) {
+            if (entry.getValue() <= 0) {
+                continue;
+            }
+            cumulated = cumulated.add(BigInteger.valueOf(entry.getValue()));
+            // the share ends where the cumulated capacities end, so the rounding errors never add up
+            var end = nbValues.multiply(cumulated).divide(total)
+                    .add(BigInteger.valueOf(range.inf() - 1))
+                    .longValueExact();
+            if (end >= start) {
+                shares.add(new Share(entry.getKey(), new Task.Range(start, end)));
+                start = end + 1;
+            }
+        }
+        return List.copyOf(shares);
+    }
+
+    /**
+     * Returns the size of the next chunk pulled by an application.<br>
+     * The chunk takes about TARGET_CHUNK_SECONDS at the measured throughput,
+     * and never more than a share of what is left, so the end of the range is spread over every application.
+     *
+     * @param throughput Double, the values computed per second by the application, or null if not measured yet.
+     * @param capacity Long, the capacity advertised by the application, used until the throughput is measured.
+     * @param remaining Long, the number of values not assigned yet, positive.
+     * @param nbParticipants Int, the number of applications computing the request.
+     * @return Long, the size of the chunk, between 1 and remaining.
+     */
+    public static long chunkSize(Double throughput, long capacity, long remaining, int nbParticipants) {
+        var size = (long) Math.min(MAX_CHUNK, (throughput == null ? capacity : throughput) * TARGET_CHUNK_SECONDS);
+        var guided = remaining / (2L * Math.max(1, nbParticipants)) + 1;
+        size = Math.min(Math.min(size, guided), MAX_CHUNK);
+        return Math.min(remaining, Math.max(size, MIN_CHUNK));
+    }
+
+    /**
+     * Starts a request : its WorkRequests are sent to every application of the network.
+     *
+     * @param requestId Long, the request.
+     * @param task Task, the checker and the range of the request.
+     * @param pending List of Range, the values to compute, ordered : the whole range, or what a resumed request misses.
+     * @param routeTable RouteTable, the route table of this application.
+     */
+    public void start(long requestId, Task task, List<Task.Range> pending, RouteTable routeTable) {
+        if (pending.isEmpty()) {
+            throw new IllegalArgumentException("nothing to compute");
+        }
+        var selfId = routeTable.id();
+        var others = new HashSet<>(routeTable.getAllId());
+        others.remove(selfId);
+        // a batch is computed in at most two timeouts of the checker, the last value being abandoned after the second
+        var stallNanos = Math.max(stallDelayNanos, TimeUnit.MILLISECONDS.toNanos(3 * task.timeoutMs()));
+        var job = new Job(task, pending, others, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AVAILABILITY_TIMEOUT_MS),
+                stallNanos);
+        job.capacities.put(selfId, Math.max(1, worker.capacity())); // this application always takes a share
+        jobs.put(requestId, job);
+        if (stallTimer == null) {
+            var period = Math.max(1, stallDelayNanos / 2);
+            stallTimer = timeoutScheduler.scheduleAtFixedRate(wakeup, period, period, TimeUnit.NANOSECONDS);
+        }
+        if (others.isEmpty()) { // nobody to wait for
+            startFirstWave(requestId, job, routeTable);
+            return;
+        }
+
+        var nbValues = job.remaining();
+        for (var id : others) {
+            routeTable.sendTo(new Packet.Work.WorkRequest(selfId, id, requestId, task.checker(), task.range(), nbValues,
+                    task.timeoutMs()), id);
+        }
+        timeoutScheduler.schedule(wakeup, AVAILABILITY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        logger.info("Request " + requestId + " sent to " + others.size() + " applications");
+    }
+
+    /**
+     * Receives the capacity of an application for a request.<br>
+     * The first wave is assigned once every application answered,
+     * after that a WorkAvailability asks for the next chunk of the range.
+     *
+     * @param availability WorkAvailability, the answer of the application.
+     * @param routeTable RouteTable, the route table of this application.
+     */
+    public void onAvailability(Packet.Work.WorkAvailability availability, RouteTable routeTable) {
+        var requestId = availability.requestId();
+        var job = jobs.get(requestId);
+        var id = availability.idSrc();
+        if (job == null || (!job.started && !job.waitingFor.remove(id))) {
+            logger.info("Availability of " + id + " ignored for the request " + requestId);
+            return;
+        }
+        job.capacities.put(id, availability.nbComputation());
+        if (!job.started) {
+            if (job.waitingFor.isEmpty()) {
+                startFirstWave(requestId, job, routeTable);
+            }
+            return;
+        }
+        if (availability.nbComputation() > 0) {
+            assignNextChunk(requestId, job, id, routeTable);
+        }
+    }
+
+    /**
+     * Starts the requests whose applications have not all answered in time,
+     * with the capacities received so far.<br>
+     * Every half STALL_DELAY_MS, the values of the applications which left the route table or have stalled
+     * are assigned again.
+     *
+     * @param routeTable RouteTable, the route table of this application.
+     */
+    public void assignExpiredRequests(RouteTable routeTable) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        var now = System.nanoTime();
+        var expired = jobs.entrySet().stream()
+                .filter(entry -> !entry.getValue().started && now - entry.getValue().deadline >= 0)
+                .map(Map.Entry::getKey)
+                .toList();
+        expired.forEach(requestId -> startFirstWave(requestId, jobs.get(requestId), routeTable));
+        if (now - nextStallCheck >= 0) {
+            nextStallCheck = now + stallDelayNanos / 2;
+            jobs.forEach((requestId, job) -> reassignLostValues(requestId, job, now, routeTable));
+        }
+    }
+
+    // the values of an application which left or stalled are not assigned anymore,
+    // they are offered to the applications which found nothing to steal, the others will pull them
+    private void reassignLostValues(long requestId, Job job, long now, RouteTable routeTable) {
+        if (!job.started) {
+            return;
+        }
+        var selfId = routeTable.id();
+        var lost = job.assignments.values().stream()
+                .filter(assignment -> (!assignment.id.equals(selfId) && !routeTable.contains(assignment.id))
+                        || now - assignment.lastProgress >= job.stallNanos)
+                .toList();
+        for (var assignment : lost) {
+            job.assignments.remove(assignment.inf);
+            var range = new Task.Range(assignment.next, assignment.sup);
+            job.pending.addFirst(range);
+            logger.info("Request " + requestId + " : " + range + " taken back from " + assignment.id);
+        }
+        // the applications which left are not told when the request finishes
+        job.capacities.keySet().removeIf(id -> !id.equals(selfId) && !routeTable.contains(id));
+        job.idle.removeIf(id -> !id.equals(selfId) && !routeTable.contains(id));
+        if (job.fullyAssigned() || job.idle.isEmpty()) {
+            return;
+        }
+        var thieves = List.copyOf(job.idle);
+        job.idle.clear();
+        for (var thief : thieves) {
+            if (job.fullyAssigned()) {
+                job.idle.add(thief);
+            } else {
+                assignNextChunk(requestId, job, thief, routeTable);
+            }
+        }
+    }
+
+    // the first wave is split by capacity, the applications pull the rest of the range
+    private void startFirstWave(long requestId, Job job, RouteTable routeTable) {
+        job.started = true;
+        var totalCapacity = job.capacities.values().stream()
+                .mapToDouble(capacity -> Math.max(0, capacity))
+                .sum();
+        var waveSize = (long) Math.min(job.remaining(), Math.max(1, totalCapacity * TARGET_CHUNK_SECONDS));
+        var wave = job.take(waveSize);
+        for (var share : split(wave, job.capacities)) {
+            assign(requestId, job, share.id(), share.range(), routeTable);
+        }
+    }
+
+    private void assignNextChunk(long requestId, Job job, Id id, RouteTable routeTable) {
+        if (job.fullyAssigned()) {
+            steal(requestId, job, id, routeTable);
+            return;
+        }
+        var size = chunkSize(throughputs.get(id), job.capacities.get(id), job.remaining(), job.participants.size());
+        assign(requestId, job, id, job.take(size), routeTable);
+    }
+
+    // the thief takes the end of the assignment with the most values left,
+    // if there is nothing to steal, the values taken back from a lost application will be offered to it
+    private void steal(long requestId, Job job, Id thief, RouteTable routeTable) {
+        var straggler = job.assignments.values().stream()
+                .filter(assignment -> !assignment.id.equals(thief))
+                .max(Comparator.comparingLong(Assignment::remaining));
+        if (straggler.isEmpty()) {
+            job.idle.add(thief);
+            return;
+        }
+        var assignment = straggler.orElseThrow();
+        var remaining = assignment.remaining();
+        var stalled = System.nanoTime() - assignment.lastProgress >= job.stallNanos;
+        if (remaining < 2 && !stalled) {
+            job.idle.add(thief);
+            return;
+        }
+        var from = stalled ? assignment.next : assignment.next + remaining / 2;
+        var stolen = new Task.Range(from, assignment.sup);
+        if (from == assignment.next) {
+            job.assignments.remove(assignment.inf);
+        } else {
+            assignment.sup = from - 1;
+        }
+        logger.info("Request " + requestId + " : " + stolen + " stolen from " + assignment.id);
+        assign(requestId, job, thief, stolen, routeTable);
+    }
+
+    private void assign(long requestId, Job job, Id id, Task.Range range, RouteTable routeTable) {
+        var selfId = routeTable.id();
+        job.idle.remove(id);
+        job.assignments.put(range.inf(), new Assignment(id, range, System.nanoTime()));
+        job.participants.add(id);
+        responseCollector.recordAssignment(requestId, id, range);
+        var workAssignment = new Packet.Work.WorkAssignment(selfId, id, requestId, range);
+        if (id.equals(selfId)) {
+            worker.submitLocalWork(workAssignment, job.task, routeTable);
+        } else {
+            routeTable.sendTo(workAssignment, id);
+        }
+        logger.info("Request " + requestId + " : " + range + " assigned to " + id);
+    }
+
+    /**
+     * Keeps the responses of the batch expected from its sender : the values stolen from it, or already received,
+     * are removed.<br>
+     * The batches of the requests not started by this scheduler are kept whole.
+     *
+     * @param batch WorkResponseBatch, the responses received.
+     * @param routeTable RouteTable, the route table of this application.
+     * @return the responses to save, or an empty optional if there is none.
+     */
+    public Optional<Packet.Work.WorkResponseBatch> accept(Packet.Work.WorkResponseBatch batch, RouteTable routeTable) {
+        var requestId = batch.requestId();
+        var job = jobs.get(requestId);
+        if (job == null) {
+            return finishedJobs.contains(requestId) ? Optional.empty() : Optional.of(batch);
+        }
+        var now = System.nanoTime();
+        var accepted = new ArrayList<Response>(batch.responses().size());
+        for (var response : batch.responses()) {
+            var value = response.value();
+            var entry = job.assignments.floorEntry(value);
+            if (entry == null) {
+                continue;
+            }
+            var assignment = entry.getValue();
+            if (!assignment.id.equals(batch.idSrc()) || value < assignment.next || value > assignment.sup) {
+                continue;
+            }
+            accepted.add(response);
+            assignment.lastProgress = now;
+            if (value == assignment.sup) {
+                job.assignments.remove(assignment.inf);
+                measureThroughput(assignment, now);
+            } else {
+                assignment.next = value + 1;
+            }
+        }
+        if (job.fullyAssigned() && job.assignments.isEmpty()) {
+            finish(requestId, job, routeTable);
+        }
+        if (accepted.isEmpty()) {
+            return Optional.empty();
+        }
+        if (accepted.size() == batch.responses().size()) {
+            return Optional.of(batch);
+        }
+        return Optional.of(new Packet.Work.WorkResponseBatch(batch.idSrc(), batch.idDest(), requestId, accepted));
+    }
+
+    private void measureThroughput(Assignment assignment, long now) {
+        var seconds = Math.max(1, now - assignment.assignedAt) / 1e9;
+        var measure = (assignment.sup - assignment.inf + 1.0) / seconds;
+        throughputs.merge(assignment.id, measure,
+                (old, last) -> (1 - THROUGHPUT_WEIGHT) * old + THROUGHPUT_WEIGHT * last);
+    }
+
+    // the applications forget the request, they won't pull anymore
+    private void finish(long requestId, Job job, RouteTable routeTable) {
+        jobs.remove(requestId);
+        finishedJobs.add(requestId);
+        if (jobs.isEmpty() && stallTimer != null) {
+            stallTimer.cancel(false);
+            stallTimer = null;
+        }
+        var selfId = routeTable.id();
+        var task = job.task;
+        for (var id : job.capacities.keySet()) {
+            if (!id.equals(selfId)) {
+                routeTable.sendTo(new Packet.Work.WorkRequest(selfId, id, requestId, task.checker(), task.range(), 0,
+                        task.timeoutMs()), id);
+            }
+        }
+        logger.info("Request " + requestId + " computed by " + job.participants.size() + " applications");
+    }
+}
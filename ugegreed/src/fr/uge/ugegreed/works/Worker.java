@@ -10,21 +10,138 @@ import fr.uge.ugegreed.records.Task;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.stream.LongStream;
 
+/**
+ * Computes the work assignments received by the application.<br>
+ * The computation never runs on the selector thread : the responses are handed back
+ * through a lock-free queue and the selector is woken up to send them.
+ */
 public final class Worker {
     private static final short NB_THREADS = 5;
-    private static final int TIMEOUT_MS = 10_000; // 10 seconds
+    private static final int BATCH_SIZE_PER_VALUE_IN_FLIGHT = 16; // keeps every core busy
+    private static final int MAX_BATCH_SIZE = Packet.Work.WorkResponseBatch.MAX_RESPONSES * 16;
+    private static final int MAX_PENDING_BATCHES = 4;
+    private static final int CHECKER_CACHE_CAPACITY = 16;
+    private static final long FINISHED = -1; // values are positive, so it cannot be a next value
     private static final Logger logger = Logger.getLogger(Worker.class.getName());
 
+    /**
+     * The responses computed for an assignment, waiting to be sent by the selector thread.<br>
+     * last is true for the last responses of the assignment.
+     */
+    private record Completion(Execution execution, List<Response> responses, boolean last) {}
+
+    /**
+     * An assignment being computed.<br>
+     * nextValue is the first value whose response was not handed to the selector thread yet.
+     */
+    private static final class Execution {
+        private final Packet.Work.WorkAssignment workAssignment;
+        private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+        private long nextValue; // only used by the computing thread
+        private long lastBatchAt; // only used by the computing thread
+
+        private Execution(Packet.Work.WorkAssignment workAssignment) {
+            this.workAssignment = workAssignment;
+            this.nextValue = workAssignment.range().inf();
+        }
+    }
+
     private final HashMap<Id, Map<Long, Packet.Work.WorkRequest>> pendingRequests = new HashMap<>();
     private final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+    private final CheckerCache checkerCache;
+    // the platform threads for the checkers using the processors, virtual threads for those waiting for I/O
+    private final JarHandler.Runner runner = JarHandler.Runner.fromSystemProperties();
+    private final int batchSize = runner.isVirtual()
+            ? runner.parallelism() // every value of the batch is in flight at once
+            : Math.min(MAX_BATCH_SIZE, BATCH_SIZE_PER_VALUE_IN_FLIGHT * runner.parallelism());
+    private final CapacityEstimator capacityEstimator = new CapacityEstimator(runner.parallelism(), NB_THREADS);
+    private final JarDistributor jarDistributor;
+    private final ConcurrentLinkedQueue<Completion> completions = new ConcurrentLinkedQueue<>();
+    private final Runnable wakeup;
+    private final BiConsumer<Packet.Work, RouteTable> localDelivery;
+
+    /**
+     * Worker constructor.
+     *
+     * @param wakeup Runnable, wakes up the selector thread when responses are ready.
+     * @param jarCache JarCache, where the jars of the checkers are stored.
+     * @param jarDistributor JarDistributor, retrieves the jars from the other applications.
+     * @param localDelivery BiConsumer of Work and RouteTable, receives the packets sent by this worker to its own application.
+     */
+    public Worker(Runnable wakeup, JarCache jarCache, JarDistributor jarDistributor,
+                  BiConsumer<Packet.Work, RouteTable> localDelivery) {
+        this.wakeup = Objects.requireNonNull(wakeup);
+        this.checkerCache = new CheckerCache(CHECKER_CACHE_CAPACITY, jarCache);
+        this.jarDistributor = Objects.requireNonNull(jarDistributor);
+        this.localDelivery = Objects.requireNonNull(localDelivery);
+        logger.info("Values checked on " + runner);
+    }
+
+    private void complete(Execution execution, List<Response> responses, boolean last) {
+        if (last) {
+            capacityEstimator.onAssignmentFinished();
+        }
+        completions.add(new Completion(execution, responses, last));
+        wakeup.run();
+    }
 
-    // 1 response = 1 result for a range of the ranges' list
-    private static List<Response> run(Task task) {
-        var jar = task.checker();
-        return JarHandler.handleJar(jar.javaUrl(), jar.classPath(), task.range());
+    // called by the computing thread for each batch, blocks while too many batches are waiting to be sent
+    private void onBatch(Execution execution, List<Response> batch) throws InterruptedException {
+        // the time waiting for the selector thread is not computing time
+        var elapsed = System.nanoTime() - execution.lastBatchAt;
+        execution.pendingBatches.acquire();
+        execution.lastBatchAt = System.nanoTime();
+        var last = batch.get(batch.size() - 1).value();
+        var next = last == execution.workAssignment.range().sup() ? FINISHED : last + 1;
+        execution.nextValue = next;
+        capacityEstimator.onValuesComputed(batch.size(), elapsed);
+        complete(execution, batch, next == FINISHED);
+    }
+
+    private void run(Execution execution, Task task) {
+        execution.lastBatchAt = System.nanoTime();
+        try {
+            // each value has its own deadline, the values computed in time are always kept
+            JarHandler.handleJar(checkerCache, task.checker(), task.range(),
+                    batchSize, task.timeoutMs(), runner, batch -> onBatch(execution, batch));
+        } catch (InterruptedException e) {
+            logger.info("computation interrupted for request " + execution.workAssignment.requestId());
+            // the last completion frees the place of the assignment in the capacity estimate
+            reportRemaining(execution, Response.JOB_EXCEPTION);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.severe("computation failed for request " + execution.workAssignment.requestId() + " : " + e);
+            reportRemaining(execution, Response.JOB_EXCEPTION);
+        }
+    }
+
+    // called by the computing thread, reports every value that was not reported yet with the given opcode
+    private void reportRemaining(Execution execution, byte opcode) {
+        var firstValue = execution.nextValue;
+        if (firstValue == FINISHED) {
+            return;
+        }
+        execution.nextValue = FINISHED;
+
+        // reported by batches, each one waits for a place like the computed ones,
+        // so a huge remaining range is never held in memory at once
+        var sup = execution.workAssignment.range().sup();
+        for (var start = firstValue; ; start += batchSize) {
+            execution.pendingBatches.acquireUninterruptibly(); // released by the selector thread once sent
+            var end = start + Math.min(batchSize - 1L, sup - start);
+            var responses = LongStream.rangeClosed(start, end)
+                    .mapToObj(i -> new Response(i, opcode, ""))
+                    .toList();
+            capacityEstimator.onValuesDropped(responses.size());
+            complete(execution, responses, end == sup);
+            if (end == sup) {
+                break;
+            }
+        }
     }
 
     private static ApplicationContext resolveDestinationContext(Id destinationId, RouteTable routeTable) {
@@ -35,45 +152,100 @@ public final class Worker {
         );
     }
 
-    private static void sendWorkResponse(Packet.Work.WorkAssignment workAssignment, List<Response> responses, RouteTable routeTable) {
+    // the responses are sent by blocks, the ids and the request id are not repeated for each value
+    private void sendWorkResponses(Packet.Work.WorkAssignment workAssignment, List<Response> responses, RouteTable routeTable) {
         var destinationId = workAssignment.idSrc();
-        var destinationContext = resolveDestinationContext(destinationId, routeTable);
-        responses.forEach(response -> {
-            var workResponse = new Packet.Work.WorkResponse(
-                    destinationId,
+        // the work of this application is never sent on the network
+        var local = destinationId.equals(routeTable.id());
+        var destinationContext = local ? null : resolveDestinationContext(destinationId, routeTable);
+        for (var from = 0; from < responses.size(); from += Packet.Work.WorkResponseBatch.MAX_RESPONSES) {
+            var to = Math.min(responses.size(), from + Packet.Work.WorkResponseBatch.MAX_RESPONSES);
+            var workResponseBatch = new Packet.Work.WorkResponseBatch(
+                    workAssignment.idDest(),
                     destinationId,
                     workAssignment.requestId(),
-                    response
+                    responses.subList(from, to)
             );
 
-            destinationContext.queueMessage(workResponse);
-        });
+            if (local) {
+                localDelivery.accept(workResponseBatch, routeTable);
+            } else {
+                destinationContext.queueMessage(workResponseBatch);
+            }
+        }
+    }
+
+    // once its assignment is computed, the worker asks the source of the work for the next values
+    private void pullNextAssignment(Packet.Work.WorkAssignment workAssignment, RouteTable routeTable) {
+        // the assignment has just freed a place, the source gets at least a few values back
+        var availability = new Packet.Work.WorkAvailability(
+                workAssignment.idDest(),
+                workAssignment.idSrc(),
+                workAssignment.requestId(),
+                Math.max(1, capacity())
+        );
+        if (workAssignment.idSrc().equals(routeTable.id())) {
+            localDelivery.accept(availability, routeTable);
+            return;
+        }
+        resolveDestinationContext(workAssignment.idSrc(), routeTable).queueMessage(availability);
     }
 
-    private static void sendWorkResponseTimeout(Packet.Work.WorkAssignment workAssignment, RouteTable routeTable) {
+    private void execute(Packet.Work.WorkAssignment workAssignment, Task task) {
+        var execution = new Execution(workAssignment);
         var range = workAssignment.range();
-        var responses = LongStream.range(range.inf(), range.sup())
-                .mapToObj(i -> new Response(i, Response.JOB_TIMEOUT, ""))
-                .toList();
-        sendWorkResponse(workAssignment, responses, routeTable);
+        capacityEstimator.onAssignmentStarted(range.sup() - range.inf() == Long.MAX_VALUE ? Long.MAX_VALUE : range.sup() - range.inf() + 1);
+        executor.execute(() -> run(execution, task));
     }
 
-    private void execute(Packet.Work.WorkAssignment workAssignment, Callable<List<Response>> callable, RouteTable routeTable) {
-        var future = executor.submit(callable);
-        try {
-            var results = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            sendWorkResponse(workAssignment, results, routeTable);
-        } catch(TimeoutException e) {
-            sendWorkResponseTimeout(workAssignment, routeTable);
-        } catch(ExecutionException e) {
-            executor.shutdown();
-            throw new AssertionError(e);
-        } catch(InterruptedException e) {
-            logger.warning("Thread interrupted during computation");
-            executor.shutdown();
+    /**
+     * Sends the responses computed since the last call.<br>
+     * This method must be called by the selector thread, it never blocks.
+     *
+     * @param routeTable RouteTable, used to find the destination of the responses.
+     */
+    public void processCompletedWork(RouteTable routeTable) {
+        for (var completion = completions.poll(); completion != null; completion = completions.poll()) {
+            var execution = completion.execution();
+            sendWorkResponses(execution.workAssignment, completion.responses(), routeTable);
+            execution.pendingBatches.release();
+            if (completion.last()) {
+                pullNextAssignment(execution.workAssignment, routeTable);
+            }
         }
     }
 
+    /**
+     * Returns the cache of the checkers loaded by this worker, with its hit and miss counters.
+     *
+     * @return CheckerCache, the cache.
+     */
+    public CheckerCache checkerCache() {
+        return checkerCache;
+    }
+
+    /**
+     * Returns the number of values this worker can still compute per second, advertised in the WorkAvailability packets.
+     *
+     * @return Long, the capacity, 0 if the worker is saturated.
+     */
+    public long capacity() {
+        return capacityEstimator.capacity();
+    }
+
+    /**
+     * Computes a share of a request of this application, the responses are given to the local consumer.
+     *
+     * @param workAssignment WorkAssignment, the share, from this application to itself.
+     * @param task Task, the checker of the request.
+     * @param routeTable RouteTable, the route table of this application.
+     */
+    public void submitLocalWork(Packet.Work.WorkAssignment workAssignment, Task task, RouteTable routeTable) {
+        var localTask = new Task(task.checker(), workAssignment.range(), task.resultsFilename(), task.timeoutMs());
+        jarDistributor.awaitJar(task.checker().javaUrl(), workAssignment.idDest(), workAssignment.idSrc(),
+                () -> execute(workAssignment, localTask), routeTable);
+    }
+
     public void submitWorkRequest(Packet.Work.WorkRequest workRequest, long nbComputation) {
         var newWorkRequest = new Packet.Work.WorkRequest(
                 workRequest.idSrc(),
@@ -81,7 +253,8 @@ public final class Worker {
                 workRequest.requestId(),
                 workRequest.checker(),
                 workRequest.range(),
-                nbComputation
+                nbComputation,
+                workRequest.timeoutMs()
         );
         var sourceId = newWorkRequest.idSrc();
         var submittedTasks = pendingRequests.getOrDefault(sourceId, new HashMap<>());
@@ -89,6 +262,25 @@ public final class Worker {
         pendingRequests.putIfAbsent(sourceId, submittedTasks);
     }
 
+    /**
+     * Forgets a work request, its source won't assign any more values.
+     *
+     * @param sourceId Id, the source of the request.
+     * @param requestId Long, the request.
+     */
+    public void forgetWorkRequest(Id sourceId, long requestId) {
+        var submittedTasks = pendingRequests.get(sourceId);
+        if (submittedTasks == null) {
+            return;
+        }
+        submittedTasks.remove(requestId);
+        if (submittedTasks.isEmpty()) {
+            pendingRequests.remove(sourceId);
+        }
+    }
+
+    // the computation starts once the jar is available, it may be retrieved from the source of the work first.
+    // the work request is kept, the next values of the request are pulled with the same checker
     public void submitWorkAssignment(Packet.Work.WorkAssignment workAssignment, Path resultFile, RouteTable routeTable) {
         var submittedTasks = pendingRequests.get(workAssignment.idSrc());
         if(submittedTasks == null) {
@@ -101,8 +293,8 @@ public final class Worker {
             throw new IllegalStateException("no work request was previously submitted for this assignment");
         }
 
-        var task = new Task(workRequest.checker(), workRequest.range(), resultFile);
-        execute(workAssignment, () -> run(task), routeTable);
-        submittedTasks.remove(requestId);
+        var task = new Task(workRequest.checker(), workAssignment.range(), resultFile, workRequest.timeoutMs());
+        jarDistributor.awaitJar(task.checker().javaUrl(), workAssignment.idDest(), workAssignment.idSrc(),
+                () -> execute(workAssignment, task), routeTable);
     }
 }
@@ -0,0 +1,69 @@
+package fr.uge.ugegreed.writer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct buffers of the same size, shared by the connections of an application.<br>
+ * Direct buffers are expensive to allocate and are not reclaimed quickly by the garbage collector,
+ * so the buffers released by a connection are reused by the others.<br>
+ * This class is not thread-safe, it must only be used by the selector thread.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class BufferPool {
+  private final int bufferSize;
+  private final int maxPooledBuffers;
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+  /**
+   * BufferPool constructor.
+   *
+   * @param bufferSize Int, the capacity of the buffers.
+   * @param maxPooledBuffers Int, the maximum number of free buffers kept, the others are dropped.
+   */
+  public BufferPool(int bufferSize, int maxPooledBuffers) {
+    if (bufferSize <= 0 || maxPooledBuffers < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.bufferSize = bufferSize;
+    this.maxPooledBuffers = maxPooledBuffers;
+  }
+
+  /**
+   * Returns an empty direct buffer, in write-mode.
+   *
+   * @return ByteBuffer, the buffer.
+   */
+  public ByteBuffer acquire() {
+    var buffer = freeBuffers.poll();
+    return buffer == null ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+  }
+
+  /**
+   * Gives back a buffer acquired from this pool.
+   *
+   * @param buffer ByteBuffer, the buffer, it must not be used anymore.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+      throw new IllegalArgumentException("buffer not acquired from this pool");
+    }
+    if (freeBuffers.size() < maxPooledBuffers) {
+      freeBuffers.push(buffer.clear()); // the last released buffer is the hottest one
+    }
+  }
+
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Returns the number of free buffers in the pool.
+   *
+   * @return Int, the number of free buffers.
+   */
+  public int freeBuffers() {
+    return freeBuffers.size();
+  }
+}
@@ -0,0 +1,116 @@
+package fr.uge.ugegreed.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * Output of a connection, made of a ring of direct buffers taken from a BufferPool.<br>
+ * The packets are written in the last buffer of the ring (the tail), a new buffer is added when it is full,
+ * up to maxSegments buffers. All the buffers are sent at once with a gathering write,
+ * the buffers completely sent go back to the pool.<br>
+ * This class is not thread-safe, it must only be used by the selector thread.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class OutputRing {
+  private final BufferPool pool;
+  private final int maxSegments;
+  // every segment is in write-mode, only the tail is not full
+  private final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+  private final ByteBuffer[] gatheredBuffers;
+
+  /**
+   * OutputRing constructor.
+   *
+   * @param pool BufferPool, where the buffers are taken from.
+   * @param maxSegments Int, the maximum number of buffers of the ring.
+   */
+  public OutputRing(BufferPool pool, int maxSegments) {
+    if (maxSegments <= 0) {
+      throw new IllegalArgumentException("maxSegments should be positive");
+    }
+    this.pool = Objects.requireNonNull(pool);
+    this.maxSegments = maxSegments;
+    this.gatheredBuffers = new ByteBuffer[maxSegments + 1];
+  }
+
+  /**
+   * Returns the buffer where the next bytes must be written, in write-mode.
+   *
+   * @return ByteBuffer, the tail of the ring.
+   */
+  public ByteBuffer tail() {
+    if (segments.isEmpty()) {
+      segments.add(pool.acquire());
+    }
+    return segments.peekLast();
+  }
+
+  /**
+   * Adds a new buffer at the end of the ring, if the ring is not full.
+   *
+   * @return True if a buffer was added, false if the ring already has maxSegments buffers.
+   */
+  public boolean grow() {
+    if (segments.size() >= maxSegments) {
+      return false;
+    }
+    segments.add(pool.acquire());
+    return true;
+  }
+
+  /**
+   * Returns true if there is no byte waiting to be sent.
+   *
+   * @return boolean.
+   */
+  public boolean isEmpty() {
+    var first = segments.peekFirst();
+    return first == null || first.position() == 0;
+  }
+
+  /**
+   * Sends as many bytes as possible to the channel with one gathering write.<br>
+   * The extra bytes, in read-mode, are sent after the content of the ring.
+   *
+   * @param channel GatheringByteChannel, the channel.
+   * @param extra ByteBuffer, bytes to send after the ring, may be empty.
+   * @return Long, the number of bytes written.
+   * @throws IOException If the channel had a problem during writing.
+   */
+  public long writeTo(GatheringByteChannel channel, ByteBuffer extra) throws IOException {
+    var count = 0;
+    for (var segment : segments) {
+      gatheredBuffers[count++] = segment.flip();
+    }
+    gatheredBuffers[count++] = extra;
+    try {
+      return channel.write(gatheredBuffers, 0, count);
+    } finally {
+      for (var i = 0; i < count - 1; i++) {
+        gatheredBuffers[i].compact();
+      }
+      gatheredBuffers[count - 1] = null;
+      releaseSentSegments();
+    }
+  }
+
+  // the sent segments go back to the pool, the first one is kept for the next packets
+  private void releaseSentSegments() {
+    while (segments.size() > 1 && segments.peekFirst().position() == 0) {
+      pool.release(segments.pollFirst());
+    }
+  }
+
+  /**
+   * Gives every buffer back to the pool, the bytes not sent are lost.<br>
+   * The ring must not be used anymore.
+   */
+  public void release() {
+    segments.forEach(pool::release);
+    segments.clear();
+  }
+}
@@ -0,0 +1,122 @@
+package fr.uge.ugegreed.writer;
+
+import fr.uge.ugegreed.records.Packet;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Writer of any packet.<br>
+ * The packet is encoded directly in the buffer when it fits in it.
+ * Otherwise, it is encoded once in a direct staging buffer, grown by powers of two and kept for the next packets,
+ * or in a heap buffer of exactly its size for the rare packets larger than MAX_STAGING_SIZE.
+ * The staging buffer is then copied in the buffer across several calls of process,
+ * or written by the caller along with the buffer (see pending).<br>
+ * A packet is never partially encoded in the buffer : an encoding that failed is rolled back.
+ *
+ * @author Axel BELIN and Thomas VELU.
+ */
+public final class PacketWriter implements Writer<Packet> {
+  public static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+  private static final int INITIAL_STAGING_SIZE = 2 * 1024;
+  private static final int MAX_STAGING_SIZE = 1024 * 1024; // larger direct buffers are not kept
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private enum State { EMPTY, WAITING_ENCODE, WAITING_COPY, DONE }
+
+  private State state = State.EMPTY;
+  private Packet packet;
+  private ByteBuffer staging = ByteBuffer.allocateDirect(INITIAL_STAGING_SIZE);
+  private ByteBuffer encoded = staging; // the staging buffer, or the heap buffer of a huge packet
+
+  @Override
+  public void set(Packet value) {
+    Objects.requireNonNull(value);
+    if (state != State.EMPTY) {
+      throw new IllegalStateException("writer is not empty");
+    }
+    packet = value;
+    state = State.WAITING_ENCODE;
+  }
+
+  // encodes the packet in the buffer, the position of the buffer is restored if it doesn't fit
+  private static boolean tryEncode(Packet packet, ByteBuffer bb) {
+    var position = bb.position();
+    if (packet.encode(bb)) {
+      return true;
+    }
+    bb.position(position);
+    return false;
+  }
+
+  private void encodeInStaging(int size) {
+    if (size > MAX_PACKET_SIZE) {
+      throw new IllegalArgumentException("packet larger than " + MAX_PACKET_SIZE + " bytes : " + packet);
+    }
+    if (size > MAX_STAGING_SIZE) {
+      encoded = ByteBuffer.allocate(size);
+    } else {
+      if (staging.capacity() < size) {
+        staging = ByteBuffer.allocateDirect(Math.max(size, Integer.highestOneBit(size - 1) << 1));
+      }
+      encoded = staging;
+    }
+    encoded.clear().limit(size);
+    if (!tryEncode(packet, encoded) || encoded.hasRemaining()) {
+      throw new IllegalStateException("size of the packet is wrong : " + packet);
+    }
+    encoded.flip();
+  }
+
+  /**
+   * Returns the bytes of the packet which are not copied in the buffer yet, in read-mode.<br>
+   * They must be sent right after the content of the buffer,
+   * the caller may consume them directly, with a gathering write for example.
+   *
+   * @return ByteBuffer, the bytes left, empty if the packet fits in the buffer.
+   */
+  public ByteBuffer pending() {
+    return state == State.WAITING_COPY ? encoded : EMPTY;
+  }
+
+  @Override
+  public ProcessStatus process(ByteBuffer bb) {
+    Objects.requireNonNull(bb);
+    if (state == State.EMPTY || state == State.DONE) {
+      throw new IllegalStateException();
+    }
+    if (state == State.WAITING_ENCODE) {
+      var size = packet.size();
+      if (size <= bb.remaining() && tryEncode(packet, bb)) {
+        state = State.DONE;
+        return ProcessStatus.DONE;
+      }
+      encodeInStaging(size);
+      state = State.WAITING_COPY;
+    }
+
+    // state == WAITING_COPY
+    var length = Math.min(bb.remaining(), encoded.remaining());
+    bb.put(bb.position(), encoded, encoded.position(), length);
+    bb.position(bb.position() + length);
+    encoded.position(encoded.position() + length);
+    if (encoded.hasRemaining()) {
+      return ProcessStatus.REFILL;
+    }
+    state = State.DONE;
+    return ProcessStatus.DONE;
+  }
+
+  @Override
+  public boolean isWriting() {
+    return state == State.WAITING_ENCODE || state == State.WAITING_COPY;
+  }
+
+  @Override
+  public void reset() {
+    state = State.EMPTY;
+    packet = null;
+    encoded = staging; // the heap buffer of a huge packet is dropped
+    staging.clear();
+  }
+}
@@ -0,0 +1,52 @@
+package fr.uge.ugegreed.writer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface which defines multiple methods.<br>
+ * These methods are used by Writers of T type, the counterpart of the Readers.<br>
+ * A writer encodes one value at a time, possibly across several calls of process,
+ * so a value larger than the buffer can be sent.
+ *
+ * @param <T> Type, any type technically.
+ * @author Axel BELIN and Thomas VELU.
+ */
+public interface Writer<T> {
+
+  /**
+   * Represents the global state of a writer.
+   */
+  enum ProcessStatus { DONE, REFILL }
+
+  /**
+   * Gives the value to encode.<br>
+   * This method should be called when the writer is empty (new or reset).
+   *
+   * @param value T value.
+   */
+  void set(T value);
+
+  /**
+   * Writes as much of the value as possible in the given buffer and returns the current state of the writing process.<br>
+   * For example :<br>
+   * - DONE means the writer is done, and the whole value has been written,<br>
+   * - REFILL means the buffer is full, and process should be recalled once the buffer has been drained.
+   *
+   * @param bb ByteBuffer, the buffer in write-mode.
+   * @return ProcessStatus (DONE, REFILL).
+   */
+  ProcessStatus process(ByteBuffer bb);
+
+  /**
+   * Returns true if a value has been set and is not completely written yet.
+   *
+   * @return boolean.
+   */
+  boolean isWriting();
+
+  /**
+   * Resets the writer, removing the value and the bytes not written yet.
+   */
+  void reset();
+
+}